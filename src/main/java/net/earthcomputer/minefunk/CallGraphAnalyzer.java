@@ -1,12 +1,10 @@
 package net.earthcomputer.minefunk;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeMap;
 
 /**
  * A class which contains utilities for analyzing call graphs
@@ -24,107 +22,707 @@ public class CallGraphAnalyzer {
 	 * cycle is present.
 	 * 
 	 * @author Earthcomputer
-	 *
-	 * @param <T>
-	 *            - the type of a call graph node
 	 */
 	// https://en.wikipedia.org/wiki/Tarjan%27s_strongly_connected_components_algorithm
-	public static class StronglyConnectedComponentsFinder<T> {
-
-		private Map<T, Set<T>> graph;
-		private int index;
-		private Map<T, Integer> indexes = new HashMap<>();
-		private Map<T, Integer> lowlinks = new HashMap<>();
-		private Set<T> onStack = new HashSet<>();
-		private Deque<T> stack = new ArrayDeque<>();
-		private Result<T> result;
-
-		public StronglyConnectedComponentsFinder(Map<T, Set<T>> graph) {
-			this.graph = graph;
-		}
-
-		public Result<T> findStronglyConnectedComponents() {
-			indexes.clear();
-			lowlinks.clear();
-			onStack.clear();
-			result = new Result<>();
-
-			index = 0;
-			stack.clear();
-			graph.keySet().forEach(vertex -> {
-				if (!indexes.containsKey(vertex)) {
-					strongConnect(vertex);
+	public static class StronglyConnectedComponentsFinder {
+
+		private StronglyConnectedComponentsFinder() {
+		}
+
+		/**
+		 * Finds the strongly connected components of a graph whose nodes are
+		 * numbered <tt>0</tt> to <tt>nodeCount - 1</tt>. The edges going out of
+		 * node <tt>n</tt> are the nodes in <tt>targets</tt> between indexes
+		 * <tt>offsets[n]</tt> (inclusive) and <tt>offsets[n + 1]</tt>
+		 * (exclusive).
+		 * <p>
+		 * This method is not recursive, so it can't overflow the stack on long
+		 * chains of references.
+		 * 
+		 * @param nodeCount
+		 *            - the number of nodes
+		 * @param offsets
+		 *            - the offset of the edges of each node in
+		 *            <tt>targets</tt>, with an extra element at the end
+		 * @param targets
+		 *            - the targets of the edges
+		 * @return The strongly connected components
+		 */
+		public static Components findStronglyConnectedComponents(int nodeCount, int[] offsets, int[] targets) {
+			Components result = new Components(nodeCount);
+
+			// An index of 0 means the node hasn't been visited yet
+			int[] indexes = new int[nodeCount];
+			int[] lowlinks = new int[nodeCount];
+			int[] nextEdges = new int[nodeCount];
+			BitSet onStack = new BitSet(nodeCount);
+			int[] stack = new int[nodeCount];
+			int stackSize = 0;
+			// The nodes which would be on the Java stack in the recursive
+			// version of the algorithm
+			int[] callStack = new int[nodeCount];
+			int callStackSize = 0;
+			int index = 1;
+			int orderSize = 0;
+
+			for (int root = 0; root < nodeCount; root++) {
+				if (indexes[root] != 0) {
+					continue;
+				}
+				indexes[root] = lowlinks[root] = index++;
+				nextEdges[root] = offsets[root];
+				stack[stackSize++] = root;
+				onStack.set(root);
+				callStack[callStackSize++] = root;
+
+				while (callStackSize > 0) {
+					int vertex = callStack[callStackSize - 1];
+					if (nextEdges[vertex] < offsets[vertex + 1]) {
+						int nextVertex = targets[nextEdges[vertex]++];
+						if (nextVertex == vertex) {
+							result.singleNodeCycles.set(vertex);
+						} else if (indexes[nextVertex] == 0) {
+							// "Recurse" into the next vertex
+							indexes[nextVertex] = lowlinks[nextVertex] = index++;
+							nextEdges[nextVertex] = offsets[nextVertex];
+							stack[stackSize++] = nextVertex;
+							onStack.set(nextVertex);
+							callStack[callStackSize++] = nextVertex;
+						} else if (onStack.get(nextVertex)) {
+							if (indexes[nextVertex] < lowlinks[vertex]) {
+								lowlinks[vertex] = indexes[nextVertex];
+							}
+						}
+					} else {
+						// All edges visited, "return" from this vertex
+						callStackSize--;
+						if (lowlinks[vertex] == indexes[vertex]) {
+							int component = result.componentCount++;
+							int node;
+							do {
+								node = stack[--stackSize];
+								onStack.clear(node);
+								result.components[node] = component;
+								result.dependencyOrder[orderSize++] = node;
+								result.componentSizes[component]++;
+							} while (node != vertex);
+						}
+						if (callStackSize > 0) {
+							int caller = callStack[callStackSize - 1];
+							if (lowlinks[vertex] < lowlinks[caller]) {
+								lowlinks[caller] = lowlinks[vertex];
+							}
+						}
+					}
 				}
-			});
+			}
 
 			return result;
 		}
 
-		private void strongConnect(T vertex) {
-			indexes.put(vertex, index);
-			lowlinks.put(vertex, index);
-			index++;
-			stack.push(vertex);
-			onStack.add(vertex);
-
-			graph.get(vertex).forEach(nextVertex -> {
-				if (nextVertex.equals(vertex)) {
-					result.singleNodeCycles.add(vertex);
-				} else if (!indexes.containsKey(nextVertex)) {
-					strongConnect(nextVertex);
-					int nextVertexLowlink = lowlinks.get(nextVertex);
-					if (nextVertexLowlink < lowlinks.get(vertex)) {
-						lowlinks.put(vertex, nextVertexLowlink);
-					}
-				} else if (onStack.contains(nextVertex)) {
-					int nextVertexIndex = indexes.get(nextVertex);
-					if (nextVertexIndex < lowlinks.get(vertex)) {
-						lowlinks.put(vertex, nextVertexIndex);
+	}
+
+	/**
+	 * The strongly connected components of a graph whose nodes are numbered
+	 * with consecutive integers starting at 0
+	 * 
+	 * @author Earthcomputer
+	 */
+	public static class Components implements ConnectedComponentQuery {
+		private int[] components;
+		private int[] componentSizes;
+		private int componentCount;
+		private BitSet singleNodeCycles;
+		private int[] dependencyOrder;
+
+		private Components(int nodeCount) {
+			this.components = new int[nodeCount];
+			this.componentSizes = new int[nodeCount];
+			this.singleNodeCycles = new BitSet(nodeCount);
+			this.dependencyOrder = new int[nodeCount];
+		}
+
+		/**
+		 * Gets the number of strongly connected components
+		 * 
+		 * @return The number of components
+		 */
+		public int getComponentCount() {
+			return componentCount;
+		}
+
+		/**
+		 * Gets the strongly connected component containing the given node.
+		 * Components are numbered in dependency order, so a component never
+		 * references a component with a higher number.
+		 * 
+		 * @param node
+		 *            - the node
+		 * @return The component number
+		 */
+		public int getComponent(int node) {
+			return components[node];
+		}
+
+		/**
+		 * Gets the number of nodes in the given component
+		 * 
+		 * @param component
+		 *            - the component number
+		 * @return The number of nodes
+		 */
+		public int getComponentSize(int component) {
+			return componentSizes[component];
+		}
+
+		@Override
+		public boolean isConnectedComponent(int node) {
+			return componentSizes[components[node]] > 1 || singleNodeCycles.get(node);
+		}
+
+		/**
+		 * Gets the node at the given position in dependency order. Each node
+		 * comes after every node it references, unless they are part of the
+		 * same cycle.
+		 * 
+		 * @param position
+		 *            - the position in dependency order
+		 * @return The node
+		 */
+		public int getNodeInDependencyOrder(int position) {
+			return dependencyOrder[position];
+		}
+	}
+
+	/**
+	 * Something which can tell whether nodes of a graph are part of a cycle
+	 * 
+	 * @author Earthcomputer
+	 */
+	public static interface ConnectedComponentQuery {
+		/**
+		 * Gets whether the given node is part of a cycle, either because its
+		 * strongly connected component contains more than one node, or because
+		 * it references itself
+		 * 
+		 * @param node
+		 *            - the node
+		 * @return Whether the node is part of a cycle
+		 */
+		boolean isConnectedComponent(int node);
+	}
+
+	/**
+	 * Keeps track of the strongly connected components of a graph while edges
+	 * are added and removed, without searching the whole graph again each time.
+	 * <p>
+	 * The components are kept in a topological order, with each component
+	 * given a label which is lower than the labels of all the components which
+	 * reference it. Adding an edge which already agrees with the order costs
+	 * nothing. Otherwise, only the components whose labels are between the
+	 * labels of the two ends of the edge are searched and reordered, merging
+	 * those which now form a cycle (Pearce and Kelly's algorithm). Removing an
+	 * edge inside a component recomputes the components of just the nodes in
+	 * that component.
+	 * 
+	 * @author Earthcomputer
+	 */
+	public static class IncrementalComponents implements ConnectedComponentQuery {
+		private static final long LABEL_GAP = 1L << 16;
+
+		private int nodeCount;
+		private int[][] successors;
+		private int[] successorCounts;
+		private int[][] predecessors;
+		private int[] predecessorCounts;
+		private BitSet singleNodeCycles;
+
+		private int[] components;
+		private int[][] members;
+		private int[] memberCounts;
+		private long[] labels;
+		private TreeMap<Long, Integer> componentsByLabel = new TreeMap<>();
+		private int[] freeComponents;
+		private int freeComponentCount;
+		private int componentCapacity;
+
+		// Scratch space for searches, indexed by component or node
+		private int[] forwardMarks;
+		private int[] backwardMarks;
+		private int markEpoch;
+		private int[] localNodes;
+
+		/**
+		 * Creates an incremental components tracker for a graph whose nodes
+		 * are numbered <tt>0</tt> to <tt>nodeCount - 1</tt>, with edges in
+		 * the same format as
+		 * {@link StronglyConnectedComponentsFinder#findStronglyConnectedComponents(int, int[], int[])}
+		 * 
+		 * @param nodeCount
+		 *            - the number of nodes
+		 * @param offsets
+		 *            - the offset of the edges of each node in
+		 *            <tt>targets</tt>, with an extra element at the end
+		 * @param targets
+		 *            - the targets of the edges
+		 */
+		public IncrementalComponents(int nodeCount, int[] offsets, int[] targets) {
+			this.nodeCount = nodeCount;
+			successors = new int[nodeCount][];
+			successorCounts = new int[nodeCount];
+			predecessors = new int[nodeCount][];
+			predecessorCounts = new int[nodeCount];
+			int[] inDegrees = new int[nodeCount];
+			for (int node = 0; node < nodeCount; node++) {
+				successors[node] = Arrays.copyOfRange(targets, offsets[node], offsets[node + 1]);
+				successorCounts[node] = successors[node].length;
+				for (int target : successors[node]) {
+					inDegrees[target]++;
+				}
+			}
+			for (int node = 0; node < nodeCount; node++) {
+				predecessors[node] = new int[inDegrees[node]];
+			}
+			for (int node = 0; node < nodeCount; node++) {
+				for (int i = 0; i < successorCounts[node]; i++) {
+					int target = successors[node][i];
+					predecessors[target][predecessorCounts[target]++] = node;
+				}
+			}
+
+			// Start off with the components found by the non-incremental
+			// algorithm. These are numbered in dependency order, which is the
+			// topological order we want.
+			Components initial = StronglyConnectedComponentsFinder.findStronglyConnectedComponents(nodeCount, offsets,
+					targets);
+			singleNodeCycles = (BitSet) initial.singleNodeCycles.clone();
+			components = Arrays.copyOf(initial.components, nodeCount);
+			componentCapacity = Math.max(16, initial.componentCount);
+			members = new int[componentCapacity][];
+			memberCounts = new int[componentCapacity];
+			labels = new long[componentCapacity];
+			freeComponents = new int[componentCapacity];
+			forwardMarks = new int[componentCapacity];
+			backwardMarks = new int[componentCapacity];
+			localNodes = new int[nodeCount];
+			for (int component = 0; component < initial.componentCount; component++) {
+				members[component] = new int[initial.componentSizes[component]];
+				labels[component] = (component + 1) * LABEL_GAP;
+				componentsByLabel.put(labels[component], component);
+			}
+			for (int node = 0; node < nodeCount; node++) {
+				int component = components[node];
+				members[component][memberCounts[component]++] = node;
+			}
+			for (int component = componentCapacity - 1; component >= initial.componentCount; component--) {
+				freeComponents[freeComponentCount++] = component;
+			}
+		}
+
+		/**
+		 * Gets the number of nodes in the graph
+		 * 
+		 * @return The number of nodes
+		 */
+		public int getNodeCount() {
+			return nodeCount;
+		}
+
+		/**
+		 * Adds a new node with no edges to the graph
+		 * 
+		 * @return The new node
+		 */
+		public int addNode() {
+			int node = nodeCount++;
+			if (node == successors.length) {
+				int capacity = Math.max(16, node << 1);
+				successors = Arrays.copyOf(successors, capacity);
+				successorCounts = Arrays.copyOf(successorCounts, capacity);
+				predecessors = Arrays.copyOf(predecessors, capacity);
+				predecessorCounts = Arrays.copyOf(predecessorCounts, capacity);
+				components = Arrays.copyOf(components, capacity);
+				localNodes = Arrays.copyOf(localNodes, capacity);
+			}
+			successors[node] = new int[0];
+			predecessors[node] = new int[0];
+			int component = allocateComponent();
+			components[node] = component;
+			members[component] = new int[] { node };
+			memberCounts[component] = 1;
+			setLabel(component, componentsByLabel.isEmpty() ? LABEL_GAP : componentsByLabel.lastKey() + LABEL_GAP);
+			return node;
+		}
+
+		/**
+		 * Adds an edge to the graph, updating the strongly connected
+		 * components
+		 * 
+		 * @param source
+		 *            - the referencing node
+		 * @param target
+		 *            - the referenced node
+		 * @return Whether the edge was added, i.e. whether it didn't already
+		 *         exist
+		 */
+		public boolean addEdge(int source, int target) {
+			if (indexOf(successors[source], successorCounts[source], target) >= 0) {
+				return false;
+			}
+			successors[source] = append(successors[source], successorCounts[source]++, target);
+			predecessors[target] = append(predecessors[target], predecessorCounts[target]++, source);
+
+			if (source == target) {
+				singleNodeCycles.set(source);
+				return true;
+			}
+			int sourceComponent = components[source];
+			int targetComponent = components[target];
+			if (sourceComponent == targetComponent || labels[targetComponent] < labels[sourceComponent]) {
+				// Topological order is still valid
+				return true;
+			}
+
+			// Find the affected region: the components reachable from the
+			// target, and the components which can reach the source, whose
+			// labels are between the labels of the source and target
+			markEpoch++;
+			IntStack forward = search(targetComponent, true, labels[sourceComponent], forwardMarks);
+			IntStack backward = search(sourceComponent, false, labels[targetComponent], backwardMarks);
+			sortByLabel(forward);
+			sortByLabel(backward);
+
+			// Gather the labels of the affected region so they can be reused
+			long[] pool = new long[forward.size + backward.size];
+			int poolSize = 0;
+			for (int i = 0; i < forward.size; i++) {
+				pool[poolSize++] = labels[forward.elements[i]];
+			}
+			for (int i = 0; i < backward.size; i++) {
+				if (forwardMarks[backward.elements[i]] != markEpoch) {
+					pool[poolSize++] = labels[backward.elements[i]];
+				}
+			}
+			Arrays.sort(pool, 0, poolSize);
+			for (int i = 0; i < poolSize; i++) {
+				componentsByLabel.remove(pool[i]);
+			}
+
+			// The components which are both reachable from the target and can
+			// reach the source now form a cycle with the new edge
+			int merged = -1;
+			if (forwardMarks[sourceComponent] == markEpoch) {
+				for (int i = 0; i < backward.size; i++) {
+					int component = backward.elements[i];
+					if (forwardMarks[component] == markEpoch) {
+						merged = merged == -1 ? component : mergeComponents(merged, component);
 					}
 				}
-			});
+			}
 
-			// Boxed integers will compare identity if not unboxed
-			if (lowlinks.get(vertex).intValue() == indexes.get(vertex).intValue()) {
-				Set<T> group = new HashSet<>();
-				T node;
-				do {
-					node = stack.pop();
-					onStack.remove(node);
-					group.add(node);
-					result.groups.put(node, group);
-				} while (!node.equals(vertex));
+			// Reorder so that the forward region comes before the merged
+			// component, which comes before the backward region. The forward
+			// region takes the lowest labels and the backward region the
+			// highest, so that each component only moves away from the
+			// components outside the region which it has edges to.
+			int poolIndex = 0;
+			for (int i = 0; i < forward.size; i++) {
+				int component = forward.elements[i];
+				if (backwardMarks[component] != markEpoch) {
+					setLabel(component, pool[poolIndex++]);
+				}
 			}
+			if (merged != -1) {
+				setLabel(merged, pool[poolIndex]);
+			}
+			poolIndex = poolSize;
+			for (int i = backward.size - 1; i >= 0; i--) {
+				int component = backward.elements[i];
+				if (forwardMarks[component] != markEpoch) {
+					setLabel(component, pool[--poolIndex]);
+				}
+			}
+			return true;
 		}
 
 		/**
-		 * A container class containing the result of this algorithm
+		 * Removes an edge from the graph, updating the strongly connected
+		 * components
 		 * 
-		 * @author Earthcomputer
-		 *
-		 * @param <T>
-		 *            - the type of a call graph node
+		 * @param source
+		 *            - the referencing node
+		 * @param target
+		 *            - the referenced node
+		 * @return Whether the edge was removed, i.e. whether it existed
 		 */
-		public static class Result<T> {
-			private Set<T> singleNodeCycles = new HashSet<>();
-			private Map<T, Set<T>> groups = new HashMap<>();
+		public boolean removeEdge(int source, int target) {
+			int index = indexOf(successors[source], successorCounts[source], target);
+			if (index < 0) {
+				return false;
+			}
+			successors[source][index] = successors[source][--successorCounts[source]];
+			index = indexOf(predecessors[target], predecessorCounts[target], source);
+			predecessors[target][index] = predecessors[target][--predecessorCounts[target]];
 
-			private Result() {
+			if (source == target) {
+				singleNodeCycles.clear(source);
+				return true;
+			}
+			int component = components[source];
+			if (component == components[target]) {
+				// The component may have been split in two or more
+				splitComponent(component);
 			}
+			return true;
+		}
+
+		@Override
+		public boolean isConnectedComponent(int node) {
+			return memberCounts[components[node]] > 1 || singleNodeCycles.get(node);
+		}
+
+		/**
+		 * Gets whether the two given nodes are in the same strongly connected
+		 * component
+		 * 
+		 * @param a
+		 *            - the first node
+		 * @param b
+		 *            - the second node
+		 * @return Whether the nodes are in the same component
+		 */
+		public boolean isInSameComponent(int a, int b) {
+			return components[a] == components[b];
+		}
+
+		/**
+		 * Gets the number of nodes in the strongly connected component
+		 * containing the given node
+		 * 
+		 * @param node
+		 *            - the node
+		 * @return The size of the component
+		 */
+		public int getComponentSize(int node) {
+			return memberCounts[components[node]];
+		}
 
-			public Set<T> getConnectedComponents() {
-				return groups.keySet().stream().filter(this::isConnectedComponent).collect(Collectors.toSet());
+		/**
+		 * Gets all the nodes in dependency order. Each node comes after every
+		 * node it references, unless they are part of the same cycle.
+		 * 
+		 * @return The nodes in dependency order
+		 */
+		public int[] getNodesInDependencyOrder() {
+			int[] order = new int[nodeCount];
+			int size = 0;
+			for (int component : componentsByLabel.values()) {
+				for (int i = 0; i < memberCounts[component]; i++) {
+					order[size++] = members[component][i];
+				}
 			}
+			return order;
+		}
 
-			public boolean isConnectedComponent(T node) {
-				return groups.get(node).size() > 1 || singleNodeCycles.contains(node);
+		/**
+		 * Searches the component graph forwards or backwards from the given
+		 * component, not going past the given label
+		 */
+		private IntStack search(int start, boolean forward, long labelBound, int[] marks) {
+			IntStack visited = new IntStack();
+			IntStack toVisit = new IntStack();
+			marks[start] = markEpoch;
+			visited.push(start);
+			toVisit.push(start);
+			while (toVisit.size > 0) {
+				int component = toVisit.pop();
+				for (int i = 0; i < memberCounts[component]; i++) {
+					int node = members[component][i];
+					int[] edges = forward ? successors[node] : predecessors[node];
+					int edgeCount = forward ? successorCounts[node] : predecessorCounts[node];
+					for (int j = 0; j < edgeCount; j++) {
+						int next = components[edges[j]];
+						if (marks[next] != markEpoch
+								&& (forward ? labels[next] >= labelBound : labels[next] <= labelBound)) {
+							marks[next] = markEpoch;
+							visited.push(next);
+							toVisit.push(next);
+						}
+					}
+				}
 			}
+			return visited;
+		}
 
-			public Set<Set<T>> getConnectedGroups() {
-				return groups.values().stream().distinct().collect(Collectors.toSet());
+		/**
+		 * Recomputes the strongly connected components of the nodes in the
+		 * given component, and splits it if it's no longer strongly connected
+		 */
+		private void splitComponent(int component) {
+			int size = memberCounts[component];
+			int[] nodes = Arrays.copyOf(members[component], size);
+			for (int i = 0; i < size; i++) {
+				localNodes[nodes[i]] = i;
+			}
+			int[] offsets = new int[size + 1];
+			int[] targets = new int[16];
+			int edgeCount = 0;
+			for (int i = 0; i < size; i++) {
+				offsets[i] = edgeCount;
+				int node = nodes[i];
+				for (int j = 0; j < successorCounts[node]; j++) {
+					int target = successors[node][j];
+					if (components[target] == component) {
+						targets = append(targets, edgeCount++, localNodes[target]);
+					}
+				}
+			}
+			offsets[size] = edgeCount;
+			Components split = StronglyConnectedComponentsFinder.findStronglyConnectedComponents(size, offsets,
+					targets);
+			if (split.componentCount == 1) {
+				return;
+			}
+
+			// The new components take the place of the old one in the
+			// topological order, between its neighbouring labels
+			long oldLabel = labels[component];
+			Long prevLabel = componentsByLabel.lowerKey(oldLabel);
+			Long nextLabel = componentsByLabel.higherKey(oldLabel);
+			long low = prevLabel == null ? oldLabel - LABEL_GAP * split.componentCount : prevLabel;
+			long high = nextLabel == null ? oldLabel + LABEL_GAP * split.componentCount : nextLabel;
+			if (high - low <= split.componentCount) {
+				relabel();
+				oldLabel = labels[component];
+				low = oldLabel - LABEL_GAP;
+				high = oldLabel + LABEL_GAP;
+			}
+			componentsByLabel.remove(labels[component]);
+
+			int[] newComponents = new int[split.componentCount];
+			newComponents[0] = component;
+			for (int i = 1; i < split.componentCount; i++) {
+				newComponents[i] = allocateComponent();
+			}
+			for (int i = 0; i < split.componentCount; i++) {
+				int newComponent = newComponents[i];
+				members[newComponent] = new int[split.componentSizes[i]];
+				memberCounts[newComponent] = 0;
+			}
+			for (int i = 0; i < size; i++) {
+				int newComponent = newComponents[split.components[i]];
+				members[newComponent][memberCounts[newComponent]++] = nodes[i];
+				components[nodes[i]] = newComponent;
+			}
+			long step = (high - low) / (split.componentCount + 1);
+			for (int i = 0; i < split.componentCount; i++) {
+				setLabel(newComponents[i], low + step * (i + 1));
 			}
 		}
 
+		/**
+		 * Merges the second component into the first, keeping the larger
+		 * member array
+		 */
+		private int mergeComponents(int a, int b) {
+			if (memberCounts[a] < memberCounts[b]) {
+				int tmp = a;
+				a = b;
+				b = tmp;
+			}
+			for (int i = 0; i < memberCounts[b]; i++) {
+				int node = members[b][i];
+				members[a] = append(members[a], memberCounts[a]++, node);
+				components[node] = a;
+			}
+			members[b] = null;
+			memberCounts[b] = 0;
+			freeComponents[freeComponentCount++] = b;
+			return a;
+		}
+
+		private int allocateComponent() {
+			if (freeComponentCount == 0) {
+				int oldCapacity = componentCapacity;
+				componentCapacity <<= 1;
+				members = Arrays.copyOf(members, componentCapacity);
+				memberCounts = Arrays.copyOf(memberCounts, componentCapacity);
+				labels = Arrays.copyOf(labels, componentCapacity);
+				freeComponents = Arrays.copyOf(freeComponents, componentCapacity);
+				forwardMarks = Arrays.copyOf(forwardMarks, componentCapacity);
+				backwardMarks = Arrays.copyOf(backwardMarks, componentCapacity);
+				for (int component = componentCapacity - 1; component >= oldCapacity; component--) {
+					freeComponents[freeComponentCount++] = component;
+				}
+			}
+			return freeComponents[--freeComponentCount];
+		}
+
+		private void setLabel(int component, long label) {
+			labels[component] = label;
+			componentsByLabel.put(label, component);
+		}
+
+		/**
+		 * Spreads the labels of all the components out evenly again, keeping
+		 * their order
+		 */
+		private void relabel() {
+			List<Integer> ordered = new ArrayList<>(componentsByLabel.values());
+			componentsByLabel.clear();
+			for (int i = 0; i < ordered.size(); i++) {
+				setLabel(ordered.get(i), (i + 1) * LABEL_GAP);
+			}
+		}
+
+		private void sortByLabel(IntStack components) {
+			long[] keys = new long[components.size];
+			for (int i = 0; i < components.size; i++) {
+				keys[i] = labels[components.elements[i]];
+			}
+			Arrays.sort(keys);
+			for (int i = 0; i < components.size; i++) {
+				components.elements[i] = componentsByLabel.get(keys[i]);
+			}
+		}
+
+		private static int indexOf(int[] array, int size, int value) {
+			for (int i = 0; i < size; i++) {
+				if (array[i] == value) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private static int[] append(int[] array, int size, int value) {
+			if (size == array.length) {
+				array = Arrays.copyOf(array, Math.max(4, size << 1));
+			}
+			array[size] = value;
+			return array;
+		}
+	}
+
+	/**
+	 * A simple growable stack of ints
+	 * 
+	 * @author Earthcomputer
+	 */
+	private static class IntStack {
+		private int[] elements = new int[16];
+		private int size;
+
+		private void push(int value) {
+			if (size == elements.length) {
+				elements = Arrays.copyOf(elements, size << 1);
+			}
+			elements[size++] = value;
+		}
+
+		private int pop() {
+			return elements[--size];
+		}
 	}
 
 }
@@ -0,0 +1,238 @@
+package net.earthcomputer.minefunk;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Statically estimates how many commands each generated function executes
+ * when it is called, including the commands of the functions it calls. Two
+ * numbers are estimated: the number of commands, which counts towards the
+ * <tt>maxCommandChainLength</tt> game rule, and a weighted cost, where each
+ * command is weighted by how expensive it is likely to be to run (for example,
+ * commands which search all entities with <tt>@e</tt> are weighted higher).
+ * <p>
+ * A command which calls a function, for example with <tt>function</tt> or
+ * <tt>execute ... function</tt>, is counted as calling it once. Functions which
+ * can call themselves have no bound.
+ * <p>
+ * The command chain length is also estimated. This is slightly longer than the
+ * number of commands, since Minecraft counts each call to a function as an
+ * extra entry in the chain, as well as the command which made the call.
+ * 
+ * @author Earthcomputer
+ */
+public class CommandCostEstimator {
+
+	/**
+	 * The default maximum length of a command chain in Minecraft
+	 */
+	public static final int DEFAULT_CHAIN_BUDGET = 65536;
+
+	/**
+	 * The cost of a function which can call itself, and so has no bound
+	 */
+	public static final long UNBOUNDED = Long.MAX_VALUE;
+
+	private Map<String, Integer> weights;
+	private Map<String, Long> commandCounts = new HashMap<>();
+	private Map<String, Long> weightedCosts = new HashMap<>();
+	private Map<String, Long> chainLengths = new HashMap<>();
+
+	/**
+	 * Creates a cost estimator with the default weight table, which weights
+	 * commands with <tt>@e</tt> selectors 4 times higher than other commands
+	 */
+	public CommandCostEstimator() {
+		this(createDefaultWeights());
+	}
+
+	/**
+	 * Creates a cost estimator with the given weight table
+	 * 
+	 * @param weights
+	 *            - the weight table. The weight of a command is the weight of
+	 *            the first key which the command contains, or 1 if it contains
+	 *            none of them.
+	 */
+	public CommandCostEstimator(Map<String, Integer> weights) {
+		this.weights = weights;
+	}
+
+	private static Map<String, Integer> createDefaultWeights() {
+		Map<String, Integer> weights = new LinkedHashMap<>();
+		weights.put("@e", 4);
+		return weights;
+	}
+
+	/**
+	 * Reads a weight table from a file. Each line contains some text and a
+	 * weight separated by whitespace, and commands containing that text are
+	 * given that weight. Earlier lines take priority. Empty lines and lines
+	 * starting with <tt>#</tt> are ignored.
+	 * 
+	 * @param file
+	 *            - the file to read
+	 * @return The weight table
+	 * @throws IOException
+	 *             - if the file couldn't be read, or is in the wrong format
+	 */
+	public static Map<String, Integer> readWeights(Path file) throws IOException {
+		Map<String, Integer> weights = new LinkedHashMap<>();
+		List<String> lines = Files.readAllLines(file);
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] parts = line.split("\\s+");
+			try {
+				if (parts.length != 2) {
+					throw new NumberFormatException();
+				}
+				weights.putIfAbsent(parts[0], Integer.parseUnsignedInt(parts[1]));
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid weight on line " + (i + 1) + " of " + file);
+			}
+		}
+		return weights;
+	}
+
+	/**
+	 * Estimates the cost of every function in the given command lists
+	 * 
+	 * @param commandLists
+	 *            - the generated commands of each function, by final function
+	 *            name
+	 */
+	public void estimate(Map<String, List<String>> commandLists) {
+		// Number the functions and find which functions each one calls
+		List<String> funcIds = new ArrayList<>(new TreeMap<>(commandLists).keySet());
+		Map<String, Integer> funcNumbers = new HashMap<>();
+		for (int i = 0; i < funcIds.size(); i++) {
+			funcNumbers.put(funcIds.get(i), i);
+		}
+		int[] offsets = new int[funcIds.size() + 1];
+		int[] targets = new int[16];
+		int edgeCount = 0;
+		long[] ownCounts = new long[funcIds.size()];
+		long[] ownCosts = new long[funcIds.size()];
+		for (int func = 0; func < funcIds.size(); func++) {
+			offsets[func] = edgeCount;
+			for (String command : commandLists.get(funcIds.get(func))) {
+				ownCounts[func]++;
+				ownCosts[func] += getWeight(command);
+				String[] words = command.split(" ");
+				for (int i = 1; i < words.length; i++) {
+					Integer target = words[i - 1].equals("function") ? funcNumbers.get(words[i]) : null;
+					if (target != null) {
+						if (edgeCount == targets.length) {
+							targets = Arrays.copyOf(targets, edgeCount << 1);
+						}
+						targets[edgeCount++] = target;
+					}
+				}
+			}
+		}
+		offsets[funcIds.size()] = edgeCount;
+
+		// Add up the costs in dependency order, so that the cost of each
+		// function called is already known
+		CallGraphAnalyzer.Components components = CallGraphAnalyzer.StronglyConnectedComponentsFinder
+				.findStronglyConnectedComponents(funcIds.size(), offsets, targets);
+		long[] counts = new long[funcIds.size()];
+		long[] costs = new long[funcIds.size()];
+		long[] chains = new long[funcIds.size()];
+		for (int i = 0; i < funcIds.size(); i++) {
+			int func = components.getNodeInDependencyOrder(i);
+			if (components.isConnectedComponent(func)) {
+				counts[func] = UNBOUNDED;
+				costs[func] = UNBOUNDED;
+				chains[func] = UNBOUNDED;
+			} else {
+				counts[func] = ownCounts[func];
+				costs[func] = ownCosts[func];
+				chains[func] = ownCounts[func];
+				for (int edge = offsets[func]; edge < offsets[func + 1]; edge++) {
+					counts[func] = saturatedAdd(counts[func], counts[targets[edge]]);
+					costs[func] = saturatedAdd(costs[func], costs[targets[edge]]);
+					chains[func] = saturatedAdd(chains[func], saturatedAdd(1, chains[targets[edge]]));
+				}
+			}
+			commandCounts.put(funcIds.get(func), counts[func]);
+			weightedCosts.put(funcIds.get(func), costs[func]);
+			chainLengths.put(funcIds.get(func), chains[func]);
+		}
+	}
+
+	private int getWeight(String command) {
+		for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+			if (command.contains(weight.getKey())) {
+				return weight.getValue();
+			}
+		}
+		return 1;
+	}
+
+	private static long saturatedAdd(long a, long b) {
+		long sum = a + b;
+		return sum < 0 ? UNBOUNDED : sum;
+	}
+
+	/**
+	 * Gets the number of commands executed when the given function is called,
+	 * not counting the command which calls it
+	 * 
+	 * @param funcId
+	 *            - the final function name
+	 * @return The number of commands, or {@link #UNBOUNDED} if the function
+	 *         can call itself
+	 */
+	public long getCommandCount(String funcId) {
+		return commandCounts.get(funcId);
+	}
+
+	/**
+	 * Gets the length of the command chain when the given function is called,
+	 * which is what the <tt>maxCommandChainLength</tt> game rule limits
+	 * 
+	 * @param funcId
+	 *            - the final function name
+	 * @return The chain length, or {@link #UNBOUNDED} if the function can call
+	 *         itself
+	 */
+	public long getChainLength(String funcId) {
+		return chainLengths.get(funcId);
+	}
+
+	/**
+	 * Gets the weighted cost of calling the given function
+	 * 
+	 * @param funcId
+	 *            - the final function name
+	 * @return The weighted cost, or {@link #UNBOUNDED} if the function can call
+	 *         itself
+	 */
+	public long getWeightedCost(String funcId) {
+		return weightedCosts.get(funcId);
+	}
+
+	/**
+	 * Formats a cost or command count for the user
+	 * 
+	 * @param cost
+	 *            - the cost
+	 * @return The formatted cost
+	 */
+	public static String format(long cost) {
+		return cost == UNBOUNDED ? "unbounded (recursive)" : String.valueOf(cost);
+	}
+
+}
@@ -6,6 +6,8 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import net.earthcomputer.minefunk.parser.Index;
+
 /**
  * A class representing command line options
  * 
@@ -17,12 +19,58 @@ public class CommandLineOptions {
 	public static final String USAGE = "java -jar minefunk.jar <source-files> [options ...]\n"
 			+ "Options are:\n"
 			+ "--output: The output directory\n"
-			+ "--stacktace: Whether to show the stacktrace of a compiler error (debug feature)\n";
+			+ "--stacktace: Whether to show the stacktrace of a compiler error (debug feature)\n"
+			+ "--outline-size: Outline inline function calls which expand to more than this many commands\n"
+			+ "--outline-count: Outline inline function calls made more than this many times with the same arguments\n"
+			+ "--entry-points: Comma-separated functions to keep; functions they can't reach are not generated\n"
+			+ "--extract-min-length: Move repeated runs of at least this many commands into shared functions\n"
+			+ "--extract-min-benefit: Only move a repeated run if it saves at least this many commands\n"
+			+ "--no-peephole: Don't remove redundant commands from the generated functions\n"
+			+ "--cost-report: Print how many commands each entry point runs, including the functions it calls\n"
+			+ "--cost-weights: A file of \"<text> <weight>\" lines weighting commands containing that text\n"
+			+ "--chain-budget: Warn about entry points which run more than this many commands (default 65536)\n"
+			+ "--max-expansion-size: Fail if a function expands to more than this many commands, 0 for no limit"
+			+ " (default 1000000)\n"
+			+ "--objective: The scoreboard objective to store non-const variables in (default minefunk). It is"
+			+ " created by the init function, which must be run once before any other function\n"
+			+ "--init-function: The function to create the objective in (default minefunk:init)\n"
+			+ "--tick-function: The function to run every tick, which runs spread and periodic functions"
+			+ " (default minefunk:tick)\n"
+			+ "--counter-position: Where to summon the tick counters of periodic functions, as x,y,z in a chunk"
+			+ " which is always loaded, e.g. the spawn chunks (default ~,~,~, where the tick function runs)\n"
+			+ "--cache-selectors: Tag the entities matched by an @e selector used by this many commands in a row,"
+			+ " and use the tag instead\n"
+			+ "--hoist-execute: Run commands with the same execute prefix from one generated function, and flatten"
+			+ " nested execute @s commands\n"
+			+ "--normalize-selectors: Rewrite selectors into an equivalent normal form, and remove commands whose"
+			+ " selector can't match anything\n";
 	// @formatter:on
 
+	/**
+	 * The default maximum number of commands a function may expand to
+	 */
+	public static final int DEFAULT_MAX_EXPANSION_SIZE = 1000000;
+
 	private FileMatcher inputFileMatcher;
 	private File outputDirectory;
 	private boolean showStacktrace;
+	private boolean peepholeEnabled;
+	private boolean showCostReport;
+	private File costWeightsFile;
+	private int chainBudget = CommandCostEstimator.DEFAULT_CHAIN_BUDGET;
+	private int outlineSizeThreshold;
+	private int outlineCountThreshold;
+	private List<String> entryPoints;
+	private int extractMinLength;
+	private int extractMinBenefit = 1;
+	private int maxExpansionSize = DEFAULT_MAX_EXPANSION_SIZE;
+	private String scoreObjective = Index.DEFAULT_SCORE_OBJECTIVE;
+	private String tickFunction = TickSpreader.DEFAULT_TICK_FUNCTION;
+	private String initFunction = Index.DEFAULT_INIT_FUNCTION;
+	private String counterPosition = PeriodicScheduler.DEFAULT_COUNTER_POSITION;
+	private int selectorCacheMinUses;
+	private boolean hoistExecute;
+	private boolean normalizeSelectors;
 
 	private CommandLineOptions() {
 	}
@@ -59,12 +107,114 @@ public class CommandLineOptions {
 		CommandLineOptions opts = new CommandLineOptions();
 		String opt;
 		opts.showStacktrace = findFlag(args, "--stacktrace") | findFlag(args, "-s");
+		opts.peepholeEnabled = !findFlag(args, "--no-peephole");
+		opts.showCostReport = findFlag(args, "--cost-report");
+		opts.hoistExecute = findFlag(args, "--hoist-execute");
+		opts.normalizeSelectors = findFlag(args, "--normalize-selectors");
 		opt = findStringOption(args, "--output", "-o");
 		if (opt == null) {
 			opts.outputDirectory = workingDirectory.toFile();
 		} else {
 			opts.outputDirectory = new File(opt);
 		}
+		opt = findStringOption(args, "--outline-size", null);
+		if (opt != null) {
+			opts.outlineSizeThreshold = parseNonNegativeInt(opt);
+			if (opts.outlineSizeThreshold < 0) {
+				return null;
+			}
+		}
+		opt = findStringOption(args, "--outline-count", null);
+		if (opt != null) {
+			opts.outlineCountThreshold = parseNonNegativeInt(opt);
+			if (opts.outlineCountThreshold < 0) {
+				return null;
+			}
+		}
+		opt = findStringOption(args, "--entry-points", "-e");
+		if (opt != null) {
+			opts.entryPoints = new ArrayList<>();
+			for (String entryPoint : opt.split(",")) {
+				entryPoint = entryPoint.trim();
+				if (!entryPoint.isEmpty()) {
+					opts.entryPoints.add(entryPoint);
+				}
+			}
+		}
+		opt = findStringOption(args, "--extract-min-length", null);
+		if (opt != null) {
+			opts.extractMinLength = parseNonNegativeInt(opt);
+			if (opts.extractMinLength < 0) {
+				return null;
+			}
+		}
+		opt = findStringOption(args, "--cost-weights", null);
+		if (opt != null) {
+			opts.costWeightsFile = new File(opt);
+		}
+		opt = findStringOption(args, "--chain-budget", null);
+		if (opt != null) {
+			opts.chainBudget = parseNonNegativeInt(opt);
+			if (opts.chainBudget < 0) {
+				return null;
+			}
+		}
+		opt = findStringOption(args, "--extract-min-benefit", null);
+		if (opt != null) {
+			opts.extractMinBenefit = parseNonNegativeInt(opt);
+			if (opts.extractMinBenefit < 0) {
+				return null;
+			}
+		}
+		opt = findStringOption(args, "--max-expansion-size", null);
+		if (opt != null) {
+			opts.maxExpansionSize = parseNonNegativeInt(opt);
+			if (opts.maxExpansionSize < 0) {
+				return null;
+			}
+		}
+		opt = findStringOption(args, "--objective", null);
+		if (opt != null) {
+			// Objective names are limited to 16 characters
+			if (opt.isEmpty() || opt.length() > 16 || opt.contains(" ")) {
+				return null;
+			}
+			opts.scoreObjective = opt;
+		}
+		opt = findStringOption(args, "--tick-function", null);
+		if (opt != null) {
+			if (opt.indexOf(':') <= 0 || opt.contains(" ")) {
+				return null;
+			}
+			opts.tickFunction = opt;
+		}
+		opt = findStringOption(args, "--init-function", null);
+		if (opt != null) {
+			if (opt.indexOf(':') <= 0 || opt.contains(" ")) {
+				return null;
+			}
+			opts.initFunction = opt;
+		}
+		opt = findStringOption(args, "--counter-position", null);
+		if (opt != null) {
+			String[] coordinates = opt.split(",", -1);
+			if (coordinates.length != 3) {
+				return null;
+			}
+			for (String coordinate : coordinates) {
+				if (!coordinate.matches("~|~?-?\\d+(\\.\\d+)?")) {
+					return null;
+				}
+			}
+			opts.counterPosition = String.join(" ", coordinates);
+		}
+		opt = findStringOption(args, "--cache-selectors", null);
+		if (opt != null) {
+			opts.selectorCacheMinUses = parseNonNegativeInt(opt);
+			if (opts.selectorCacheMinUses < 0) {
+				return null;
+			}
+		}
 
 		if (args.isEmpty()) {
 			return null;
@@ -105,7 +255,8 @@ public class CommandLineOptions {
 	 * @param option
 	 *            - the option to find
 	 * @param shorthand
-	 *            - the shorthand alias of the option
+	 *            - the shorthand alias of the option, or <tt>null</tt> if
+	 *            there is none
 	 * @return The value of the option
 	 */
 	private static String findStringOption(List<String> args, String option, String shorthand) {
@@ -113,7 +264,7 @@ public class CommandLineOptions {
 		Iterator<String> argItr = args.iterator();
 		while (argItr.hasNext()) {
 			String tmp = argItr.next();
-			if (option.equals(tmp) || shorthand.equals(tmp)) {
+			if (option.equals(tmp) || (shorthand != null && shorthand.equals(tmp))) {
 				argItr.remove();
 				if (argItr.hasNext()) {
 					tmp = argItr.next();
@@ -127,6 +278,22 @@ public class CommandLineOptions {
 		return value;
 	}
 
+	/**
+	 * Parses the value of an integer option
+	 * 
+	 * @param value
+	 *            - the value of the option
+	 * @return The integer value, or <tt>-1</tt> if it's not a non-negative
+	 *         integer
+	 */
+	private static int parseNonNegativeInt(String value) {
+		try {
+			return Math.max(-1, Integer.parseInt(value));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
 	/**
 	 * Gets the input file matcher
 	 * 
@@ -155,4 +322,175 @@ public class CommandLineOptions {
 		return showStacktrace;
 	}
 
+	/**
+	 * Gets whether redundant commands should be removed from the generated
+	 * functions
+	 * 
+	 * @return Whether the peephole optimizer is enabled
+	 */
+	public boolean isPeepholeEnabled() {
+		return peepholeEnabled;
+	}
+
+	/**
+	 * Gets the number of commands an inline function call may expand to before
+	 * it is generated as a separate function instead
+	 * 
+	 * @return The outline size threshold, or 0 if there is none
+	 */
+	public int getOutlineSizeThreshold() {
+		return outlineSizeThreshold;
+	}
+
+	/**
+	 * Gets the number of times an inline function may be called with the same
+	 * arguments before it is generated as a separate function instead
+	 * 
+	 * @return The outline count threshold, or 0 if there is none
+	 */
+	public int getOutlineCountThreshold() {
+		return outlineCountThreshold;
+	}
+
+	/**
+	 * Gets the functions which are called from outside the program, e.g. by a
+	 * command block or the <tt>gameLoopFunction</tt> game rule. Only functions
+	 * reachable from these are generated.
+	 * 
+	 * @return The final function names of the entry points, or <tt>null</tt>
+	 *         if every function should be generated
+	 */
+	public List<String> getEntryPoints() {
+		return entryPoints;
+	}
+
+	/**
+	 * Gets the minimum number of commands in a repeated run of commands which
+	 * is moved into a shared function
+	 * 
+	 * @return The minimum run length, or 0 if repeated runs shouldn't be
+	 *         extracted
+	 */
+	public int getExtractMinLength() {
+		return extractMinLength;
+	}
+
+	/**
+	 * Gets the minimum number of commands which must be saved by moving a
+	 * repeated run of commands into a shared function
+	 * 
+	 * @return The minimum benefit
+	 */
+	public int getExtractMinBenefit() {
+		return extractMinBenefit;
+	}
+
+	/**
+	 * Gets whether to print the estimated cost of each entry point
+	 * 
+	 * @return Whether the cost report flag was set
+	 */
+	public boolean showCostReport() {
+		return showCostReport;
+	}
+
+	/**
+	 * Gets the file containing the weight of each kind of command for the cost
+	 * estimate
+	 * 
+	 * @return The cost weights file, or <tt>null</tt> if the default weights
+	 *         should be used
+	 */
+	public File getCostWeightsFile() {
+		return costWeightsFile;
+	}
+
+	/**
+	 * Gets the number of commands an entry point may run before a warning is
+	 * printed
+	 * 
+	 * @return The chain budget
+	 */
+	public int getChainBudget() {
+		return chainBudget;
+	}
+
+	/**
+	 * Gets the maximum number of commands a function may expand to, once all
+	 * its inline function calls are expanded
+	 * 
+	 * @return The maximum expansion size, or 0 if there is no limit
+	 */
+	public int getMaxExpansionSize() {
+		return maxExpansionSize;
+	}
+
+	/**
+	 * Gets the scoreboard objective in which non-const variables are stored
+	 * 
+	 * @return The objective
+	 */
+	public String getScoreObjective() {
+		return scoreObjective;
+	}
+
+	/**
+	 * Gets the final function name of the function which must be run every
+	 * tick, which runs the spread and periodic functions
+	 * 
+	 * @return The tick function
+	 */
+	public String getTickFunction() {
+		return tickFunction;
+	}
+
+	/**
+	 * Gets the final function name of the function which creates the
+	 * scoreboard objective, and must be run once before any other function
+	 * 
+	 * @return The init function
+	 */
+	public String getInitFunction() {
+		return initFunction;
+	}
+
+	/**
+	 * Gets where the tick counters of periodic functions are summoned
+	 * 
+	 * @return The coordinates, separated by spaces
+	 */
+	public String getCounterPosition() {
+		return counterPosition;
+	}
+
+	/**
+	 * Gets the number of commands in a row which must use the same selector
+	 * for the entities it matches to be tagged
+	 * 
+	 * @return The minimum number of uses, or 0 if selectors shouldn't be
+	 *         cached
+	 */
+	public int getSelectorCacheMinUses() {
+		return selectorCacheMinUses;
+	}
+
+	/**
+	 * Gets whether runs of commands with the same <tt>execute</tt> prefix
+	 * should be moved into generated functions
+	 * 
+	 * @return Whether to hoist execute prefixes
+	 */
+	public boolean isHoistExecute() {
+		return hoistExecute;
+	}
+
+	/**
+	 * Gets whether selectors should be rewritten into a normal form
+	 * 
+	 * @return Whether to normalize selectors
+	 */
+	public boolean isNormalizeSelectors() {
+		return normalizeSelectors;
+	}
+
 }
@@ -0,0 +1,290 @@
+package net.earthcomputer.minefunk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Optimizes the command lists generated for each function, after code
+ * generation. Functions which are entry points are called from outside the
+ * program by their name, so are never removed.
+ * 
+ * @author Earthcomputer
+ */
+public class CommandListOptimizer {
+
+	private Map<String, List<String>> commandLists;
+	private Predicate<String> isEntryPoint;
+
+	/**
+	 * Creates an optimizer which modifies the given command lists in place
+	 * 
+	 * @param commandLists
+	 *            - the generated commands of each function, by final function
+	 *            name
+	 * @param isEntryPoint
+	 *            - whether a function with the given final function name may be
+	 *            called from outside the program
+	 */
+	public CommandListOptimizer(Map<String, List<String>> commandLists, Predicate<String> isEntryPoint) {
+		this.commandLists = commandLists;
+		this.isEntryPoint = isEntryPoint;
+	}
+
+	/**
+	 * Gets whether the given function was generated by the compiler rather
+	 * than written by the user. Such functions have names starting with a
+	 * digit, which no function in the source code can have.
+	 * 
+	 * @param funcId
+	 *            - the final function name
+	 * @return Whether the function is generated
+	 */
+	public static boolean isGeneratedFunction(String funcId) {
+		int nameStart = Math.max(funcId.lastIndexOf(':'), funcId.lastIndexOf('/')) + 1;
+		return nameStart < funcId.length() && Character.isDigit(funcId.charAt(nameStart));
+	}
+
+	/**
+	 * Runs the given peephole optimizer over the commands of every function
+	 * 
+	 * @param peepholeOptimizer
+	 *            - the peephole optimizer
+	 * @return The number of commands removed
+	 */
+	public int applyPeepholeOptimizations(PeepholeOptimizer peepholeOptimizer) {
+		int removedCount = 0;
+		for (List<String> commands : commandLists.values()) {
+			removedCount += peepholeOptimizer.optimize(commands);
+		}
+		return removedCount;
+	}
+
+	/**
+	 * Rewrites the selectors in every function into a normal form (see
+	 * {@link SelectorNormalizer})
+	 * 
+	 * @param selectorNormalizer
+	 *            - the selector normalizer
+	 * @return The number of commands changed or removed
+	 */
+	public int normalizeSelectors(SelectorNormalizer selectorNormalizer) {
+		int changedCount = 0;
+		for (List<String> commands : commandLists.values()) {
+			changedCount += selectorNormalizer.apply(commands);
+		}
+		return changedCount;
+	}
+
+	/**
+	 * Moves runs of commands with the same <tt>execute</tt> prefix into
+	 * generated functions (see {@link ExecuteHoister})
+	 * 
+	 * @param executeHoister
+	 *            - the execute hoister
+	 * @return The number of functions generated
+	 */
+	public int hoistExecutePrefixes(ExecuteHoister executeHoister) {
+		return executeHoister.hoist();
+	}
+
+	/**
+	 * Tags the entities matched by selectors which are used several times in a
+	 * row, and uses the tag instead (see {@link SelectorCache})
+	 * 
+	 * @param selectorCache
+	 *            - the selector cache
+	 * @return The number of selector evaluations saved
+	 */
+	public int cacheSelectors(SelectorCache selectorCache) {
+		int savedCount = 0;
+		for (List<String> commands : commandLists.values()) {
+			savedCount += selectorCache.apply(commands);
+		}
+		return savedCount;
+	}
+
+	/**
+	 * Finds functions with identical command lists, keeps only one of each,
+	 * and makes every reference to the others refer to that one instead. This
+	 * is repeated until there are no more duplicates, since functions which
+	 * only differed by calling two duplicates become duplicates themselves.
+	 * 
+	 * @return The number of functions removed
+	 */
+	public int mergeDuplicateFunctions() {
+		int removedCount = 0;
+		while (true) {
+			// Sorted so that the function chosen to be kept is deterministic
+			Map<List<String>, List<String>> functionsByBody = new HashMap<>();
+			new TreeMap<>(commandLists).forEach((funcId, commands) -> {
+				functionsByBody.computeIfAbsent(commands, k -> new ArrayList<>()).add(funcId);
+			});
+
+			Map<String, String> replacements = new HashMap<>();
+			for (List<String> duplicates : functionsByBody.values()) {
+				if (duplicates.size() == 1) {
+					continue;
+				}
+				String canonical = duplicates.stream().filter(isEntryPoint).findFirst().orElse(duplicates.get(0));
+				for (String funcId : duplicates) {
+					if (!funcId.equals(canonical) && !isEntryPoint.test(funcId)) {
+						replacements.put(funcId, canonical);
+					}
+				}
+			}
+			if (replacements.isEmpty()) {
+				return removedCount;
+			}
+
+			commandLists.keySet().removeAll(replacements.keySet());
+			removedCount += replacements.size();
+			replaceFunctionReferences(replacements);
+		}
+	}
+
+	/**
+	 * Finds functions which do nothing but call another function, makes every
+	 * reference to them refer to the function they end up calling instead, and
+	 * removes them unless they are entry points
+	 * 
+	 * @return The number of functions removed
+	 */
+	public int collapseForwardingFunctions() {
+		Map<String, String> forwards = new HashMap<>();
+		commandLists.forEach((funcId, commands) -> {
+			if (commands.size() == 1) {
+				String target = getCalledFunction(commands.get(0));
+				if (target != null && commandLists.containsKey(target)) {
+					forwards.put(funcId, target);
+				}
+			}
+		});
+
+		// Follow chains of forwarding functions to the function at the end
+		Map<String, String> replacements = new HashMap<>();
+		forwards.forEach((funcId, target) -> {
+			Set<String> visited = new HashSet<>();
+			visited.add(funcId);
+			while (forwards.containsKey(target) && visited.add(target)) {
+				target = forwards.get(target);
+			}
+			// Leave cycles of forwarding functions alone
+			if (!forwards.containsKey(target)) {
+				replacements.put(funcId, target);
+			}
+		});
+		if (replacements.isEmpty()) {
+			return 0;
+		}
+
+		replaceFunctionReferences(replacements);
+		int removedCount = 0;
+		for (String funcId : replacements.keySet()) {
+			if (!isEntryPoint.test(funcId)) {
+				commandLists.remove(funcId);
+				removedCount++;
+			}
+		}
+		return removedCount;
+	}
+
+	/**
+	 * Gets the function which the given command unconditionally calls
+	 * 
+	 * @param command
+	 *            - the command
+	 * @return The final function name of the called function, or
+	 *         <tt>null</tt> if the command isn't an unconditional
+	 *         <tt>function</tt> command
+	 */
+	private static String getCalledFunction(String command) {
+		if (!command.startsWith("function ")) {
+			return null;
+		}
+		String target = command.substring("function ".length());
+		// The "function <name> if|unless <selector>" form is conditional
+		return target.indexOf(' ') < 0 && !target.isEmpty() ? target : null;
+	}
+
+	/**
+	 * Moves runs of commands which are repeated in several places into shared
+	 * helper functions (see {@link CommonSequenceExtractor})
+	 * 
+	 * @param minLength
+	 *            - the minimum number of commands in an extracted run
+	 * @param minBenefit
+	 *            - the minimum number of commands which must be saved by
+	 *            extracting a run
+	 * @return The number of helper functions generated
+	 */
+	public int extractCommonSequences(int minLength, int minBenefit) {
+		return new CommonSequenceExtractor(commandLists, minLength, minBenefit).extract();
+	}
+
+	/**
+	 * Replaces references to functions in all the command lists
+	 * 
+	 * @param replacements
+	 *            - a map from the final function names to replace to the final
+	 *            function names to replace them with
+	 */
+	private void replaceFunctionReferences(Map<String, String> replacements) {
+		commandLists.values().forEach(commands -> {
+			for (int i = 0; i < commands.size(); i++) {
+				String command = commands.get(i);
+				String newCommand = replaceFunctionReferences(command, replacements);
+				if (newCommand != command) {
+					commands.set(i, newCommand);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Replaces references to functions in a command. A reference is any word
+	 * in the command which is the final name of a function, e.g. the argument
+	 * of the <tt>function</tt> command or of
+	 * <tt>gamerule gameLoopFunction</tt>.
+	 * 
+	 * @param command
+	 *            - the command
+	 * @param replacements
+	 *            - a map from the final function names to replace to the final
+	 *            function names to replace them with
+	 * @return The new command, or the same instance if nothing was replaced
+	 */
+	public static String replaceFunctionReferences(String command, Map<String, String> replacements) {
+		if (command.indexOf(':') < 0) {
+			return command;
+		}
+		StringBuilder newCommand = null;
+		int wordStart = 0;
+		int copiedTo = 0;
+		for (int i = 0; i <= command.length(); i++) {
+			if (i == command.length() || Character.isWhitespace(command.charAt(i))) {
+				if (wordStart < i) {
+					String replacement = replacements.get(command.substring(wordStart, i));
+					if (replacement != null) {
+						if (newCommand == null) {
+							newCommand = new StringBuilder(command.length());
+						}
+						newCommand.append(command, copiedTo, wordStart).append(replacement);
+						copiedTo = i;
+					}
+				}
+				wordStart = i + 1;
+			}
+		}
+		if (newCommand == null) {
+			return command;
+		}
+		return newCommand.append(command, copiedTo, command.length()).toString();
+	}
+
+}
@@ -0,0 +1,371 @@
+package net.earthcomputer.minefunk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds runs of commands which are repeated across the generated functions
+ * (or within one function), and moves each into a generated helper function
+ * which is called with <tt>function</tt> wherever the run occurred.
+ * <p>
+ * All the command lists are concatenated into one string of command numbers,
+ * with a unique separator between functions so that no run crosses a function
+ * boundary. Repeated runs are then found from the suffix array and LCP array
+ * of that string, which are built in <i>O(n log n)</i> time, so that this
+ * scales to very large programs. Extracting a run of length <i>L</i> which
+ * occurs <i>k</i> times saves <i>kL - k - L</i> commands in total. Runs are
+ * extracted greedily in order of how many commands they save, and the search
+ * is repeated until no more runs can be extracted, so that helper functions
+ * can share runs too.
+ * 
+ * @author Earthcomputer
+ */
+public class CommonSequenceExtractor {
+
+	private Map<String, List<String>> commandLists;
+	private int minLength;
+	private int minBenefit;
+	private int nextHelperId = 0;
+	private int helperCount = 0;
+
+	/**
+	 * Creates a common sequence extractor which modifies the given command
+	 * lists in place
+	 * 
+	 * @param commandLists
+	 *            - the generated commands of each function, by final function
+	 *            name
+	 * @param minLength
+	 *            - the minimum number of commands in an extracted run
+	 * @param minBenefit
+	 *            - the minimum number of commands which must be saved by
+	 *            extracting a run
+	 */
+	public CommonSequenceExtractor(Map<String, List<String>> commandLists, int minLength, int minBenefit) {
+		this.commandLists = commandLists;
+		// Extracting a single command into a function is pointless
+		this.minLength = Math.max(2, minLength);
+		this.minBenefit = Math.max(1, minBenefit);
+	}
+
+	/**
+	 * Extracts common runs of commands until there are none left worth
+	 * extracting
+	 * 
+	 * @return The number of helper functions generated
+	 */
+	public int extract() {
+		while (extractRound()) {
+		}
+		return helperCount;
+	}
+
+	/**
+	 * Builds the suffix array of all the command lists and extracts as many
+	 * non-overlapping runs as possible
+	 * 
+	 * @return Whether any runs were extracted
+	 */
+	private boolean extractRound() {
+		// Number the commands, and concatenate the functions in sorted order so
+		// that the output is deterministic
+		List<String> funcIds = new ArrayList<>(new TreeMap<>(commandLists).keySet());
+		Map<String, Integer> commandNumbers = new HashMap<>();
+		List<String> commandsByNumber = new ArrayList<>();
+		int length = funcIds.size();
+		for (String funcId : funcIds) {
+			length += commandLists.get(funcId).size();
+		}
+		int[] text = new int[length];
+		int[] functionStarts = new int[funcIds.size() + 1];
+		int pos = 0;
+		for (int func = 0; func < funcIds.size(); func++) {
+			functionStarts[func] = pos;
+			for (String command : commandLists.get(funcIds.get(func))) {
+				Integer number = commandNumbers.get(command);
+				if (number == null) {
+					number = commandsByNumber.size();
+					commandNumbers.put(command, number);
+					commandsByNumber.add(command);
+				}
+				text[pos++] = number;
+			}
+			// Separator, filled in below once we know how many distinct
+			// commands there are
+			text[pos++] = -1 - func;
+		}
+		functionStarts[funcIds.size()] = pos;
+		int alphabetSize = commandsByNumber.size() + funcIds.size();
+		for (int i = 0; i < length; i++) {
+			if (text[i] < 0) {
+				text[i] = commandsByNumber.size() - 1 - text[i];
+			}
+		}
+
+		int[] suffixArray = buildSuffixArray(text, alphabetSize);
+		int[] lcp = buildLcpArray(text, suffixArray);
+		List<int[]> candidates = findRepeatedRuns(suffixArray, lcp);
+		// Sort by the most commands which could be saved, ignoring overlaps
+		candidates.sort((a, b) -> Long.compare(estimateBenefit(b), estimateBenefit(a)));
+
+		// Extract runs greedily, never extracting any command twice
+		BitSet used = new BitSet(length);
+		List<String> helperIds = new ArrayList<>();
+		List<List<int[]>> replacements = new ArrayList<>();
+		for (int i = 0; i < funcIds.size(); i++) {
+			replacements.add(new ArrayList<>());
+		}
+		for (int[] candidate : candidates) {
+			if (estimateBenefit(candidate) < minBenefit) {
+				break;
+			}
+			int runLength = candidate[0];
+			int[] occurrences = Arrays.copyOfRange(suffixArray, candidate[1], candidate[2] + 1);
+			Arrays.sort(occurrences);
+			int occurrenceCount = 0;
+			int end = 0;
+			for (int occurrence : occurrences) {
+				if (occurrence >= end) {
+					int nextUsed = used.nextSetBit(occurrence);
+					if (nextUsed < 0 || nextUsed >= occurrence + runLength) {
+						occurrences[occurrenceCount++] = occurrence;
+						end = occurrence + runLength;
+					}
+				}
+			}
+			if (benefit(runLength, occurrenceCount) < minBenefit) {
+				continue;
+			}
+
+			// Generate the helper function in the namespace of the first
+			// occurrence
+			int firstFunc = findFunction(functionStarts, occurrences[0]);
+			String helperId = newHelperId(funcIds.get(firstFunc));
+			List<String> helperCommands = new ArrayList<>(runLength);
+			for (int j = 0; j < runLength; j++) {
+				helperCommands.add(commandsByNumber.get(text[occurrences[0] + j]));
+			}
+			commandLists.put(helperId, helperCommands);
+			for (int j = 0; j < occurrenceCount; j++) {
+				int occurrence = occurrences[j];
+				used.set(occurrence, occurrence + runLength);
+				int func = findFunction(functionStarts, occurrence);
+				replacements.get(func)
+						.add(new int[] { occurrence - functionStarts[func], runLength, helperIds.size() });
+			}
+			helperIds.add(helperId);
+			helperCount++;
+		}
+		if (helperIds.isEmpty()) {
+			return false;
+		}
+
+		// Replace the extracted runs with calls to the helper functions
+		for (int func = 0; func < funcIds.size(); func++) {
+			List<int[]> funcReplacements = replacements.get(func);
+			if (funcReplacements.isEmpty()) {
+				continue;
+			}
+			funcReplacements.sort((a, b) -> Integer.compare(a[0], b[0]));
+			List<String> oldCommands = commandLists.get(funcIds.get(func));
+			List<String> newCommands = new ArrayList<>(oldCommands.size());
+			int copiedTo = 0;
+			for (int[] replacement : funcReplacements) {
+				newCommands.addAll(oldCommands.subList(copiedTo, replacement[0]));
+				newCommands.add("function " + helperIds.get(replacement[2]));
+				copiedTo = replacement[0] + replacement[1];
+			}
+			newCommands.addAll(oldCommands.subList(copiedTo, oldCommands.size()));
+			commandLists.put(funcIds.get(func), newCommands);
+		}
+		return true;
+	}
+
+	private String newHelperId(String funcId) {
+		int colonIndex = funcId.indexOf(':');
+		String namespace = colonIndex < 0 ? "minefunk" : funcId.substring(0, colonIndex);
+		String helperId;
+		do {
+			helperId = namespace + ":0common" + nextHelperId++;
+		} while (commandLists.containsKey(helperId));
+		return helperId;
+	}
+
+	private static int findFunction(int[] functionStarts, int pos) {
+		int index = Arrays.binarySearch(functionStarts, pos);
+		return index >= 0 ? index : -index - 2;
+	}
+
+	private long estimateBenefit(int[] candidate) {
+		return benefit(candidate[0], candidate[2] - candidate[1] + 1);
+	}
+
+	private static long benefit(int runLength, int occurrenceCount) {
+		if (occurrenceCount < 2) {
+			return 0;
+		}
+		// Each occurrence becomes a single function command, and the run
+		// itself is kept once in the helper function
+		return (long) runLength * occurrenceCount - occurrenceCount - runLength;
+	}
+
+	/**
+	 * Finds the runs which occur more than once and are at least the minimum
+	 * length, by enumerating the intervals of the suffix array whose suffixes
+	 * share a common prefix
+	 * 
+	 * @return The runs, each as <tt>{length, first, last}</tt> where
+	 *         <tt>first</tt> and <tt>last</tt> are the range of indexes into
+	 *         the suffix array which start with the run
+	 */
+	private List<int[]> findRepeatedRuns(int[] suffixArray, int[] lcp) {
+		List<int[]> runs = new ArrayList<>();
+		int n = suffixArray.length;
+		// Stack of (lcp value, left bound) of the currently open intervals
+		int[] stackLcp = new int[n + 1];
+		int[] stackLeft = new int[n + 1];
+		int stackSize = 1;
+		stackLcp[0] = 0;
+		stackLeft[0] = 0;
+		for (int i = 1; i <= n; i++) {
+			int currentLcp = i == n ? 0 : lcp[i];
+			int left = i - 1;
+			while (currentLcp < stackLcp[stackSize - 1]) {
+				stackSize--;
+				int intervalLcp = stackLcp[stackSize];
+				left = stackLeft[stackSize];
+				if (intervalLcp >= minLength) {
+					runs.add(new int[] { intervalLcp, left, i - 1 });
+				}
+			}
+			if (currentLcp > stackLcp[stackSize - 1]) {
+				stackLcp[stackSize] = currentLcp;
+				stackLeft[stackSize] = left;
+				stackSize++;
+			}
+		}
+		return runs;
+	}
+
+	/**
+	 * Builds the suffix array of the given text by prefix doubling with radix
+	 * sorting
+	 * 
+	 * @param text
+	 *            - the text, with characters in the range
+	 *            <tt>[0, alphabetSize)</tt>
+	 * @param alphabetSize
+	 *            - the number of possible characters
+	 * @return The suffix array
+	 */
+	static int[] buildSuffixArray(int[] text, int alphabetSize) {
+		int n = text.length;
+		int[] suffixArray = new int[n];
+		int[] rank = Arrays.copyOf(text, n);
+		int[] tmp = new int[n];
+		int[] counts = new int[Math.max(alphabetSize, n) + 1];
+		if (n == 0) {
+			return suffixArray;
+		}
+
+		// Sort by the first character
+		for (int i = 0; i < n; i++) {
+			counts[rank[i]]++;
+		}
+		for (int i = 1; i < counts.length; i++) {
+			counts[i] += counts[i - 1];
+		}
+		for (int i = n - 1; i >= 0; i--) {
+			suffixArray[--counts[rank[i]]] = i;
+		}
+		int rankCount = alphabetSize;
+
+		for (int k = 1;; k <<= 1) {
+			// Sort by the second key: suffixes with no second half come first
+			int p = 0;
+			for (int i = n - k; i < n; i++) {
+				if (i >= 0) {
+					tmp[p++] = i;
+				}
+			}
+			for (int i = 0; i < n; i++) {
+				if (suffixArray[i] >= k) {
+					tmp[p++] = suffixArray[i] - k;
+				}
+			}
+			// Stable sort by the first key
+			Arrays.fill(counts, 0, rankCount + 1, 0);
+			for (int i = 0; i < n; i++) {
+				counts[rank[i]]++;
+			}
+			for (int i = 1; i <= rankCount; i++) {
+				counts[i] += counts[i - 1];
+			}
+			for (int i = n - 1; i >= 0; i--) {
+				suffixArray[--counts[rank[tmp[i]]]] = tmp[i];
+			}
+
+			// Compute the new ranks
+			tmp[suffixArray[0]] = 0;
+			int newRank = 0;
+			for (int i = 1; i < n; i++) {
+				int a = suffixArray[i - 1];
+				int b = suffixArray[i];
+				if (rank[a] != rank[b] || (a + k < n ? rank[a + k] : -1) != (b + k < n ? rank[b + k] : -1)) {
+					newRank++;
+				}
+				tmp[b] = newRank;
+			}
+			int[] swap = rank;
+			rank = tmp;
+			tmp = swap;
+			rankCount = newRank + 1;
+			if (rankCount == n) {
+				return suffixArray;
+			}
+		}
+	}
+
+	/**
+	 * Builds the longest common prefix array of the given text using Kasai's
+	 * algorithm
+	 * 
+	 * @param text
+	 *            - the text
+	 * @param suffixArray
+	 *            - the suffix array of the text
+	 * @return An array where element <tt>i</tt> is the length of the longest
+	 *         common prefix of suffixes <tt>suffixArray[i - 1]</tt> and
+	 *         <tt>suffixArray[i]</tt>, and element 0 is 0
+	 */
+	static int[] buildLcpArray(int[] text, int[] suffixArray) {
+		int n = text.length;
+		int[] lcp = new int[n];
+		int[] rank = new int[n];
+		for (int i = 0; i < n; i++) {
+			rank[suffixArray[i]] = i;
+		}
+		int h = 0;
+		for (int i = 0; i < n; i++) {
+			if (rank[i] > 0) {
+				int j = suffixArray[rank[i] - 1];
+				while (i + h < n && j + h < n && text[i + h] == text[j + h]) {
+					h++;
+				}
+				lcp[rank[i]] = h;
+				if (h > 0) {
+					h--;
+				}
+			} else {
+				h = 0;
+			}
+		}
+		return lcp;
+	}
+
+}
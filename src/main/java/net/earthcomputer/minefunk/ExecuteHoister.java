@@ -0,0 +1,197 @@
+package net.earthcomputer.minefunk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Moves runs of commands with the same <tt>execute</tt> prefix into a
+ * generated function, which is run once using that prefix. This saves
+ * evaluating the selector again for every command in the run.
+ * <p>
+ * Inside the generated function, each entity runs all the commands of the run
+ * before the next entity runs any of them, rather than every entity running
+ * one command before any entity runs the next. So a run is only hoisted while
+ * the commands in it only affect the entity running them, and can't change
+ * which entities the selector matches. The position of the generated function
+ * is fixed when it is run, so a command which moves the entity also ends the
+ * run, since the commands after it would otherwise use the old position.
+ * <p>
+ * Nested <tt>execute @s</tt> commands are also flattened. The inner
+ * <tt>execute @s</tt> runs as the same entity, and its coordinates are
+ * relative to the position of that entity, so the coordinates of the outer
+ * <tt>execute</tt> don't matter.
+ * 
+ * @author Earthcomputer
+ */
+public class ExecuteHoister {
+
+	private static final Pattern EXECUTE = Pattern.compile("execute (\\S+) (\\S+ \\S+ \\S+) (.+)");
+	private static final Pattern OTHER_SELECTOR = Pattern.compile("@[aepr]\\b");
+	/**
+	 * Commands which only affect the entity running them when they don't
+	 * refer to any other entity, apart from messages and sounds. Scoreboard
+	 * commands are checked separately. Commands which can kill the entity,
+	 * such as <tt>kill</tt> and <tt>effect</tt>, can change which entities
+	 * the selector matches, so they can only be the last command of a run.
+	 */
+	private static final Set<String> ENTITY_LOCAL_COMMANDS = new HashSet<>(Arrays.asList("say", "tell", "msg", "w",
+			"tellraw", "title", "playsound", "stopsound", "particle", "give", "clear", "replaceitem", "enchant",
+			"effect", "xp", "gamemode", "spawnpoint", "tp", "teleport", "entitydata", "kill", "summon"));
+	/**
+	 * Commands which can move the entity running them, which can only be the
+	 * last command of a run
+	 */
+	private static final Set<String> MOVING_COMMANDS = new HashSet<>(Arrays.asList("tp", "teleport"));
+
+	private Map<String, List<String>> commandLists;
+	private int nextFunctionId = 0;
+	private int flattenedCount = 0;
+
+	/**
+	 * Creates an execute hoister
+	 * 
+	 * @param commandLists
+	 *            - the generated commands of each function, by final function
+	 *            name, which are modified in place and added to
+	 */
+	public ExecuteHoister(Map<String, List<String>> commandLists) {
+		this.commandLists = commandLists;
+	}
+
+	/**
+	 * Flattens nested <tt>execute</tt> commands and hoists runs of commands
+	 * with the same <tt>execute</tt> prefix in every function
+	 * 
+	 * @return The number of functions generated
+	 */
+	public int hoist() {
+		int generatedCount = 0;
+		// Sorted so that the generated function names are deterministic
+		for (Map.Entry<String, List<String>> entry : new TreeMap<>(commandLists).entrySet()) {
+			List<String> commands = entry.getValue();
+			for (int i = 0; i < commands.size(); i++) {
+				commands.set(i, flatten(commands.get(i)));
+			}
+			generatedCount += hoistRuns(entry.getKey(), commands);
+		}
+		return generatedCount;
+	}
+
+	/**
+	 * Removes <tt>execute @s</tt> commands nested directly inside another
+	 * <tt>execute</tt> command
+	 * 
+	 * @param command
+	 *            - the command
+	 * @return The flattened command
+	 */
+	private String flatten(String command) {
+		while (true) {
+			Matcher outer = EXECUTE.matcher(command);
+			if (!outer.matches()) {
+				return command;
+			}
+			Matcher inner = EXECUTE.matcher(outer.group(3));
+			if (!inner.matches() || !inner.group(1).equals("@s")) {
+				return command;
+			}
+			command = "execute " + outer.group(1) + " " + inner.group(2) + " " + inner.group(3);
+			flattenedCount++;
+		}
+	}
+
+	private int hoistRuns(String funcId, List<String> commands) {
+		int generatedCount = 0;
+		List<String> newCommands = new ArrayList<>(commands.size());
+		int i = 0;
+		while (i < commands.size()) {
+			Matcher matcher = EXECUTE.matcher(commands.get(i));
+			int end = i + 1;
+			if (matcher.matches() && !matcher.group(3).startsWith("detect ") && isEntityLocal(matcher.group(3))) {
+				String prefix = "execute " + matcher.group(1) + " " + matcher.group(2) + " ";
+				String selector = matcher.group(1);
+				while (end < commands.size() && commands.get(end).startsWith(prefix)
+						&& isEntityLocal(commands.get(end).substring(prefix.length()))) {
+					// The previous command mustn't change which entities the
+					// next one runs as, or where
+					String previous = commands.get(end - 1).substring(prefix.length());
+					if (SelectorCache.canChangeMatches(previous, selector)
+							|| MOVING_COMMANDS.contains(previous.split(" ", 2)[0])) {
+						break;
+					}
+					end++;
+				}
+				if (end - i >= 2) {
+					List<String> hoistedCommands = new ArrayList<>(end - i);
+					for (int j = i; j < end; j++) {
+						hoistedCommands.add(commands.get(j).substring(prefix.length()));
+					}
+					String hoistedId = newFunctionId(funcId);
+					commandLists.put(hoistedId, hoistedCommands);
+					newCommands.add(prefix + "function " + hoistedId);
+					generatedCount++;
+					i = end;
+					continue;
+				}
+			}
+			newCommands.add(commands.get(i));
+			i++;
+		}
+		commands.clear();
+		commands.addAll(newCommands);
+		return generatedCount;
+	}
+
+	/**
+	 * Gets whether the given command, run by an entity, only affects that
+	 * entity, so that it doesn't matter which order the entities run it in
+	 * relative to the other commands of a run. Commands which change or test
+	 * blocks could affect each other, since the entities may be next to each
+	 * other.
+	 * 
+	 * @param command
+	 *            - the command, without its <tt>execute</tt> prefix
+	 * @return Whether the command only affects the entity running it
+	 */
+	private static boolean isEntityLocal(String command) {
+		if (OTHER_SELECTOR.matcher(command).find()) {
+			return false;
+		}
+		String[] words = command.split(" ");
+		if (words[0].equals("scoreboard")) {
+			if (words.length < 4 || !words[1].equals("players") || !words[3].startsWith("@s")) {
+				return false;
+			}
+			return !words[2].equals("operation") || (words.length >= 7 && words[6].startsWith("@s"));
+		}
+		return ENTITY_LOCAL_COMMANDS.contains(words[0]);
+	}
+
+	private String newFunctionId(String funcId) {
+		int colonIndex = funcId.indexOf(':');
+		String namespace = colonIndex < 0 ? "minefunk" : funcId.substring(0, colonIndex);
+		String hoistedId;
+		do {
+			hoistedId = namespace + ":0execute" + nextFunctionId++;
+		} while (commandLists.containsKey(hoistedId));
+		return hoistedId;
+	}
+
+	/**
+	 * Gets the number of nested <tt>execute @s</tt> commands which have been
+	 * flattened
+	 * 
+	 * @return The number of flattened commands
+	 */
+	public int getFlattenedCount() {
+		return flattenedCount;
+	}
+
+}
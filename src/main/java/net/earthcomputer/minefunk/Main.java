@@ -16,24 +16,33 @@ import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.regex.Pattern;
 
+import net.earthcomputer.minefunk.parser.ASTFunction;
 import net.earthcomputer.minefunk.parser.ASTProcessor;
 import net.earthcomputer.minefunk.parser.ASTRoot;
-import net.earthcomputer.minefunk.parser.CallGraphVisitor;
+import net.earthcomputer.minefunk.parser.ASTUtil;
+import net.earthcomputer.minefunk.parser.CallGraph;
 import net.earthcomputer.minefunk.parser.Index;
+import net.earthcomputer.minefunk.parser.InlineExpansionCache;
+import net.earthcomputer.minefunk.parser.Keys;
 import net.earthcomputer.minefunk.parser.MinefunkParser;
 import net.earthcomputer.minefunk.parser.MinefunkParserConstants;
 import net.earthcomputer.minefunk.parser.ParseException;
 import net.earthcomputer.minefunk.parser.Token;
+import net.earthcomputer.minefunk.parser.Type;
 
 /**
  * The main class of the compiler
@@ -80,6 +89,8 @@ public class Main {
 
 		Map<String, ASTRoot> asts = new LinkedHashMap<>(inputFiles.size());
 		Index index = new Index();
+		index.setScoreObjective(cmdLineOptions.getScoreObjective());
+		index.setMaxExpansionSize(cmdLineOptions.getMaxExpansionSize());
 		Map<String, List<ParseException>> exceptions = new LinkedHashMap<>();
 
 		// Parse asts from all input files
@@ -135,27 +146,220 @@ public class Main {
 		}
 
 		// Check circular references
-		Map<CallGraphVisitor.CallGraphNode, Set<CallGraphVisitor.CallGraphNode>> callGraph = new HashMap<>();
+		CallGraph.Builder callGraphBuilder = new CallGraph.Builder(index.getVariableCount(), index.getFunctionCount());
 		asts.forEach((filename, root) -> {
-			ASTProcessor.addToCallGraph(callGraph, root, index, exceptions.get(filename));
+			ASTProcessor.addToCallGraph(callGraphBuilder, root, index, exceptions.get(filename));
 		});
-		CallGraphAnalyzer.StronglyConnectedComponentsFinder.Result<CallGraphVisitor.CallGraphNode> cycleSearchResults = new CallGraphAnalyzer.StronglyConnectedComponentsFinder<>(
-				callGraph).findStronglyConnectedComponents();
+		CallGraph callGraph = callGraphBuilder.build();
+		CallGraphAnalyzer.IncrementalComponents expansionComponents = index.findExpansionComponents(callGraph);
 		asts.forEach((filename, root) -> {
-			ASTProcessor.checkForCyclicReferences(cycleSearchResults, root, index, exceptions.get(filename));
+			ASTProcessor.checkForCyclicReferences(callGraph, expansionComponents, root, index,
+					exceptions.get(filename));
 		});
 		if (handleExceptions("circular references check", exceptions)) {
 			return;
 		}
 
+		// Dead function elimination
+		if (cmdLineOptions.getEntryPoints() != null) {
+			int unreachableCount = index.markReachableFunctions(callGraph, cmdLineOptions.getEntryPoints(),
+					globalExceptions);
+			if (handleExceptions("dead function elimination", Collections.singletonMap("global", globalExceptions))) {
+				return;
+			}
+			if (unreachableCount != 0) {
+				System.out.printf("Removed %d functions unreachable from the entry points\n", unreachableCount);
+			}
+		}
+
+		// Constant evaluation
+		index.evaluateConstantFields(callGraph);
+
+		// Check the size of inline expansions before generating them
+		if (cmdLineOptions.getMaxExpansionSize() > 0) {
+			index.computeExpansionSizes(callGraph, expansionComponents);
+			asts.forEach((filename, root) -> {
+				ASTProcessor.checkExpansionSizes(root, index, cmdLineOptions.getMaxExpansionSize(),
+						exceptions.get(filename));
+			});
+			if (handleExceptions("expansion size check", exceptions)) {
+				return;
+			}
+		}
+
 		// Command generation
+		InlineExpansionCache inlineExpansionCache = index.getInlineExpansionCache();
+		inlineExpansionCache.enableOutlining(cmdLineOptions.getOutlineSizeThreshold(),
+				cmdLineOptions.getOutlineCountThreshold());
+		if (inlineExpansionCache.needsCountingPass()) {
+			// Count how many times each inline expansion is used, so that we
+			// know which ones to outline
+			Map<String, List<String>> countingCommandLists = new HashMap<>();
+			asts.forEach((filename, root) -> {
+				ASTProcessor.generateCommandLists(root, index, countingCommandLists, exceptions.get(filename));
+			});
+			index.getFunctionSpecializer().generatePendingSpecializations(index, countingCommandLists);
+			if (handleExceptions("command generation", exceptions)) {
+				return;
+			}
+			inlineExpansionCache.startNextPass();
+			index.getFunctionSpecializer().startNextPass();
+			index.getSwitchGenerator().startNextPass();
+		}
 		Map<String, List<String>> commandLists = new HashMap<>();
 		asts.forEach((filename, root) -> {
 			ASTProcessor.generateCommandLists(root, index, commandLists, exceptions.get(filename));
 		});
+		index.getFunctionSpecializer().generatePendingSpecializations(index, commandLists);
 		if (handleExceptions("command generation", exceptions)) {
 			return;
 		}
+		inlineExpansionCache.getOutlinedExpansions().forEach(expansion -> {
+			commandLists.put(expansion.getOutlinedFunctionId(), expansion.getCommands());
+		});
+		commandLists.putAll(index.getSwitchGenerator().getGeneratedFunctions());
+		printOutlineReport(index);
+		if (index.getFunctionSpecializer().getSpecializationCount() != 0) {
+			System.out.printf("Generated %d copies of functions with parameters, one for each set of arguments\n",
+					index.getFunctionSpecializer().getSpecializationCount());
+		}
+
+		CommandCostEstimator costEstimator;
+		if (cmdLineOptions.getCostWeightsFile() == null) {
+			costEstimator = new CommandCostEstimator();
+		} else {
+			try {
+				costEstimator = new CommandCostEstimator(
+						CommandCostEstimator.readWeights(cmdLineOptions.getCostWeightsFile().toPath()));
+			} catch (IOException e) {
+				System.err.println("Unable to read cost weights: " + e.getMessage());
+				return;
+			}
+		}
+
+		// Spread functions over several ticks, and schedule periodic
+		// functions
+		TickSpreader tickSpreader = new TickSpreader(commandLists, index.getScoreObjective());
+		PeriodicScheduler scheduler = new PeriodicScheduler(commandLists, index.getScoreObjective(),
+				cmdLineOptions.getTickFunction(), cmdLineOptions.getCounterPosition());
+		for (int id = 0; id < index.getFunctionCount(); id++) {
+			ASTFunction function = index.getFunctionById(id);
+			if (function != null && index.isReachable(function)) {
+				if (ASTUtil.getSpreadTicks(function) != 0) {
+					String funcId = index.getFunctionId(function);
+					if (commandLists.containsKey(funcId) && TickSpreader.usesExecutor(commandLists.get(funcId))) {
+						globalExceptions.add(new ParseException("The spread function " + funcId
+								+ " can't use @s, since each part is run by a marker armor stand"));
+					}
+					tickSpreader.spread(funcId, ASTUtil.getSpreadTicks(function));
+				}
+				if (ASTUtil.getPeriod(function) != 0) {
+					scheduler.addJob(index.getFunctionId(function), ASTUtil.getPeriod(function));
+				}
+			}
+		}
+		if (handleExceptions("tick spreading", Collections.singletonMap("global", globalExceptions))) {
+			return;
+		}
+		if (!scheduler.getJobs().isEmpty()) {
+			costEstimator.estimate(commandLists);
+			scheduler.schedule(costEstimator);
+			printScheduleReport(scheduler);
+		}
+		List<String> tickCommands = new ArrayList<>(tickSpreader.getTickCommands());
+		tickCommands.addAll(scheduler.getTickCommands());
+		if (!tickCommands.isEmpty()) {
+			commandLists.put(cmdLineOptions.getTickFunction(), tickCommands);
+			if (tickSpreader.getSpreadCount() != 0) {
+				System.out.printf("Spread %d functions over several ticks\n", tickSpreader.getSpreadCount());
+			}
+			System.out.printf("%s must be run every tick\n", cmdLineOptions.getTickFunction());
+		}
+
+		// Give local variables scoreboard players
+		RegisterAllocator registerAllocator = new RegisterAllocator(commandLists, index.getScoreObjective());
+		registerAllocator.allocate();
+		if (registerAllocator.getVirtualRegisterCount() != 0) {
+			System.out.printf("Stored %d local variables in %d scoreboard players, removing %d redundant commands\n",
+					registerAllocator.getVirtualRegisterCount(), registerAllocator.getPlayerCount(),
+					registerAllocator.getRemovedCount());
+		}
+		if (registerAllocator.getRecursiveFunctionCount() != 0) {
+			System.err.printf("Warning: %d functions with local variables can call themselves, which overwrites them\n",
+					registerAllocator.getRecursiveFunctionCount());
+		}
+
+		// Create the objective if anything uses it. A function of the same
+		// name in the source files is kept, after the objective is created.
+		if (usesObjective(commandLists, index.getScoreObjective())) {
+			List<String> initCommands = new ArrayList<>();
+			initCommands.add("scoreboard objectives add " + index.getScoreObjective() + " dummy");
+			initCommands.addAll(commandLists.getOrDefault(cmdLineOptions.getInitFunction(), Collections.emptyList()));
+			commandLists.put(cmdLineOptions.getInitFunction(), initCommands);
+			System.out.printf("%s must be run once to create the scoreboard objective %s\n",
+					cmdLineOptions.getInitFunction(), index.getScoreObjective());
+		}
+
+		// Optimize the generated commands
+		List<String> entryPoints = cmdLineOptions.getEntryPoints();
+		Predicate<String> isEntryPoint;
+		if (entryPoints == null) {
+			isEntryPoint = funcId -> !CommandListOptimizer.isGeneratedFunction(funcId);
+		} else {
+			Set<String> entryPointSet = new HashSet<>(entryPoints);
+			entryPointSet.add(cmdLineOptions.getTickFunction());
+			entryPointSet.add(cmdLineOptions.getInitFunction());
+			isEntryPoint = entryPointSet::contains;
+		}
+		CommandListOptimizer optimizer = new CommandListOptimizer(commandLists, isEntryPoint);
+		if (cmdLineOptions.isPeepholeEnabled()) {
+			int removedCount = optimizer.applyPeepholeOptimizations(new PeepholeOptimizer());
+			if (removedCount != 0) {
+				System.out.printf("Removed %d redundant commands\n", removedCount);
+			}
+		}
+		if (cmdLineOptions.isNormalizeSelectors()) {
+			int changedCount = optimizer.normalizeSelectors(new SelectorNormalizer());
+			if (changedCount != 0) {
+				System.out.printf("Normalized the selectors of %d commands\n", changedCount);
+			}
+		}
+		if (cmdLineOptions.isHoistExecute()) {
+			ExecuteHoister executeHoister = new ExecuteHoister(commandLists);
+			int hoistedCount = optimizer.hoistExecutePrefixes(executeHoister);
+			if (executeHoister.getFlattenedCount() != 0) {
+				System.out.printf("Flattened %d nested execute commands\n", executeHoister.getFlattenedCount());
+			}
+			if (hoistedCount != 0) {
+				System.out.printf("Moved %d runs of commands with the same execute prefix into functions\n",
+						hoistedCount);
+			}
+		}
+		if (cmdLineOptions.getSelectorCacheMinUses() > 0) {
+			int savedCount = optimizer.cacheSelectors(new SelectorCache(cmdLineOptions.getSelectorCacheMinUses()));
+			if (savedCount != 0) {
+				System.out.printf("Saved %d selector evaluations by tagging the entities they match\n", savedCount);
+			}
+		}
+		int mergedCount = optimizer.mergeDuplicateFunctions();
+		if (mergedCount != 0) {
+			System.out.printf("Merged %d functions with identical commands\n", mergedCount);
+		}
+		if (cmdLineOptions.getExtractMinLength() > 0) {
+			int helperCount = optimizer.extractCommonSequences(cmdLineOptions.getExtractMinLength(),
+					cmdLineOptions.getExtractMinBenefit());
+			if (helperCount != 0) {
+				System.out.printf("Moved %d repeated runs of commands into shared functions\n", helperCount);
+			}
+		}
+		int collapsedCount = optimizer.collapseForwardingFunctions();
+		if (collapsedCount != 0) {
+			System.out.printf("Removed %d functions which only call another function\n", collapsedCount);
+		}
+
+		// Estimate the cost of each function
+		costEstimator.estimate(commandLists);
+		printCostReport(costEstimator, commandLists, isEntryPoint);
 
 		// Output commands generated
 		commandLists.forEach((funcId, commands) -> {
@@ -229,6 +433,112 @@ public class Main {
 		}
 	}
 
+	/**
+	 * Gets whether any of the given commands use the given scoreboard
+	 * objective, either directly or through a <tt>score_</tt> selector
+	 * argument
+	 * 
+	 * @param commandLists
+	 *            - the commands of each function
+	 * @param objective
+	 *            - the objective
+	 * @return Whether the objective is used
+	 */
+	private static boolean usesObjective(Map<String, List<String>> commandLists, String objective) {
+		Pattern pattern = Pattern.compile("(?:^| |score_)" + Pattern.quote(objective) + "(?:$| |_min=|=)");
+		for (List<String> commands : commandLists.values()) {
+			for (String command : commands) {
+				if (pattern.matcher(command).find()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Prints which inline function expansions were outlined into generated
+	 * functions
+	 * 
+	 * @param index
+	 *            - the index
+	 */
+	private static void printOutlineReport(Index index) {
+		InlineExpansionCache inlineExpansionCache = index.getInlineExpansionCache();
+		Collection<InlineExpansionCache.Expansion> outlined = inlineExpansionCache.getOutlinedExpansions();
+		if (outlined.isEmpty()) {
+			return;
+		}
+		System.out.printf("Outlined %d inline function expansions:\n", outlined.size());
+		outlined.forEach(expansion -> {
+			InlineExpansionCache.Key key = expansion.getKey();
+			ASTFunction function = index.getFunctionById(key.getFunctionId());
+			Type name = new Type(ASTUtil.getNodeValue(function).getUserData(Keys.NAMESPACES),
+					ASTUtil.getName(function));
+			StringBuilder args = new StringBuilder();
+			for (Object arg : key.getArguments()) {
+				if (args.length() != 0) {
+					args.append(", ");
+				}
+				args.append(arg instanceof String ? "\"" + arg + "\"" : arg);
+			}
+			System.out.printf("\t%s(%s) -> %s (%d commands, called %d times)\n", name, args,
+					expansion.getOutlinedFunctionId(), expansion.getCommands().size(),
+					inlineExpansionCache.getUseCount(key));
+		});
+	}
+
+	/**
+	 * Prints which tick of its period each periodic function was scheduled on,
+	 * and the cost of the busiest tick
+	 * 
+	 * @param scheduler
+	 *            - the periodic scheduler
+	 */
+	private static void printScheduleReport(PeriodicScheduler scheduler) {
+		System.out.printf("Scheduled %d periodic functions, the busiest tick has a weighted cost of %s%s:\n",
+				scheduler.getJobs().size(), scheduler.isMaxTickCostExact() ? "" : "at most ",
+				CommandCostEstimator.format(scheduler.getMaxTickCost()));
+		scheduler.getJobs().forEach(job -> {
+			System.out.printf("\t%s: every %d ticks on tick %d, weighted cost %s\n", job.getFuncId(), job.getPeriod(),
+					job.getPhase(), CommandCostEstimator.format(job.getCost()));
+		});
+	}
+
+	/**
+	 * Warns about entry points which run more commands than the chain budget,
+	 * and prints the estimated cost of each entry point if asked to
+	 * 
+	 * @param costEstimator
+	 *            - the cost estimator
+	 * @param commandLists
+	 *            - the generated command lists
+	 * @param isEntryPoint
+	 *            - which functions are entry points
+	 */
+	private static void printCostReport(CommandCostEstimator costEstimator, Map<String, List<String>> commandLists,
+			Predicate<String> isEntryPoint) {
+		List<String> funcIds = new ArrayList<>(commandLists.keySet());
+		funcIds.removeIf(isEntryPoint.negate());
+		Collections.sort(funcIds);
+		if (cmdLineOptions.showCostReport() && !funcIds.isEmpty()) {
+			System.out.println("Estimated commands run by each entry point:");
+			funcIds.forEach(funcId -> {
+				System.out.printf("\t%s: %s commands, chain length %s, weighted cost %s\n", funcId,
+						CommandCostEstimator.format(costEstimator.getCommandCount(funcId)),
+						CommandCostEstimator.format(costEstimator.getChainLength(funcId)),
+						CommandCostEstimator.format(costEstimator.getWeightedCost(funcId)));
+			});
+		}
+		funcIds.forEach(funcId -> {
+			long chainLength = costEstimator.getChainLength(funcId);
+			if (chainLength > cmdLineOptions.getChainBudget()) {
+				System.err.printf("Warning: %s may have a command chain of length %s, more than the chain budget of %d\n",
+						funcId, CommandCostEstimator.format(chainLength), cmdLineOptions.getChainBudget());
+			}
+		});
+	}
+
 	/**
 	 * Handles any compiler errors that occur in each phase
 	 * 
@@ -351,6 +661,11 @@ public class Main {
 	 */
 	private static void errPrintNonSyntaxError(List<String> fileLines, ParseException ex) {
 		Token tok = ex.currentToken;
+		if (tok == null) {
+			// Not an error in the source code, e.g. a bad command line option
+			System.err.println(ex.getMessage());
+			return;
+		}
 		// Echo the errored code from the file
 		errCopyLineFromFile(fileLines, tok.beginLine, tok.beginColumn, tok.endLine, tok.endColumn);
 		// Description as to why it's an error
@@ -0,0 +1,277 @@
+package net.earthcomputer.minefunk;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Optimizes the commands of a single function by repeatedly applying a list of
+ * rules, each of which looks at a command and those directly after it. Rules
+ * only ever remove or simplify commands whose effect can't be observed.
+ * 
+ * @author Earthcomputer
+ */
+public class PeepholeOptimizer {
+
+	/**
+	 * The rules applied by default
+	 */
+	public static final List<Rule> DEFAULT_RULES = Arrays.asList(new NormalizeWhitespaceRule(),
+			new OverwrittenGameRuleRule(), new OverwrittenScoreRule(), new DuplicateIdempotentCommandRule());
+
+	private List<Rule> rules;
+
+	/**
+	 * Creates a peephole optimizer with the default rules
+	 */
+	public PeepholeOptimizer() {
+		this(DEFAULT_RULES);
+	}
+
+	/**
+	 * Creates a peephole optimizer with the given rules
+	 * 
+	 * @param rules
+	 *            - the rules to apply
+	 */
+	public PeepholeOptimizer(List<Rule> rules) {
+		this.rules = rules;
+	}
+
+	/**
+	 * Applies the rules to the given commands until none of them apply any
+	 * more
+	 * 
+	 * @param commands
+	 *            - the commands of a function, which are modified in place
+	 * @return The number of commands removed
+	 */
+	public int optimize(List<String> commands) {
+		int oldSize = commands.size();
+		int i = 0;
+		while (i < commands.size()) {
+			boolean changed = false;
+			for (Rule rule : rules) {
+				if (rule.apply(commands, i)) {
+					changed = true;
+					break;
+				}
+			}
+			if (changed) {
+				// A change here may let a rule apply to the previous command
+				i = Math.max(0, i - 1);
+			} else {
+				i++;
+			}
+		}
+		return oldSize - commands.size();
+	}
+
+	/**
+	 * Splits a command into its arguments, which are separated by single
+	 * spaces
+	 * 
+	 * @param command
+	 *            - the command
+	 * @return The arguments, the first of which is the command name
+	 */
+	private static String[] getArguments(String command) {
+		return command.split(" ", -1);
+	}
+
+	/**
+	 * Gets whether running the given command twice in a row affects the same
+	 * targets both times. This is not the case for commands which target a
+	 * random player.
+	 * 
+	 * @param command
+	 *            - the command
+	 * @return Whether the command is deterministic
+	 */
+	private static boolean isDeterministic(String command) {
+		return !command.contains("@r");
+	}
+
+	/**
+	 * A peephole optimization rule
+	 * 
+	 * @author Earthcomputer
+	 */
+	@FunctionalInterface
+	public static interface Rule {
+		/**
+		 * Tries to optimize the command at the given index, together with the
+		 * commands after it
+		 * 
+		 * @param commands
+		 *            - the commands of the function
+		 * @param index
+		 *            - the index of the command to optimize
+		 * @return Whether the commands were changed
+		 */
+		boolean apply(List<String> commands, int index);
+	}
+
+	/**
+	 * Removes leading and trailing whitespace and the optional leading slash
+	 * from commands, and removes empty commands. Whitespace inside a command
+	 * is kept, since it is part of the text of commands like <tt>say</tt>.
+	 * 
+	 * @author Earthcomputer
+	 */
+	public static class NormalizeWhitespaceRule implements Rule {
+		@Override
+		public boolean apply(List<String> commands, int index) {
+			String command = commands.get(index);
+			String normalized = command.trim();
+			if (normalized.startsWith("/")) {
+				normalized = normalized.substring(1).trim();
+			}
+			if (normalized.isEmpty()) {
+				commands.remove(index);
+				return true;
+			}
+			if (!normalized.equals(command)) {
+				commands.set(index, normalized);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Removes a <tt>gamerule</tt> command which sets a game rule, if the same
+	 * game rule is set again before any command other than another
+	 * <tt>gamerule</tt> command which sets a game rule
+	 * 
+	 * @author Earthcomputer
+	 */
+	public static class OverwrittenGameRuleRule implements Rule {
+		@Override
+		public boolean apply(List<String> commands, int index) {
+			String rule = getGameRuleSet(commands.get(index));
+			if (rule == null) {
+				return false;
+			}
+			for (int i = index + 1; i < commands.size(); i++) {
+				String nextRule = getGameRuleSet(commands.get(i));
+				if (nextRule == null) {
+					return false;
+				}
+				if (nextRule.equals(rule)) {
+					commands.remove(index);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static String getGameRuleSet(String command) {
+			if (!command.startsWith("gamerule ")) {
+				return null;
+			}
+			String[] args = getArguments(command);
+			return args.length == 3 ? args[1] : null;
+		}
+	}
+
+	/**
+	 * Removes a <tt>scoreboard players set</tt> command which is directly
+	 * followed by another which sets or resets the same score. This is only
+	 * done when the score holder is a fake player, <tt>@s</tt>, or a selector
+	 * without score, tag, team or count arguments. Otherwise setting the first
+	 * score can change which entities the second selector matches, e.g.
+	 * <tt>@e[score_x_min=1]</tt> matches nothing after its <tt>x</tt> score
+	 * is set to 0.
+	 * 
+	 * @author Earthcomputer
+	 */
+	public static class OverwrittenScoreRule implements Rule {
+		@Override
+		public boolean apply(List<String> commands, int index) {
+			if (index + 1 >= commands.size() || !commands.get(index).startsWith("scoreboard players set ")) {
+				return false;
+			}
+			String[] args = getArguments(commands.get(index));
+			if (!isDeterministic(commands.get(index))) {
+				return false;
+			}
+			if (args.length < 4 || !hasFixedTargets(args[3])) {
+				return false;
+			}
+			// Don't touch the form with a data tag, which only sets the score
+			// of matching entities
+			if (args.length != 6) {
+				return false;
+			}
+			String[] nextArgs = getArguments(commands.get(index + 1));
+			if (nextArgs.length < 4 || !nextArgs[0].equals("scoreboard") || !nextArgs[1].equals("players")
+					|| !nextArgs[3].equals(args[3])) {
+				return false;
+			}
+			boolean overwritten;
+			if (nextArgs[2].equals("set")) {
+				overwritten = nextArgs.length == 6 && nextArgs[4].equals(args[4]);
+			} else if (nextArgs[2].equals("reset")) {
+				overwritten = nextArgs.length == 4 || (nextArgs.length == 5 && nextArgs[4].equals(args[4]));
+			} else {
+				overwritten = false;
+			}
+			if (overwritten) {
+				commands.remove(index);
+			}
+			return overwritten;
+		}
+
+		private static boolean hasFixedTargets(String holder) {
+			if (holder.equals("@s")) {
+				return true;
+			}
+			if (!holder.startsWith("@")) {
+				// The * wildcard depends on which scores exist
+				return !holder.equals("*");
+			}
+			int bracketIndex = holder.indexOf('[');
+			if (bracketIndex < 0) {
+				return true;
+			}
+			for (String argument : holder.substring(bracketIndex + 1, holder.length() - 1).split(",")) {
+				String key = argument.substring(0, Math.max(0, argument.indexOf('=')));
+				if (key.startsWith("score_") || key.equals("tag") || key.equals("team") || key.equals("c")) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Removes a command which is the same as the command directly before it,
+	 * if running it again has no further effect
+	 * 
+	 * @author Earthcomputer
+	 */
+	public static class DuplicateIdempotentCommandRule implements Rule {
+		private static final List<String> IDEMPOTENT_PREFIXES = Arrays.asList("gamerule ", "scoreboard players set ",
+				"scoreboard players reset ", "scoreboard objectives setdisplay ", "difficulty ", "defaultgamemode ",
+				"gamemode ", "time set ", "setworldspawn ", "spawnpoint ");
+
+		@Override
+		public boolean apply(List<String> commands, int index) {
+			if (index + 1 >= commands.size()) {
+				return false;
+			}
+			String command = commands.get(index);
+			if (!command.equals(commands.get(index + 1)) || !isDeterministic(command)) {
+				return false;
+			}
+			for (String prefix : IDEMPOTENT_PREFIXES) {
+				if (command.startsWith(prefix)) {
+					commands.remove(index + 1);
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,328 @@
+package net.earthcomputer.minefunk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs functions with the <tt>every</tt> modifier from the tick function. Each
+ * function is given a phase, which is the tick within its period that it runs
+ * on. Phases are chosen so that the busiest tick is as cheap as possible,
+ * which staggers functions which would otherwise all run on the same tick.
+ * <p>
+ * Minecraft 1.12 functions can only branch on entity selectors, so the tick
+ * counter of each period is stored in the score of a marker armor stand, which
+ * the tick function summons if it doesn't exist yet. The marker must be in a
+ * chunk which is always loaded, or the functions stop running while it is
+ * unloaded. By default it is summoned where the tick function is run, which
+ * for the <tt>gameLoopFunction</tt> game rule is the world origin, so the
+ * position should usually be set to somewhere in the spawn chunks.
+ * <p>
+ * If the chunk containing the marker is unloaded anyway, another marker is
+ * summoned, and there are two markers once the chunk is loaded again. Every
+ * time a counter goes back to 0, all but the nearest of its markers are
+ * killed, so the extra marker only lasts for one period.
+ * 
+ * @author Earthcomputer
+ */
+public class PeriodicScheduler {
+
+	/**
+	 * The longest number of ticks over which the load of all the functions
+	 * together is balanced. If the least common multiple of the periods is
+	 * longer than this, functions are only staggered against functions with
+	 * the same period.
+	 */
+	public static final int MAX_HYPERPERIOD = 72000;
+	/**
+	 * The default position at which the markers holding the tick counters are
+	 * summoned, which is where the tick function is run
+	 */
+	public static final String DEFAULT_COUNTER_POSITION = "~ ~ ~";
+
+	private Map<String, List<String>> commandLists;
+	private String objective;
+	private String generatedPrefix;
+	private String tagPrefix;
+	private String counterPosition;
+	private List<Job> jobs = new ArrayList<>();
+	private List<String> tickCommands = new ArrayList<>();
+	private long maxTickCost = 0;
+	private boolean maxTickCostExact = true;
+
+	/**
+	 * Creates a periodic scheduler
+	 * 
+	 * @param commandLists
+	 *            - the generated commands of each function, by final function
+	 *            name, which the generated functions are added to
+	 * @param objective
+	 *            - the scoreboard objective in which the tick counters are
+	 *            stored
+	 * @param tickFunction
+	 *            - the final function name of the tick function
+	 * @param counterPosition
+	 *            - the coordinates at which to summon the markers holding the
+	 *            tick counters, separated by spaces
+	 */
+	public PeriodicScheduler(Map<String, List<String>> commandLists, String objective, String tickFunction,
+			String counterPosition) {
+		this.commandLists = commandLists;
+		this.objective = objective;
+		int nameStart = Math.max(tickFunction.lastIndexOf(':'), tickFunction.lastIndexOf('/')) + 1;
+		this.generatedPrefix = tickFunction.substring(0, nameStart) + "0" + tickFunction.substring(nameStart)
+				+ "_every";
+		this.tagPrefix = tickFunction.replace(':', '.').replace('/', '.') + ".every";
+		this.counterPosition = counterPosition;
+	}
+
+	/**
+	 * Adds a function to be run periodically
+	 * 
+	 * @param funcId
+	 *            - the final function name of the function
+	 * @param period
+	 *            - the number of ticks between each time the function is run
+	 */
+	public void addJob(String funcId, int period) {
+		jobs.add(new Job(funcId, period));
+	}
+
+	/**
+	 * Chooses the phase of each function, and generates the commands which
+	 * run them (see {@link #getTickCommands()})
+	 * 
+	 * @param costEstimator
+	 *            - the cost estimator, which has estimated the cost of every
+	 *            function
+	 */
+	public void schedule(CommandCostEstimator costEstimator) {
+		for (Job job : jobs) {
+			job.cost = costEstimator.getWeightedCost(job.funcId);
+		}
+		// Place the most expensive functions first, while there are still
+		// plenty of cheap ticks left
+		List<Job> sortedJobs = new ArrayList<>(jobs);
+		sortedJobs.sort(Comparator.comparingLong((Job job) -> job.cost).reversed()
+				.thenComparing(job -> job.funcId));
+
+		long hyperperiod = 1;
+		for (Job job : jobs) {
+			hyperperiod = lcm(hyperperiod, job.period);
+			if (hyperperiod > MAX_HYPERPERIOD) {
+				break;
+			}
+		}
+		Map<Integer, List<Job>> jobsByPeriod = new TreeMap<>();
+		for (Job job : sortedJobs) {
+			jobsByPeriod.computeIfAbsent(job.period, k -> new ArrayList<>()).add(job);
+		}
+		if (hyperperiod <= MAX_HYPERPERIOD) {
+			maxTickCost = assignPhases(sortedJobs, (int) hyperperiod);
+		} else {
+			// The busiest ticks of each period may not line up, so this is
+			// only an upper bound
+			maxTickCostExact = false;
+			for (List<Job> periodJobs : jobsByPeriod.values()) {
+				maxTickCost = saturatedAdd(maxTickCost, assignPhases(periodJobs, periodJobs.get(0).period));
+			}
+		}
+
+		jobsByPeriod.forEach(this::generateDispatch);
+	}
+
+	/**
+	 * Gives each of the given jobs the phase which keeps the busiest tick as
+	 * cheap as possible
+	 * 
+	 * @param jobs
+	 *            - the jobs, in the order to place them
+	 * @param length
+	 *            - the number of ticks to balance the load over, which is a
+	 *            multiple of all the periods of the jobs
+	 * @return The cost of the busiest tick
+	 */
+	private static long assignPhases(List<Job> jobs, int length) {
+		long[] load = new long[length];
+		for (Job job : jobs) {
+			long bestMax = Long.MAX_VALUE;
+			for (int phase = 0; phase < job.period; phase++) {
+				long max = 0;
+				for (int tick = phase; tick < length; tick += job.period) {
+					max = Math.max(max, load[tick]);
+				}
+				if (max < bestMax) {
+					bestMax = max;
+					job.phase = phase;
+				}
+			}
+			for (int tick = job.phase; tick < length; tick += job.period) {
+				load[tick] = saturatedAdd(load[tick], job.cost);
+			}
+		}
+		long maxLoad = 0;
+		for (long tickLoad : load) {
+			maxLoad = Math.max(maxLoad, tickLoad);
+		}
+		return maxLoad;
+	}
+
+	private void generateDispatch(int period, List<Job> periodJobs) {
+		Map<Integer, List<String>> callsByPhase = new TreeMap<>();
+		for (Job job : periodJobs) {
+			callsByPhase.computeIfAbsent(job.phase, k -> new ArrayList<>()).add("function " + job.funcId);
+		}
+		if (period == 1) {
+			// No need for a counter if the functions are run every tick
+			tickCommands.addAll(callsByPhase.get(0));
+			return;
+		}
+
+		String tag = tagPrefix + period;
+		// Selectors can only check one tag, so the marker has a second tag
+		// to find it by while the first is removed
+		String keepTag = tag + ".keep";
+		String marker = "@e[type=armor_stand,tag=" + tag;
+		String anyMarker = marker + "]";
+		List<String> initCommands = new ArrayList<>(2);
+		initCommands.add("summon armor_stand " + counterPosition + " {Tags:[\"" + tag + "\",\"" + keepTag
+				+ "\"],Marker:1b,Invisible:1b,NoGravity:1b,Invulnerable:1b}");
+		initCommands.add("scoreboard players set " + anyMarker + " " + objective + " 0");
+		commandLists.put(generatedPrefix + period + "_init", initCommands);
+		tickCommands.add("function " + generatedPrefix + period + "_init unless " + anyMarker);
+
+		callsByPhase.forEach((phase, calls) -> {
+			String condition = " if " + marker + ",score_" + objective + "_min=" + phase + ",score_" + objective + "="
+					+ phase + "]";
+			if (calls.size() == 1) {
+				tickCommands.add(calls.get(0) + condition);
+			} else {
+				String phaseFunction = generatedPrefix + period + "_" + phase;
+				commandLists.put(phaseFunction, calls);
+				tickCommands.add("function " + phaseFunction + condition);
+			}
+		});
+		tickCommands.add("scoreboard players add " + anyMarker + " " + objective + " 1");
+
+		// Reset the counter, killing any extra markers
+		List<String> wrapCommands = new ArrayList<>(4);
+		wrapCommands.add("scoreboard players tag " + marker + ",c=1] remove " + tag);
+		wrapCommands.add("kill " + anyMarker);
+		wrapCommands.add("scoreboard players tag @e[type=armor_stand,tag=" + keepTag + "] add " + tag);
+		wrapCommands.add("scoreboard players set " + anyMarker + " " + objective + " 0");
+		commandLists.put(generatedPrefix + period + "_wrap", wrapCommands);
+		tickCommands.add("function " + generatedPrefix + period + "_wrap if " + marker + ",score_" + objective
+				+ "_min=" + period + "]");
+	}
+
+	private static long lcm(long a, long b) {
+		long x = a, y = b;
+		while (y != 0) {
+			long tmp = x % y;
+			x = y;
+			y = tmp;
+		}
+		return a / x * b;
+	}
+
+	private static long saturatedAdd(long a, long b) {
+		long sum = a + b;
+		return sum < 0 ? CommandCostEstimator.UNBOUNDED : sum;
+	}
+
+	/**
+	 * Gets the commands which must be added to the tick function
+	 * 
+	 * @return The commands which run the periodic functions
+	 */
+	public List<String> getTickCommands() {
+		return tickCommands;
+	}
+
+	/**
+	 * Gets the functions which are run periodically
+	 * 
+	 * @return The jobs
+	 */
+	public List<Job> getJobs() {
+		return Collections.unmodifiableList(jobs);
+	}
+
+	/**
+	 * Gets the weighted cost of the periodic functions run on the busiest
+	 * tick, according to the cost estimator given to
+	 * {@link #schedule(CommandCostEstimator)}
+	 * 
+	 * @return The cost of the busiest tick
+	 */
+	public long getMaxTickCost() {
+		return maxTickCost;
+	}
+
+	/**
+	 * Gets whether {@link #getMaxTickCost()} is exact, rather than an upper
+	 * bound
+	 * 
+	 * @return Whether the maximum tick cost is exact
+	 */
+	public boolean isMaxTickCostExact() {
+		return maxTickCostExact;
+	}
+
+	/**
+	 * A function which is run periodically
+	 * 
+	 * @author Earthcomputer
+	 */
+	public static class Job {
+		private String funcId;
+		private int period;
+		private int phase;
+		private long cost;
+
+		private Job(String funcId, int period) {
+			this.funcId = funcId;
+			this.period = period;
+		}
+
+		/**
+		 * Gets the final function name of the function
+		 * 
+		 * @return The function name
+		 */
+		public String getFuncId() {
+			return funcId;
+		}
+
+		/**
+		 * Gets the number of ticks between each time the function is run
+		 * 
+		 * @return The period
+		 */
+		public int getPeriod() {
+			return period;
+		}
+
+		/**
+		 * Gets which tick in its period the function is run on
+		 * 
+		 * @return The phase
+		 */
+		public int getPhase() {
+			return phase;
+		}
+
+		/**
+		 * Gets the estimated weighted cost of running the function
+		 * 
+		 * @return The cost
+		 */
+		public long getCost() {
+			return cost;
+		}
+	}
+
+}
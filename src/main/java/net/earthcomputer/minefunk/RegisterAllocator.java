@@ -0,0 +1,708 @@
+package net.earthcomputer.minefunk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Gives the runtime local variables of the generated functions real scoreboard
+ * players. During code generation, every local variable is given a new virtual
+ * register. Once all the commands have been generated, this class works out
+ * where in each function each register holds a value which is still needed,
+ * removes copies between registers which can share a player and commands
+ * which store values that are never read, and packs the remaining registers
+ * into as few players as possible, reusing a player once the register in it
+ * is no longer needed.
+ * <p>
+ * All functions share the same players, so a register which holds a value
+ * across a call to another function is given a player which that function,
+ * and the functions it calls, don't use. Functions which can call themselves
+ * can't avoid this, so their registers may be overwritten by the recursive
+ * call.
+ * 
+ * @author Earthcomputer
+ */
+public class RegisterAllocator {
+
+	/**
+	 * The default prefix of the scoreboard players which registers are stored
+	 * in
+	 */
+	public static final String DEFAULT_PREFIX = "#r";
+
+	private static final char MARKER = '\0';
+	private static final Pattern VIRTUAL_REGISTER = Pattern.compile(MARKER + "(\\d+)" + MARKER);
+
+	private Map<String, List<String>> commandLists;
+	private String objective;
+	private String prefix;
+	private int virtualRegisterCount = 0;
+	private int playerCount = 0;
+	private int removedCount = 0;
+	private int recursiveFunctionCount = 0;
+
+	/**
+	 * Creates a register allocator which stores registers in players starting
+	 * with {@link #DEFAULT_PREFIX}
+	 * 
+	 * @param commandLists
+	 *            - the generated commands of each function, by final function
+	 *            name, which are modified in place
+	 * @param objective
+	 *            - the scoreboard objective in which registers are stored
+	 */
+	public RegisterAllocator(Map<String, List<String>> commandLists, String objective) {
+		this(commandLists, objective, DEFAULT_PREFIX);
+	}
+
+	/**
+	 * Creates a register allocator
+	 * 
+	 * @param commandLists
+	 *            - the generated commands of each function, by final function
+	 *            name, which are modified in place
+	 * @param objective
+	 *            - the scoreboard objective in which registers are stored
+	 * @param prefix
+	 *            - the prefix of the scoreboard players which registers are
+	 *            stored in. The players are named this followed by a number.
+	 */
+	public RegisterAllocator(Map<String, List<String>> commandLists, String objective, String prefix) {
+		this.commandLists = commandLists;
+		this.objective = objective;
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Gets the name of a virtual register, as it appears in a generated command
+	 * before registers are allocated
+	 * 
+	 * @param register
+	 *            - the number of the virtual register
+	 * @return The name of the virtual register
+	 */
+	public static String getVirtualRegister(int register) {
+		return MARKER + String.valueOf(register) + MARKER;
+	}
+
+	/**
+	 * Finds where a list of commands containing virtual registers can be cut
+	 * in two without a register holding a value from one part to the other.
+	 * This is conservative, since a register is treated as holding a value
+	 * from the first to the last command which mentions it.
+	 * 
+	 * @param commands
+	 *            - the commands, before registers are allocated
+	 * @return An array of size <tt>commands.size() + 1</tt>, where element
+	 *         <tt>i</tt> is whether the commands can be cut before command
+	 *         <tt>i</tt>
+	 */
+	public static boolean[] findRegisterFreePoints(List<String> commands) {
+		Map<Integer, Integer> firstMentions = new HashMap<>();
+		Map<Integer, Integer> lastMentions = new HashMap<>();
+		for (int i = 0; i < commands.size(); i++) {
+			Matcher matcher = VIRTUAL_REGISTER.matcher(commands.get(i));
+			while (matcher.find()) {
+				int register = Integer.parseInt(matcher.group(1));
+				firstMentions.putIfAbsent(register, i);
+				lastMentions.put(register, i);
+			}
+		}
+		// Count how many registers hold a value across each point
+		int[] liveChanges = new int[commands.size() + 2];
+		firstMentions.forEach((register, first) -> {
+			liveChanges[first + 1]++;
+			liveChanges[lastMentions.get(register) + 1]--;
+		});
+		boolean[] freePoints = new boolean[commands.size() + 1];
+		int live = 0;
+		for (int i = 0; i <= commands.size(); i++) {
+			live += liveChanges[i];
+			freePoints[i] = live == 0;
+		}
+		return freePoints;
+	}
+
+	/**
+	 * Gets whether any of the given commands use a virtual register created
+	 * before the given one. Virtual registers are numbered in the order they
+	 * are created.
+	 * 
+	 * @param commands
+	 *            - the commands, before registers are allocated
+	 * @param register
+	 *            - the number of the first virtual register which may be used
+	 * @return Whether an earlier virtual register is used
+	 */
+	public static boolean usesRegistersBefore(List<String> commands, int register) {
+		for (String command : commands) {
+			Matcher matcher = VIRTUAL_REGISTER.matcher(command);
+			while (matcher.find()) {
+				if (Integer.parseInt(matcher.group(1)) < register) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Replaces the virtual registers in all the functions with scoreboard
+	 * players
+	 */
+	public void allocate() {
+		// Number the functions and find which functions each one calls, like
+		// the cost estimator
+		List<String> funcIds = new ArrayList<>(new TreeMap<>(commandLists).keySet());
+		Map<String, Integer> funcNumbers = new HashMap<>();
+		for (int i = 0; i < funcIds.size(); i++) {
+			funcNumbers.put(funcIds.get(i), i);
+		}
+		int[] offsets = new int[funcIds.size() + 1];
+		int[] targets = new int[16];
+		int edgeCount = 0;
+		for (int func = 0; func < funcIds.size(); func++) {
+			offsets[func] = edgeCount;
+			for (String command : commandLists.get(funcIds.get(func))) {
+				for (String callee : getCalledFunctions(command)) {
+					Integer target = funcNumbers.get(callee);
+					if (target != null) {
+						if (edgeCount == targets.length) {
+							targets = Arrays.copyOf(targets, edgeCount << 1);
+						}
+						targets[edgeCount++] = target;
+					}
+				}
+			}
+		}
+		offsets[funcIds.size()] = edgeCount;
+
+		// Allocate the callees of each function before the function itself,
+		// so we know which players they use
+		CallGraphAnalyzer.Components components = CallGraphAnalyzer.StronglyConnectedComponentsFinder
+				.findStronglyConnectedComponents(funcIds.size(), offsets, targets);
+		Map<String, Integer> playersUsed = new HashMap<>();
+		for (int i = 0; i < funcIds.size(); i++) {
+			int func = components.getNodeInDependencyOrder(i);
+			String funcId = funcIds.get(func);
+			int registersBefore = virtualRegisterCount;
+			int used = allocate(commandLists.get(funcId), playersUsed);
+			if (virtualRegisterCount != registersBefore && components.isConnectedComponent(func)) {
+				recursiveFunctionCount++;
+			}
+			playersUsed.put(funcId, used);
+			playerCount = Math.max(playerCount, used);
+		}
+	}
+
+	/**
+	 * Allocates the registers of a single function
+	 * 
+	 * @param commands
+	 *            - the commands of the function
+	 * @param playersUsed
+	 *            - the number of players used by each function already
+	 *            allocated, including by the functions it calls
+	 * @return The number of players used by this function, including by the
+	 *         functions it calls
+	 */
+	private int allocate(List<String> commands, Map<String, Integer> playersUsed) {
+		// Parse the commands, numbering the registers in this function
+		Map<Integer, Integer> registerNumbers = new HashMap<>();
+		List<Integer> virtualRegisters = new ArrayList<>();
+		Instruction[] instructions = new Instruction[commands.size()];
+		int calleePlayers = 0;
+		for (int i = 0; i < instructions.length; i++) {
+			instructions[i] = parse(commands.get(i), registerNumbers, virtualRegisters);
+			for (String callee : getCalledFunctions(commands.get(i))) {
+				instructions[i].calleePlayers = Math.max(instructions[i].calleePlayers,
+						playersUsed.getOrDefault(callee, 0));
+			}
+			calleePlayers = Math.max(calleePlayers, instructions[i].calleePlayers);
+		}
+		int registerCount = virtualRegisters.size();
+		if (registerCount == 0) {
+			return calleePlayers;
+		}
+		virtualRegisterCount += registerCount;
+
+		// Walk backwards through the commands to find where each register is
+		// live, removing commands which only store to a dead register
+		LiveRange[] ranges = new LiveRange[registerCount];
+		for (int reg = 0; reg < registerCount; reg++) {
+			ranges[reg] = new LiveRange();
+		}
+		int[] lastUse = new int[registerCount];
+		BitSet live = new BitSet(registerCount);
+		for (int i = instructions.length - 1; i >= 0; i--) {
+			Instruction instruction = instructions[i];
+			if (instruction.storesOnly && !live.get(instruction.target)) {
+				instruction.removed = true;
+				continue;
+			}
+			for (int reg : instruction.defs) {
+				ranges[reg].addDef(i, reg == instruction.target ? instruction.copySource : -1);
+			}
+			if (instruction.kills && live.get(instruction.target)) {
+				ranges[instruction.target].addSegment(i, lastUse[instruction.target]);
+				live.clear(instruction.target);
+			}
+			for (int reg : instruction.uses) {
+				if (!live.get(reg)) {
+					live.set(reg);
+					lastUse[reg] = i;
+				}
+			}
+		}
+		// Registers which are read before being written, treated as written
+		// at the start of the function
+		for (int reg = live.nextSetBit(0); reg >= 0; reg = live.nextSetBit(reg + 1)) {
+			ranges[reg].addSegment(-1, lastUse[reg]);
+			ranges[reg].addDef(-1, -1);
+		}
+		for (LiveRange range : ranges) {
+			range.reverse();
+		}
+
+		// A register live across a call must not use the callee's players
+		for (int i = 0; i < instructions.length; i++) {
+			if (instructions[i].calleePlayers != 0 && !instructions[i].removed) {
+				for (LiveRange range : ranges) {
+					if (range.isLiveAcross(i)) {
+						range.minPlayer = Math.max(range.minPlayer, instructions[i].calleePlayers);
+					}
+				}
+			}
+		}
+
+		// Coalesce copies between registers which don't interfere
+		int[] parents = new int[registerCount];
+		for (int reg = 0; reg < registerCount; reg++) {
+			parents[reg] = reg;
+		}
+		for (Instruction instruction : instructions) {
+			if (!instruction.removed && instruction.copySource >= 0) {
+				int a = find(parents, instruction.target);
+				int b = find(parents, instruction.copySource);
+				if (a != b && !interferes(ranges, parents, a, b)) {
+					union(ranges, parents, a, b);
+				}
+			}
+		}
+
+		// Pack the registers into players in order of their first
+		// definition, reusing the first player whose registers don't
+		// interfere
+		Integer[] order = new Integer[registerCount];
+		for (int reg = 0; reg < registerCount; reg++) {
+			order[reg] = reg;
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(ranges[a].getFirstDef(), ranges[b].getFirstDef()));
+		List<Integer> players = new ArrayList<>();
+		int[] playerOfRoot = new int[registerCount];
+		for (int reg : order) {
+			if (find(parents, reg) != reg) {
+				continue;
+			}
+			int player = ranges[reg].minPlayer;
+			while (player < players.size() && players.get(player) != -1) {
+				int other = find(parents, players.get(player));
+				if (!interferes(ranges, parents, reg, other)) {
+					union(ranges, parents, other, reg);
+					break;
+				}
+				player++;
+			}
+			while (players.size() <= player) {
+				players.add(-1);
+			}
+			if (players.get(player) == -1) {
+				players.set(player, reg);
+			}
+		}
+		int[] playerOfRegister = new int[registerCount];
+		for (int player = 0; player < players.size(); player++) {
+			if (players.get(player) != -1) {
+				playerOfRoot[find(parents, players.get(player))] = player;
+			}
+		}
+		for (int reg = 0; reg < registerCount; reg++) {
+			playerOfRegister[reg] = playerOfRoot[find(parents, reg)];
+		}
+
+		// Rewrite the commands with the allocated players
+		List<String> newCommands = new ArrayList<>(commands.size());
+		for (int i = 0; i < instructions.length; i++) {
+			if (instructions[i].removed) {
+				removedCount++;
+				continue;
+			}
+			Matcher matcher = VIRTUAL_REGISTER.matcher(commands.get(i));
+			StringBuffer command = new StringBuffer();
+			while (matcher.find()) {
+				int reg = registerNumbers.get(Integer.parseInt(matcher.group(1)));
+				matcher.appendReplacement(command, Matcher.quoteReplacement(prefix + playerOfRegister[reg]));
+			}
+			matcher.appendTail(command);
+			if (instructions[i].copySource >= 0
+					&& playerOfRegister[instructions[i].target] == playerOfRegister[instructions[i].copySource]) {
+				// A copy between registers which now share a player
+				removedCount++;
+				continue;
+			}
+			newCommands.add(command.toString());
+		}
+		commands.clear();
+		commands.addAll(newCommands);
+
+		return Math.max(players.size(), calleePlayers);
+	}
+
+	/**
+	 * Works out which registers the given command reads and writes
+	 */
+	private Instruction parse(String command, Map<Integer, Integer> registerNumbers, List<Integer> virtualRegisters) {
+		Instruction instruction = new Instruction();
+		List<Integer> registers = new ArrayList<>();
+		Matcher matcher = VIRTUAL_REGISTER.matcher(command);
+		while (matcher.find()) {
+			int virtualRegister = Integer.parseInt(matcher.group(1));
+			Integer reg = registerNumbers.get(virtualRegister);
+			if (reg == null) {
+				reg = virtualRegisters.size();
+				registerNumbers.put(virtualRegister, reg);
+				virtualRegisters.add(virtualRegister);
+			}
+			registers.add(reg);
+		}
+		if (registers.isEmpty()) {
+			return instruction;
+		}
+
+		String[] words = command.split(" ");
+		boolean playersCommand = words.length >= 5 && words[0].equals("scoreboard") && words[1].equals("players")
+				&& words[4].equals(objective);
+		int target = playersCommand ? getRegister(words[3], registerNumbers) : -1;
+		if (playersCommand && target < 0 && registers.size() == 1 && words[2].equals("operation")
+				&& words.length == 8 && words[7].equals(objective) && !words[5].equals("><")
+				&& getRegister(words[6], registerNumbers) >= 0) {
+			// Only reads a register, into some other score
+			instruction.uses = new int[] { registers.get(0) };
+			return instruction;
+		}
+		if (target >= 0) {
+			switch (words[2]) {
+			case "test":
+				if (registers.size() == 1) {
+					instruction.uses = new int[] { target };
+					return instruction;
+				}
+				break;
+			case "set":
+				if (words.length == 6) {
+					instruction.setStore(target, true);
+					return instruction;
+				}
+				break;
+			case "add":
+			case "remove":
+				if (words.length == 6) {
+					instruction.setStore(target, false);
+					return instruction;
+				}
+				break;
+			case "reset":
+				if (words.length == 5) {
+					instruction.setStore(target, true);
+					return instruction;
+				}
+				break;
+			case "operation":
+				if (words.length == 8 && words[7].equals(objective) && !words[5].equals("><")) {
+					boolean assign = words[5].equals("=");
+					instruction.setStore(target, assign);
+					int source = getRegister(words[6], registerNumbers);
+					if (source >= 0) {
+						instruction.uses = assign ? new int[] { source } : new int[] { target, source };
+						if (assign && source != target) {
+							instruction.copySource = source;
+						}
+					}
+					return instruction;
+				}
+				break;
+			}
+		}
+
+		// Any other command may read and write all the registers in it
+		instruction.uses = new int[registers.size()];
+		for (int i = 0; i < registers.size(); i++) {
+			instruction.uses[i] = registers.get(i);
+		}
+		instruction.defs = instruction.uses;
+		return instruction;
+	}
+
+	private static int getRegister(String word, Map<Integer, Integer> registerNumbers) {
+		Matcher matcher = VIRTUAL_REGISTER.matcher(word);
+		if (!matcher.matches()) {
+			return -1;
+		}
+		return registerNumbers.get(Integer.parseInt(matcher.group(1)));
+	}
+
+	/**
+	 * Gets the functions called by a command, i.e. the words after
+	 * <tt>function</tt>
+	 */
+	private static List<String> getCalledFunctions(String command) {
+		List<String> callees = new ArrayList<>(1);
+		String[] words = command.split(" ");
+		for (int i = 1; i < words.length; i++) {
+			if (words[i - 1].equals("function")) {
+				callees.add(words[i]);
+			}
+		}
+		return callees;
+	}
+
+	private static int find(int[] parents, int reg) {
+		while (parents[reg] != reg) {
+			parents[reg] = parents[parents[reg]];
+			reg = parents[reg];
+		}
+		return reg;
+	}
+
+	private static void union(LiveRange[] ranges, int[] parents, int root, int other) {
+		parents[other] = root;
+		ranges[root] = LiveRange.merge(ranges[root], ranges[other]);
+	}
+
+	/**
+	 * Two registers interfere if one is written while the other holds a value
+	 * which is still needed, unless it is written with a copy of the other
+	 */
+	private static boolean interferes(LiveRange[] ranges, int[] parents, int a, int b) {
+		return ranges[a].hasDefDuring(ranges[b], parents, b) || ranges[b].hasDefDuring(ranges[a], parents, a);
+	}
+
+	/**
+	 * Gets the number of virtual registers which were allocated
+	 * 
+	 * @return The number of virtual registers
+	 */
+	public int getVirtualRegisterCount() {
+		return virtualRegisterCount;
+	}
+
+	/**
+	 * Gets the number of scoreboard players used to store registers
+	 * 
+	 * @return The number of players
+	 */
+	public int getPlayerCount() {
+		return playerCount;
+	}
+
+	/**
+	 * Gets the number of commands removed, either because they stored to a
+	 * register which was never read, or because they copied between registers
+	 * which now share a player
+	 * 
+	 * @return The number of commands removed
+	 */
+	public int getRemovedCount() {
+		return removedCount;
+	}
+
+	/**
+	 * Gets the number of functions which use registers and can call
+	 * themselves, whose registers may be overwritten by the recursive call
+	 * 
+	 * @return The number of recursive functions
+	 */
+	public int getRecursiveFunctionCount() {
+		return recursiveFunctionCount;
+	}
+
+	/**
+	 * A command, and the registers it reads and writes
+	 */
+	private static class Instruction {
+		private static final int[] NONE = new int[0];
+
+		private int[] uses = NONE;
+		private int[] defs = NONE;
+		/** The register this command stores to, if it only stores to one */
+		private int target = -1;
+		/** Whether this command only stores to {@link #target} */
+		private boolean storesOnly = false;
+		/** Whether this command overwrites {@link #target} completely */
+		private boolean kills = false;
+		/** The register {@link #target} is set to a copy of */
+		private int copySource = -1;
+		/** The players used by the functions this command calls */
+		private int calleePlayers = 0;
+		private boolean removed = false;
+
+		private void setStore(int target, boolean kills) {
+			this.target = target;
+			this.storesOnly = true;
+			this.kills = kills;
+			this.defs = new int[] { target };
+			this.uses = kills ? NONE : defs;
+		}
+	}
+
+	/**
+	 * Where a register, or a group of registers sharing a player, is live.
+	 * Made up of segments from a write to the last read of the written value,
+	 * and the points at which it is written.
+	 */
+	private static class LiveRange {
+		private int[] segmentStarts = new int[2];
+		private int[] segmentEnds = new int[2];
+		private int segmentCount = 0;
+		private int[] defs = new int[2];
+		private int[] defCopySources = new int[2];
+		private int defCount = 0;
+		private int minPlayer = 0;
+
+		private void addSegment(int start, int end) {
+			if (segmentCount == segmentStarts.length) {
+				segmentStarts = Arrays.copyOf(segmentStarts, segmentCount << 1);
+				segmentEnds = Arrays.copyOf(segmentEnds, segmentCount << 1);
+			}
+			segmentStarts[segmentCount] = start;
+			segmentEnds[segmentCount] = end;
+			segmentCount++;
+		}
+
+		private void addDef(int def, int copySource) {
+			if (defCount == defs.length) {
+				defs = Arrays.copyOf(defs, defCount << 1);
+				defCopySources = Arrays.copyOf(defCopySources, defCount << 1);
+			}
+			defs[defCount] = def;
+			defCopySources[defCount] = copySource;
+			defCount++;
+		}
+
+		/**
+		 * Puts the segments and definitions in ascending order, after they
+		 * were added walking backwards
+		 */
+		private void reverse() {
+			reverse(segmentStarts, segmentCount);
+			reverse(segmentEnds, segmentCount);
+			reverse(defs, defCount);
+			reverse(defCopySources, defCount);
+		}
+
+		private static void reverse(int[] array, int length) {
+			for (int i = 0, j = length - 1; i < j; i++, j--) {
+				int temp = array[i];
+				array[i] = array[j];
+				array[j] = temp;
+			}
+		}
+
+		private int getFirstDef() {
+			return defCount == 0 ? Integer.MAX_VALUE : defs[0];
+		}
+
+		/**
+		 * Whether the value is still needed after the given command, and was
+		 * written before it
+		 */
+		private boolean isLiveAcross(int point) {
+			int segment = findSegment(point);
+			return segment >= 0 && segmentStarts[segment] < point && point < segmentEnds[segment];
+		}
+
+		/**
+		 * Finds the last segment starting at or before the given point
+		 */
+		private int findSegment(int point) {
+			int low = 0;
+			int high = segmentCount - 1;
+			int found = -1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (segmentStarts[mid] <= point) {
+					found = mid;
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return found;
+		}
+
+		/**
+		 * Whether any definition in this range happens while the other range
+		 * is live, other than copies from the other range
+		 */
+		private boolean hasDefDuring(LiveRange other, int[] parents, int otherRoot) {
+			int segment = -1;
+			for (int i = 0; i < defCount; i++) {
+				int def = defs[i];
+				while (segment + 1 < other.segmentCount && other.segmentStarts[segment + 1] <= def) {
+					segment++;
+				}
+				if (segment >= 0 && def < other.segmentEnds[segment]) {
+					if (defCopySources[i] < 0 || find(parents, defCopySources[i]) != otherRoot) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Merges two ranges which don't interfere. Overlapping segments, where
+		 * one register is a copy of the other, are joined.
+		 */
+		private static LiveRange merge(LiveRange a, LiveRange b) {
+			LiveRange merged = new LiveRange();
+			merged.minPlayer = Math.max(a.minPlayer, b.minPlayer);
+			int i = 0;
+			int j = 0;
+			while (i < a.segmentCount || j < b.segmentCount) {
+				int start;
+				int end;
+				if (j == b.segmentCount || (i < a.segmentCount && a.segmentStarts[i] <= b.segmentStarts[j])) {
+					start = a.segmentStarts[i];
+					end = a.segmentEnds[i++];
+				} else {
+					start = b.segmentStarts[j];
+					end = b.segmentEnds[j++];
+				}
+				if (merged.segmentCount != 0 && start < merged.segmentEnds[merged.segmentCount - 1]) {
+					merged.segmentEnds[merged.segmentCount - 1] = Math.max(end,
+							merged.segmentEnds[merged.segmentCount - 1]);
+				} else {
+					merged.addSegment(start, end);
+				}
+			}
+			i = 0;
+			j = 0;
+			while (i < a.defCount || j < b.defCount) {
+				if (j == b.defCount || (i < a.defCount && a.defs[i] <= b.defs[j])) {
+					merged.addDef(a.defs[i], a.defCopySources[i++]);
+				} else {
+					merged.addDef(b.defs[j], b.defCopySources[j++]);
+				}
+			}
+			return merged;
+		}
+	}
+
+}
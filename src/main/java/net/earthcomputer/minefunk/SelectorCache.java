@@ -0,0 +1,268 @@
+package net.earthcomputer.minefunk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Saves re-evaluating an <tt>@e</tt> selector which is used by several
+ * commands in a row within a function. The entities matched by the selector
+ * are tagged once, the commands use a selector for the tag instead, and the
+ * tag is removed again afterwards. Minecraft still checks every entity for
+ * the tag, but that is much cheaper than checking scores or distances.
+ * <p>
+ * This is only done while the entities matched by the selector can't change,
+ * which is while the commands in between are known not to kill, summon or
+ * move entities, or to change their scores, tags or teams if the selector
+ * checks those. Commands which can drop items, such as <tt>give</tt> with a
+ * full inventory or <tt>setblock</tt> in <tt>destroy</tt> mode, summon item
+ * entities.
+ * 
+ * @author Earthcomputer
+ */
+public class SelectorCache {
+
+	/**
+	 * The prefix of the tags given to the entities matched by a selector
+	 */
+	public static final String TAG_PREFIX = "minefunk.sel";
+
+	private static final Pattern SELECTOR = Pattern.compile("@e\\[([^\\]]*)\\]");
+	/**
+	 * Commands which can't change which entities any selector matches. This
+	 * doesn't include <tt>effect</tt>, since effects such as
+	 * <tt>instant_damage</tt> can kill entities.
+	 */
+	private static final Set<String> SAFE_COMMANDS = new HashSet<>(Arrays.asList("say", "tell", "msg", "w",
+			"tellraw", "title", "playsound", "stopsound", "particle", "gamerule", "weather", "time", "difficulty",
+			"setworldspawn", "spawnpoint", "recipe", "testfor", "testforblock", "testforblocks", "enchant",
+			"replaceitem", "clear"));
+	/**
+	 * Commands which can't change which entities any selector matches, apart
+	 * from summoning item entities
+	 */
+	private static final Set<String> ITEM_DROPPING_COMMANDS = new HashSet<>(Arrays.asList("give", "setblock",
+			"fill", "clone"));
+
+	private int minUses;
+
+	/**
+	 * Creates a selector cache
+	 * 
+	 * @param minUses
+	 *            - the number of commands in a row which must use a selector
+	 *            for it to be cached
+	 */
+	public SelectorCache(int minUses) {
+		this.minUses = Math.max(2, minUses);
+	}
+
+	/**
+	 * Caches the selectors used several times in a row in the given commands
+	 * 
+	 * @param commands
+	 *            - the commands of a function, which are modified in place
+	 * @return The number of selector evaluations saved
+	 */
+	public int apply(List<String> commands) {
+		Map<String, Run> openRuns = new LinkedHashMap<>();
+		List<Run> runs = new ArrayList<>();
+		for (int i = 0; i < commands.size(); i++) {
+			String command = commands.get(i);
+			for (String selector : getSelectorsEvaluated(command)) {
+				openRuns.computeIfAbsent(selector, k -> new Run(selector)).uses.add(i);
+			}
+			openRuns.values().removeIf(run -> {
+				if (canChangeMatches(command, run.selector)) {
+					runs.add(run);
+					return true;
+				}
+				return false;
+			});
+		}
+		runs.addAll(openRuns.values());
+		runs.removeIf(run -> run.uses.size() < minUses || !isWorthCaching(run.selector));
+		if (runs.isEmpty()) {
+			return 0;
+		}
+		runs.sort(Comparator.comparingInt(run -> run.uses.get(0)));
+
+		// Work out which commands to add before and after each command,
+		// giving each run its own tag so that overlapping runs don't clash
+		Map<Integer, List<String>> insertedBefore = new HashMap<>();
+		Map<Integer, List<String>> insertedAfter = new HashMap<>();
+		int saved = 0;
+		for (int runIndex = 0; runIndex < runs.size(); runIndex++) {
+			Run run = runs.get(runIndex);
+			String tag = TAG_PREFIX + runIndex;
+			String tagSelector = "@e[tag=" + tag + "]";
+			int first = run.uses.get(0);
+			int last = run.uses.get(run.uses.size() - 1);
+			insertedBefore.computeIfAbsent(first, k -> new ArrayList<>())
+					.add("scoreboard players tag " + run.selector + " add " + tag);
+			insertedAfter.computeIfAbsent(last, k -> new ArrayList<>())
+					.add("scoreboard players tag " + tagSelector + " remove " + tag);
+			for (int use : run.uses) {
+				commands.set(use, replaceSelectorsEvaluated(commands.get(use), run.selector, tagSelector));
+			}
+			saved += run.uses.size() - 1;
+		}
+		List<String> newCommands = new ArrayList<>(commands.size() + runs.size() * 2);
+		for (int i = 0; i < commands.size(); i++) {
+			newCommands.addAll(insertedBefore.getOrDefault(i, new ArrayList<>()));
+			newCommands.add(commands.get(i));
+			newCommands.addAll(insertedAfter.getOrDefault(i, new ArrayList<>()));
+		}
+		commands.clear();
+		commands.addAll(newCommands);
+		return saved;
+	}
+
+	/**
+	 * Finds the <tt>@e</tt> selectors which the given command evaluates in the
+	 * context of the function. For <tt>execute</tt>, this is only the selector
+	 * of the entities to execute as, since the command it runs is evaluated in
+	 * the context of each of those entities.
+	 * 
+	 * @param command
+	 *            - the command
+	 * @return The selectors evaluated
+	 */
+	private static Set<String> getSelectorsEvaluated(String command) {
+		Set<String> selectors = new LinkedHashSet<>();
+		Matcher matcher = SELECTOR.matcher(getEvaluatedPart(command));
+		while (matcher.find()) {
+			selectors.add(matcher.group());
+		}
+		return selectors;
+	}
+
+	private static String replaceSelectorsEvaluated(String command, String selector, String replacement) {
+		String evaluatedPart = getEvaluatedPart(command);
+		return evaluatedPart.replace(selector, replacement) + command.substring(evaluatedPart.length());
+	}
+
+	private static String getEvaluatedPart(String command) {
+		if (command.startsWith("execute ")) {
+			int selectorEnd = command.indexOf(' ', "execute ".length());
+			return selectorEnd < 0 ? command : command.substring(0, selectorEnd);
+		}
+		return command;
+	}
+
+	/**
+	 * Gets whether the given command could change which entities the given
+	 * selector matches. Selectors without arguments, such as <tt>@a</tt>,
+	 * are treated as having no arguments to check.
+	 * 
+	 * @param command
+	 *            - the command
+	 * @param selector
+	 *            - the selector
+	 * @return Whether the command could change the matches
+	 */
+	static boolean canChangeMatches(String command, String selector) {
+		int nameEnd = command.indexOf(' ');
+		String name = nameEnd < 0 ? command : command.substring(0, nameEnd);
+		if (SAFE_COMMANDS.contains(name)) {
+			return false;
+		}
+		if (ITEM_DROPPING_COMMANDS.contains(name)) {
+			return canMatchItems(selector);
+		}
+		switch (name) {
+		case "scoreboard":
+			// Scoreboard commands can only change scores, tags and teams
+			return hasArgument(selector, "score_", "tag=", "team=");
+		case "tp":
+		case "teleport":
+			// Teleporting only changes the position and rotation of entities,
+			// which also changes which entities are nearest
+			return hasArgument(selector, "x=", "y=", "z=", "dx=", "dy=", "dz=", "r=", "rm=", "rx=", "rxm=", "ry=",
+					"rym=", "c=");
+		case "xp":
+			return hasArgument(selector, "l=", "lm=");
+		case "gamemode":
+			return hasArgument(selector, "m=");
+		default:
+			return true;
+		}
+	}
+
+	private static boolean hasArgument(String selector, String... prefixes) {
+		for (String argument : getArguments(selector)) {
+			for (String prefix : prefixes) {
+				if (argument.startsWith(prefix)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean canMatchItems(String selector) {
+		for (String argument : getArguments(selector)) {
+			if (argument.startsWith("type=")) {
+				String type = argument.substring("type=".length());
+				boolean inverted = type.startsWith("!");
+				if (inverted) {
+					type = type.substring(1);
+				}
+				return inverted != (type.equals("item") || type.equals("minecraft:item"));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets whether the given selector is expensive enough to be worth
+	 * replacing with a tag. Selectors which only check the type and tags of
+	 * entities are about as cheap as checking a tag.
+	 * 
+	 * @param selector
+	 *            - the selector
+	 * @return Whether the selector is worth caching
+	 */
+	private static boolean isWorthCaching(String selector) {
+		for (String argument : getArguments(selector)) {
+			if (!argument.startsWith("type=") && !argument.startsWith("tag=")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String[] getArguments(String selector) {
+		Matcher matcher = SELECTOR.matcher(selector);
+		if (!matcher.matches() || matcher.group(1).trim().isEmpty()) {
+			return new String[0];
+		}
+		String[] arguments = matcher.group(1).split(",");
+		for (int i = 0; i < arguments.length; i++) {
+			arguments[i] = arguments[i].trim();
+		}
+		return arguments;
+	}
+
+	/**
+	 * A run of commands in which a selector always matches the same entities
+	 */
+	private static class Run {
+		private String selector;
+		private List<Integer> uses = new ArrayList<>();
+
+		public Run(String selector) {
+			this.selector = selector;
+		}
+	}
+
+}
@@ -0,0 +1,232 @@
+package net.earthcomputer.minefunk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites the selectors in generated commands into a normal form, which is
+ * equivalent to the original selector. The rewrites are:
+ * <table>
+ * <tr>
+ * <th>Before</th>
+ * <th>After</th>
+ * <th>Why they are equivalent</th>
+ * </tr>
+ * <tr>
+ * <td><tt>@p[c=1,...]</tt></td>
+ * <td><tt>@p[...]</tt></td>
+ * <td>The count of <tt>@p</tt> is 1 by default</td>
+ * </tr>
+ * <tr>
+ * <td><tt>@x[]</tt></td>
+ * <td><tt>@x</tt></td>
+ * <td>There are no filters either way</td>
+ * </tr>
+ * <tr>
+ * <td><tt>@x[score_o=3,type=cow]</tt></td>
+ * <td><tt>@x[type=cow,score_o=3]</tt></td>
+ * <td>The arguments are sorted with the cheapest filters first. Minecraft
+ * always applies the filters in the same order whichever order they are
+ * written in, so this only serves to make equal selectors look the same for
+ * the passes which compare commands.</td>
+ * </tr>
+ * <tr>
+ * <td><tt>function f if @x[score_o_min=5,score_o=3]</tt></td>
+ * <td>Removed</td>
+ * <td>The selector has an empty range so can't match anything. The same goes
+ * for <tt>execute</tt> commands, and for the <tt>l</tt>/<tt>lm</tt> and
+ * <tt>r</tt>/<tt>rm</tt> ranges. Such ranges are usually the result of
+ * wildcards which have been replaced with constants.</td>
+ * </tr>
+ * <tr>
+ * <td><tt>function f unless @x[score_o_min=5,score_o=3]</tt></td>
+ * <td><tt>function f</tt></td>
+ * <td>The selector can't match anything</td>
+ * </tr>
+ * </table>
+ * <tt>@r</tt> selectors are only sorted, since they pick at random. Rotation
+ * ranges are never treated as empty since they may wrap around.
+ * <p>
+ * <tt>@e[type=player]</tt> is not rewritten to <tt>@a</tt>, and
+ * <tt>@a[c=1]</tt> is not rewritten to <tt>@p</tt>, since <tt>@a</tt> also
+ * matches dead players while <tt>@e</tt> and <tt>@p</tt> don't.
+ * 
+ * @author Earthcomputer
+ */
+public class SelectorNormalizer {
+
+	private static final Pattern SELECTOR = Pattern.compile("@([aeprs])(?:\\[([^\\]]*)\\])?");
+	/**
+	 * The order of the arguments in a normalized selector. Arguments which
+	 * aren't in this list, such as scores, go at the end, before the count.
+	 */
+	private static final List<String> ARGUMENT_ORDER = Arrays.asList("type", "tag", "team", "name", "m", "l", "lm",
+			"x", "y", "z", "dx", "dy", "dz", "r", "rm", "rx", "rxm", "ry", "rym");
+
+	/**
+	 * Normalizes the selectors in the given commands
+	 * 
+	 * @param commands
+	 *            - the commands of a function, which are modified in place
+	 * @return The number of commands changed or removed
+	 */
+	public int apply(List<String> commands) {
+		int changedCount = 0;
+		List<String> newCommands = new ArrayList<>(commands.size());
+		for (String command : commands) {
+			String newCommand = normalizeCommand(command);
+			if (!newCommand.equals(command)) {
+				changedCount++;
+			}
+			if (!newCommand.isEmpty()) {
+				newCommands.add(newCommand);
+			}
+		}
+		commands.clear();
+		commands.addAll(newCommands);
+		return changedCount;
+	}
+
+	/**
+	 * Normalizes the selectors in the given command
+	 * 
+	 * @param command
+	 *            - the command
+	 * @return The normalized command, or an empty string if the command does
+	 *         nothing
+	 */
+	private static String normalizeCommand(String command) {
+		// Check for selectors which can't match anything where it is known
+		// what that means
+		String[] words = command.split(" ");
+		if (words.length == 4 && words[0].equals("function") && isEmptySelector(words[3])) {
+			if (words[2].equals("if")) {
+				return "";
+			} else if (words[2].equals("unless")) {
+				return "function " + words[1];
+			}
+		}
+		if (words.length >= 2 && words[0].equals("execute") && isEmptySelector(words[1])) {
+			return "";
+		}
+
+		Matcher matcher = SELECTOR.matcher(command);
+		StringBuffer result = new StringBuffer(command.length());
+		while (matcher.find()) {
+			matcher.appendReplacement(result, Matcher.quoteReplacement(normalizeSelector(matcher.group(1).charAt(0),
+					matcher.group(2))));
+		}
+		matcher.appendTail(result);
+		return result.toString();
+	}
+
+	private static String normalizeSelector(char type, String argumentString) {
+		Map<String, String> arguments = parseArguments(argumentString);
+		if (arguments == null) {
+			// Leave selectors which can't be parsed alone
+			return "@" + type + (argumentString == null ? "" : "[" + argumentString + "]");
+		}
+		if (type == 'p' && "1".equals(arguments.get("c"))) {
+			arguments.remove("c");
+		}
+
+		if (arguments.isEmpty()) {
+			return "@" + type;
+		}
+		List<Map.Entry<String, String>> sortedArguments = new ArrayList<>(arguments.entrySet());
+		sortedArguments.sort(Comparator.comparingInt(argument -> getOrder(argument.getKey())));
+		StringBuilder selector = new StringBuilder("@").append(type).append('[');
+		for (int i = 0; i < sortedArguments.size(); i++) {
+			if (i != 0) {
+				selector.append(',');
+			}
+			selector.append(sortedArguments.get(i).getKey()).append('=').append(sortedArguments.get(i).getValue());
+		}
+		return selector.append(']').toString();
+	}
+
+	private static int getOrder(String key) {
+		int order = ARGUMENT_ORDER.indexOf(key);
+		if (order >= 0) {
+			return order;
+		}
+		return key.equals("c") ? ARGUMENT_ORDER.size() + 1 : ARGUMENT_ORDER.size();
+	}
+
+	/**
+	 * Gets whether the given selector has a range argument with a minimum
+	 * greater than its maximum, so that it can't match any entities
+	 * 
+	 * @param selector
+	 *            - the selector
+	 * @return Whether the selector is known to match nothing
+	 */
+	private static boolean isEmptySelector(String selector) {
+		Matcher matcher = SELECTOR.matcher(selector);
+		if (!matcher.matches() || matcher.group(2) == null) {
+			return false;
+		}
+		Map<String, String> arguments = parseArguments(matcher.group(2));
+		if (arguments == null) {
+			return false;
+		}
+		if (isEmptyRange(arguments.get("lm"), arguments.get("l"))
+				|| isEmptyRange(arguments.get("rm"), arguments.get("r"))) {
+			return true;
+		}
+		for (String key : arguments.keySet()) {
+			if (key.startsWith("score_") && key.endsWith("_min")) {
+				String maxKey = key.substring(0, key.length() - "_min".length());
+				if (isEmptyRange(arguments.get(key), arguments.get(maxKey))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean isEmptyRange(String min, String max) {
+		if (min == null || max == null) {
+			return false;
+		}
+		try {
+			return Integer.parseInt(min) > Integer.parseInt(max);
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Parses the arguments of a selector
+	 * 
+	 * @param argumentString
+	 *            - the text between the square brackets, or <tt>null</tt> if
+	 *            there are no square brackets
+	 * @return The arguments in the order they are written, or <tt>null</tt> if
+	 *         they can't be parsed or an argument is repeated
+	 */
+	private static Map<String, String> parseArguments(String argumentString) {
+		Map<String, String> arguments = new LinkedHashMap<>();
+		if (argumentString == null || argumentString.trim().isEmpty()) {
+			return arguments;
+		}
+		for (String argument : argumentString.split(",", -1)) {
+			int equalsIndex = argument.indexOf('=');
+			if (equalsIndex <= 0) {
+				return null;
+			}
+			String key = argument.substring(0, equalsIndex).trim();
+			if (arguments.put(key, argument.substring(equalsIndex + 1).trim()) != null) {
+				return null;
+			}
+		}
+		return arguments;
+	}
+
+}
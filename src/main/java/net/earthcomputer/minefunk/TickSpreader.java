@@ -0,0 +1,181 @@
+package net.earthcomputer.minefunk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Splits the commands of functions with the <tt>spread</tt> modifier into
+ * parts which are run one per tick, so that a long function doesn't cause a
+ * lag spike on the tick it runs in.
+ * <p>
+ * Calling a spread function starts it, unless it is already running. While it
+ * is running, its progress is stored in the score of a marker armor stand,
+ * which is summoned where the function was called and killed once the last
+ * part has run. The tick function, which must be run every tick (e.g. using
+ * the <tt>gameLoopFunction</tt> game rule), makes the marker of each spread
+ * function which is running run its next part. The commands are only cut
+ * where no local variable holds a value, so the parts may not be exactly the
+ * same size.
+ * <p>
+ * Since the parts are run by the marker, relative coordinates are relative to
+ * where the function was called, but <tt>@s</tt> would refer to the marker
+ * rather than whatever called the function, so spread functions can't use it
+ * (see {@link #usesExecutor(List)}).
+ * <p>
+ * If the chunk containing the marker is unloaded, the function pauses and
+ * counts as not running, so calling it again starts a second run. Each run has
+ * its own marker, so once the chunk is loaded again both runs carry on
+ * separately, as if the function had been called twice.
+ * 
+ * @author Earthcomputer
+ */
+public class TickSpreader {
+
+	/**
+	 * The default final function name of the tick function
+	 */
+	public static final String DEFAULT_TICK_FUNCTION = "minefunk:tick";
+
+	private static final Pattern EXECUTOR = Pattern.compile("@s\\b");
+
+	private Map<String, List<String>> commandLists;
+	private String objective;
+	private List<String> tickCommands = new ArrayList<>();
+	private int spreadCount = 0;
+
+	/**
+	 * Creates a tick spreader
+	 * 
+	 * @param commandLists
+	 *            - the generated commands of each function, by final function
+	 *            name, which are modified in place
+	 * @param objective
+	 *            - the scoreboard objective in which the progress of spread
+	 *            functions is stored
+	 */
+	public TickSpreader(Map<String, List<String>> commandLists, String objective) {
+		this.commandLists = commandLists;
+		this.objective = objective;
+	}
+
+	/**
+	 * Spreads a function over the given number of ticks. This must be done
+	 * before registers are allocated (see {@link RegisterAllocator}).
+	 * 
+	 * @param funcId
+	 *            - the final function name of the function
+	 * @param ticks
+	 *            - the number of ticks to spread the function over
+	 */
+	public void spread(String funcId, int ticks) {
+		List<String> commands = commandLists.get(funcId);
+		if (commands == null) {
+			return;
+		}
+		int[] cutPoints = findCutPoints(commands, ticks);
+
+		int nameStart = Math.max(funcId.lastIndexOf(':'), funcId.lastIndexOf('/')) + 1;
+		String generatedPrefix = funcId.substring(0, nameStart) + "0spread_" + funcId.substring(nameStart) + "_";
+		String tag = funcId.replace(':', '.').replace('/', '.') + ".spread";
+		String marker = "@e[type=armor_stand,tag=" + tag;
+		String anyMarker = marker + "]";
+
+		// Run one part per tick, checking the last part first so that a part
+		// moving on to the next one doesn't cause it to run in the same tick.
+		// Each marker runs its own part, so that separate runs don't affect
+		// each other's progress.
+		List<String> dispatchCommands = new ArrayList<>(ticks);
+		for (int part = ticks; part >= 1; part--) {
+			List<String> partCommands = new ArrayList<>(commands.subList(cutPoints[part - 1], cutPoints[part]));
+			if (part == ticks) {
+				partCommands.add("kill @s");
+			} else {
+				partCommands.add("scoreboard players add @s " + objective + " 1");
+			}
+			commandLists.put(generatedPrefix + part, partCommands);
+			dispatchCommands.add("execute " + marker + ",score_" + objective + "_min=" + part + ",score_" + objective
+					+ "=" + part + "] ~ ~ ~ function " + generatedPrefix + part);
+		}
+		commandLists.put(generatedPrefix + "tick", dispatchCommands);
+		tickCommands.add("function " + generatedPrefix + "tick if " + anyMarker);
+
+		List<String> startCommands = new ArrayList<>(2);
+		startCommands.add("summon armor_stand ~ ~ ~ {Tags:[\"" + tag
+				+ "\"],Marker:1b,Invisible:1b,NoGravity:1b,Invulnerable:1b}");
+		startCommands.add("scoreboard players set " + anyMarker + " " + objective + " 1");
+		commandLists.put(generatedPrefix + "start", startCommands);
+		commands.clear();
+		commands.add("function " + generatedPrefix + "start unless " + anyMarker);
+		spreadCount++;
+	}
+
+	/**
+	 * Gets whether the given commands refer to <tt>@s</tt>, which would refer
+	 * to the marker armor stand if the commands were spread over several ticks
+	 * 
+	 * @param commands
+	 *            - the commands of a function
+	 * @return Whether the commands use <tt>@s</tt>
+	 */
+	public static boolean usesExecutor(List<String> commands) {
+		for (String command : commands) {
+			if (EXECUTOR.matcher(command).find()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds where to cut the given commands so that the parts are as close to
+	 * the same size as possible, only cutting where no local variable holds a
+	 * value
+	 * 
+	 * @param commands
+	 *            - the commands
+	 * @param parts
+	 *            - the number of parts
+	 * @return An array of size <tt>parts + 1</tt> containing the index of the
+	 *         first command of each part, followed by the number of commands
+	 */
+	private static int[] findCutPoints(List<String> commands, int parts) {
+		boolean[] freePoints = RegisterAllocator.findRegisterFreePoints(commands);
+		int[] cutPoints = new int[parts + 1];
+		cutPoints[parts] = commands.size();
+		for (int part = 1; part < parts; part++) {
+			double ideal = (double) commands.size() * part / parts;
+			int best = commands.size();
+			for (int point = cutPoints[part - 1]; point < commands.size(); point++) {
+				if (point - ideal >= Math.abs(best - ideal)) {
+					break;
+				}
+				if (freePoints[point] && Math.abs(point - ideal) < Math.abs(best - ideal)) {
+					best = point;
+				}
+			}
+			cutPoints[part] = best;
+		}
+		return cutPoints;
+	}
+
+	/**
+	 * Gets the commands of the tick function
+	 * 
+	 * @return The commands which must be run every tick
+	 */
+	public List<String> getTickCommands() {
+		return tickCommands;
+	}
+
+	/**
+	 * Gets the number of functions which have been spread over several ticks
+	 * 
+	 * @return The number of spread functions
+	 */
+	public int getSpreadCount() {
+		return spreadCount;
+	}
+
+}
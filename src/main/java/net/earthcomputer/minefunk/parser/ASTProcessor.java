@@ -2,7 +2,6 @@ package net.earthcomputer.minefunk.parser;
 
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import net.earthcomputer.minefunk.CallGraphAnalyzer;
 
@@ -57,7 +56,7 @@ public class ASTProcessor {
 	 * Adds to a call graph from an AST tree
 	 * 
 	 * @param callGraph
-	 *            - the call graph
+	 *            - the builder of the call graph
 	 * @param root
 	 *            - the AST tree
 	 * @param index
@@ -65,9 +64,8 @@ public class ASTProcessor {
 	 * @param exceptions
 	 *            - a list of compiler errors to add to
 	 */
-	public static void addToCallGraph(
-			Map<CallGraphVisitor.CallGraphNode, Set<CallGraphVisitor.CallGraphNode>> callGraph, ASTRoot root,
-			Index index, List<ParseException> exceptions) {
+	public static void addToCallGraph(CallGraph.Builder callGraph, ASTRoot root, Index index,
+			List<ParseException> exceptions) {
 		CallGraphVisitor visitor = new CallGraphVisitor();
 		root.jjtAccept(visitor, new CallGraphVisitor.Data(index, exceptions, callGraph));
 	}
@@ -75,11 +73,13 @@ public class ASTProcessor {
 	/**
 	 * Checks an AST tree for cyclic variable and inline function references,
 	 * using a call graph having already been obtained using
-	 * {@link #addToCallGraph(Map, ASTRoot, Index, List)}
+	 * {@link #addToCallGraph(CallGraph.Builder, ASTRoot, Index, List)}
 	 * 
-	 * @param cycleSearchResults
-	 *            - the call graph cycle analysis results (see
-	 *            {@link CallGraphAnalyzer}
+	 * @param callGraph
+	 *            - the call graph, for the numbering of its nodes
+	 * @param cycles
+	 *            - which nodes of the call graph are part of a cycle, see
+	 *            {@link Index#findExpansionComponents(CallGraph)}
 	 * @param root
 	 *            - the AST tree
 	 * @param index
@@ -87,11 +87,29 @@ public class ASTProcessor {
 	 * @param exceptions
 	 *            - a list of compiler errors to add to
 	 */
-	public static void checkForCyclicReferences(
-			CallGraphAnalyzer.StronglyConnectedComponentsFinder.Result<CallGraphVisitor.CallGraphNode> cycleSearchResults,
+	public static void checkForCyclicReferences(CallGraph callGraph, CallGraphAnalyzer.ConnectedComponentQuery cycles,
 			ASTRoot root, Index index, List<ParseException> exceptions) {
 		root.jjtAccept(new CyclicReferencesFinderVisitor(),
-				new CyclicReferencesFinderVisitor.Data(index, exceptions, cycleSearchResults));
+				new CyclicReferencesFinderVisitor.Data(index, exceptions, callGraph, cycles));
+	}
+
+	/**
+	 * Checks that no function in an AST tree expands to more than the given
+	 * number of commands, using the sizes computed by
+	 * {@link Index#computeExpansionSizes}, so that code generation
+	 * doesn't run out of memory
+	 * 
+	 * @param root
+	 *            - the AST tree
+	 * @param index
+	 *            - the index
+	 * @param maxSize
+	 *            - the maximum number of commands
+	 * @param exceptions
+	 *            - a list of compiler errors to add to
+	 */
+	public static void checkExpansionSizes(ASTRoot root, Index index, long maxSize, List<ParseException> exceptions) {
+		root.jjtAccept(new ExpansionSizeVisitor(), new ExpansionSizeVisitor.Data(index, maxSize, exceptions));
 	}
 
 	/**
@@ -57,6 +57,98 @@ public class ASTUtil {
 		return stmt.children[0];
 	}
 
+	/**
+	 * Gets the <tt>ASTType</tt> representing the variable assigned to by an
+	 * assignment statement
+	 * 
+	 * @param stmt
+	 *            - the assignment statement
+	 * @return The variable assigned to
+	 */
+	public static ASTType getVariableNode(ASTAssignStmt stmt) {
+		return (ASTType) stmt.children[0];
+	}
+
+	/**
+	 * Gets the variable assigned to by an assignment statement
+	 * 
+	 * @param stmt
+	 *            - the assignment statement
+	 * @return The variable assigned to
+	 */
+	public static Type getVariable(ASTAssignStmt stmt) {
+		return getType(getVariableNode(stmt));
+	}
+
+	/**
+	 * Gets the operator of an assignment statement, e.g. <tt>=</tt> or
+	 * <tt>+=</tt>
+	 * 
+	 * @param stmt
+	 *            - the assignment statement
+	 * @return The operator
+	 */
+	public static String getOperator(ASTAssignStmt stmt) {
+		return (String) getNodeValue(stmt).getValue();
+	}
+
+	/**
+	 * Gets the expression on the right hand side of an assignment statement
+	 * 
+	 * @param stmt
+	 *            - the assignment statement
+	 * @return The expression
+	 */
+	public static Node getExpression(ASTAssignStmt stmt) {
+		return stmt.children[1];
+	}
+
+	/**
+	 * Gets the declaration of the loop variable of a for statement
+	 * 
+	 * @param stmt
+	 *            - the for statement
+	 * @return The loop variable
+	 */
+	public static ASTVarDeclStmt getLoopVariable(ASTForStmt stmt) {
+		return (ASTVarDeclStmt) stmt.children[0];
+	}
+
+	/**
+	 * Gets whether a for statement loops over a range of ints, rather than a
+	 * list of values
+	 * 
+	 * @param stmt
+	 *            - the for statement
+	 * @return Whether the for statement loops over a range
+	 */
+	public static boolean isRange(ASTForStmt stmt) {
+		return (Boolean) getNodeValue(stmt).getValue();
+	}
+
+	/**
+	 * Gets the expressions giving the values a for statement loops over. For a
+	 * range, these are the first and last value.
+	 * 
+	 * @param stmt
+	 *            - the for statement
+	 * @return The value expressions
+	 */
+	public static Node[] getValues(ASTForStmt stmt) {
+		return Arrays.copyOfRange(stmt.children, 1, stmt.children.length - 1);
+	}
+
+	/**
+	 * Gets the statement run by a for statement for each value
+	 * 
+	 * @param stmt
+	 *            - the for statement
+	 * @return The body
+	 */
+	public static Node getBody(ASTForStmt stmt) {
+		return stmt.children[stmt.children.length - 1];
+	}
+
 	/**
 	 * Gets the <tt>ASTModifiers</tt> of a function
 	 * 
@@ -79,6 +171,32 @@ public class ASTUtil {
 		return getModifiers(getModifiersNode(function));
 	}
 
+	/**
+	 * Gets the number of ticks a function with the <tt>spread</tt> modifier is
+	 * spread over
+	 * 
+	 * @param function
+	 *            - the function
+	 * @return The number of ticks, or 0 if the function isn't spread
+	 */
+	public static int getSpreadTicks(ASTFunction function) {
+		Integer ticks = getNodeValue(getModifiersNode(function)).getUserData(Keys.SPREAD_TICKS);
+		return ticks == null ? 0 : ticks;
+	}
+
+	/**
+	 * Gets how many ticks apart a function with the <tt>every</tt> modifier is
+	 * run
+	 * 
+	 * @param function
+	 *            - the function
+	 * @return The period in ticks, or 0 if the function isn't run periodically
+	 */
+	public static int getPeriod(ASTFunction function) {
+		Integer period = getNodeValue(getModifiersNode(function)).getUserData(Keys.PERIOD);
+		return period == null ? 0 : period;
+	}
+
 	/**
 	 * Gets the return type of a function as an <tt>ASTType</tt>
 	 * 
@@ -253,6 +371,62 @@ public class ASTUtil {
 		return (String) getNodeValue(expr).getValue();
 	}
 
+	/**
+	 * Gets whether a switch case is the default case, which has no value
+	 * 
+	 * @param switchCase
+	 *            - the switch case
+	 * @return Whether the switch case is the default case
+	 */
+	public static boolean isDefault(ASTSwitchCase switchCase) {
+		return switchCase.children.length == 1;
+	}
+
+	/**
+	 * Gets the expression giving the value of a switch case
+	 * 
+	 * @param switchCase
+	 *            - the switch case, which must not be the default case
+	 * @return The value expression
+	 */
+	public static Node getValue(ASTSwitchCase switchCase) {
+		return switchCase.children[0];
+	}
+
+	/**
+	 * Gets the statement run by a switch case
+	 * 
+	 * @param switchCase
+	 *            - the switch case
+	 * @return The statement
+	 */
+	public static Node getBody(ASTSwitchCase switchCase) {
+		return switchCase.children[switchCase.children.length - 1];
+	}
+
+	/**
+	 * Gets the expression giving the scoreboard objective which a switch
+	 * statement switches on
+	 * 
+	 * @param stmt
+	 *            - the switch statement
+	 * @return The objective expression
+	 */
+	public static Node getObjective(ASTSwitchStmt stmt) {
+		return stmt.children[0];
+	}
+
+	/**
+	 * Gets the cases of a switch statement
+	 * 
+	 * @param stmt
+	 *            - the switch statement
+	 * @return The cases
+	 */
+	public static ASTSwitchCase[] getCases(ASTSwitchStmt stmt) {
+		return Arrays.copyOfRange(stmt.children, 1, stmt.children.length, ASTSwitchCase[].class);
+	}
+
 	/**
 	 * Gets the type represented by an <tt>ASTType</tt>
 	 * 
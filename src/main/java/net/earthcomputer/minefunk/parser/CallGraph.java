@@ -0,0 +1,319 @@
+package net.earthcomputer.minefunk.parser;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import net.earthcomputer.minefunk.CallGraphAnalyzer;
+
+/**
+ * A call graph of all the variables and functions in the program, stored in
+ * compressed sparse row format. Each variable and function is a node, numbered
+ * so that the variables come first (in order of variable ID) followed by the
+ * functions (in order of function ID). An edge goes from a variable or function
+ * to each variable or function it references. Both the outgoing and incoming
+ * edges of each node are stored, so the graph can be walked in either
+ * direction.
+ * 
+ * @author Earthcomputer
+ */
+public class CallGraph {
+
+	private int variableCount;
+	private int functionCount;
+	private int[] offsets;
+	private int[] targets;
+	private int[] reverseOffsets;
+	private int[] reverseTargets;
+	private CallGraphAnalyzer.Components components;
+
+	private CallGraph(int variableCount, int functionCount, int[] offsets, int[] targets) {
+		this.variableCount = variableCount;
+		this.functionCount = functionCount;
+		this.offsets = offsets;
+		this.targets = targets;
+
+		// Build the reverse edges with a counting sort on the targets
+		int nodeCount = getNodeCount();
+		reverseOffsets = new int[nodeCount + 1];
+		for (int target : targets) {
+			reverseOffsets[target + 1]++;
+		}
+		for (int node = 0; node < nodeCount; node++) {
+			reverseOffsets[node + 1] += reverseOffsets[node];
+		}
+		reverseTargets = new int[targets.length];
+		int[] nextReverseEdges = Arrays.copyOf(reverseOffsets, nodeCount);
+		for (int node = 0; node < nodeCount; node++) {
+			for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+				reverseTargets[nextReverseEdges[targets[edge]]++] = node;
+			}
+		}
+	}
+
+	/**
+	 * Gets the total number of nodes in this call graph
+	 * 
+	 * @return The number of nodes
+	 */
+	public int getNodeCount() {
+		return variableCount + functionCount;
+	}
+
+	/**
+	 * Gets the node representing the variable with the given ID
+	 * 
+	 * @param variableId
+	 *            - the variable ID
+	 * @return The node
+	 */
+	public int getVariableNode(int variableId) {
+		return variableId;
+	}
+
+	/**
+	 * Gets the node representing the function with the given ID
+	 * 
+	 * @param functionId
+	 *            - the function ID
+	 * @return The node
+	 */
+	public int getFunctionNode(int functionId) {
+		return variableCount + functionId;
+	}
+
+	/**
+	 * Gets whether the given node represents a variable, as opposed to a
+	 * function
+	 * 
+	 * @param node
+	 *            - the node
+	 * @return Whether the node is a variable
+	 */
+	public boolean isVariable(int node) {
+		return node < variableCount;
+	}
+
+	/**
+	 * Gets the variable or function ID of the given node
+	 * 
+	 * @param node
+	 *            - the node
+	 * @return The variable ID if the node is a variable, otherwise the
+	 *         function ID
+	 */
+	public int getId(int node) {
+		return node < variableCount ? node : node - variableCount;
+	}
+
+	/**
+	 * Gets the number of variables and functions the given node references
+	 * 
+	 * @param node
+	 *            - the node
+	 * @return The number of outgoing edges
+	 */
+	public int getOutDegree(int node) {
+		return offsets[node + 1] - offsets[node];
+	}
+
+	/**
+	 * Gets a variable or function referenced by the given node
+	 * 
+	 * @param node
+	 *            - the node
+	 * @param i
+	 *            - the index of the outgoing edge, between 0 and
+	 *            {@link #getOutDegree(int)}
+	 * @return The referenced node
+	 */
+	public int getCallee(int node, int i) {
+		return targets[offsets[node] + i];
+	}
+
+	/**
+	 * Gets the number of variables and functions which reference the given
+	 * node
+	 * 
+	 * @param node
+	 *            - the node
+	 * @return The number of incoming edges
+	 */
+	public int getInDegree(int node) {
+		return reverseOffsets[node + 1] - reverseOffsets[node];
+	}
+
+	/**
+	 * Gets a variable or function which references the given node
+	 * 
+	 * @param node
+	 *            - the node
+	 * @param i
+	 *            - the index of the incoming edge, between 0 and
+	 *            {@link #getInDegree(int)}
+	 * @return The referencing node
+	 */
+	public int getCaller(int node, int i) {
+		return reverseTargets[reverseOffsets[node] + i];
+	}
+
+	/**
+	 * Finds all the nodes which are reachable from the given nodes, including
+	 * the given nodes themselves
+	 * 
+	 * @param roots
+	 *            - the nodes to start from
+	 * @return The reachable nodes
+	 */
+	public BitSet getReachable(BitSet roots) {
+		BitSet visited = (BitSet) roots.clone();
+		int[] queue = new int[getNodeCount()];
+		int queueEnd = 0;
+		for (int node = roots.nextSetBit(0); node >= 0; node = roots.nextSetBit(node + 1)) {
+			queue[queueEnd++] = node;
+		}
+		for (int queueStart = 0; queueStart < queueEnd; queueStart++) {
+			int node = queue[queueStart];
+			for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+				int target = targets[edge];
+				if (!visited.get(target)) {
+					visited.set(target);
+					queue[queueEnd++] = target;
+				}
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * Gets the strongly connected components of this call graph, computing
+	 * them if this has not been done yet
+	 * 
+	 * @return The strongly connected components
+	 */
+	public CallGraphAnalyzer.Components getStronglyConnectedComponents() {
+		if (components == null) {
+			components = CallGraphAnalyzer.StronglyConnectedComponentsFinder
+					.findStronglyConnectedComponents(getNodeCount(), offsets, targets);
+		}
+		return components;
+	}
+
+	/**
+	 * Creates a tracker of the strongly connected components of this call
+	 * graph which can be updated as edges are added and removed, without
+	 * searching the whole graph again
+	 * 
+	 * @return The incremental components
+	 */
+	public CallGraphAnalyzer.IncrementalComponents createIncrementalComponents() {
+		return new CallGraphAnalyzer.IncrementalComponents(getNodeCount(), offsets, targets);
+	}
+
+	/**
+	 * Collects edges to build a call graph
+	 * 
+	 * @author Earthcomputer
+	 */
+	public static class Builder {
+		private int variableCount;
+		private int functionCount;
+		private int[] sources = new int[64];
+		private int[] targets = new int[64];
+		private int edgeCount = 0;
+
+		/**
+		 * Creates a call graph builder
+		 * 
+		 * @param variableCount
+		 *            - the number of variable IDs
+		 * @param functionCount
+		 *            - the number of function IDs
+		 */
+		public Builder(int variableCount, int functionCount) {
+			this.variableCount = variableCount;
+			this.functionCount = functionCount;
+		}
+
+		/**
+		 * Gets the node representing the variable with the given ID
+		 * 
+		 * @param variableId
+		 *            - the variable ID
+		 * @return The node
+		 */
+		public int getVariableNode(int variableId) {
+			return variableId;
+		}
+
+		/**
+		 * Gets the node representing the function with the given ID
+		 * 
+		 * @param functionId
+		 *            - the function ID
+		 * @return The node
+		 */
+		public int getFunctionNode(int functionId) {
+			return variableCount + functionId;
+		}
+
+		/**
+		 * Adds an edge from a node to a node it references. Duplicate edges
+		 * are removed when the call graph is built.
+		 * 
+		 * @param source
+		 *            - the referencing node
+		 * @param target
+		 *            - the referenced node
+		 */
+		public void addEdge(int source, int target) {
+			if (edgeCount == sources.length) {
+				sources = Arrays.copyOf(sources, edgeCount << 1);
+				targets = Arrays.copyOf(targets, edgeCount << 1);
+			}
+			sources[edgeCount] = source;
+			targets[edgeCount] = target;
+			edgeCount++;
+		}
+
+		/**
+		 * Builds the call graph
+		 * 
+		 * @return The call graph
+		 */
+		public CallGraph build() {
+			int nodeCount = variableCount + functionCount;
+
+			// Counting sort the edges by source
+			int[] offsets = new int[nodeCount + 1];
+			for (int edge = 0; edge < edgeCount; edge++) {
+				offsets[sources[edge] + 1]++;
+			}
+			for (int node = 0; node < nodeCount; node++) {
+				offsets[node + 1] += offsets[node];
+			}
+			int[] sortedTargets = new int[edgeCount];
+			int[] nextEdges = Arrays.copyOf(offsets, nodeCount);
+			for (int edge = 0; edge < edgeCount; edge++) {
+				sortedTargets[nextEdges[sources[edge]]++] = targets[edge];
+			}
+
+			// Sort the targets of each node and remove duplicates
+			int size = 0;
+			for (int node = 0; node < nodeCount; node++) {
+				int start = offsets[node];
+				int end = offsets[node + 1];
+				Arrays.sort(sortedTargets, start, end);
+				offsets[node] = size;
+				for (int edge = start; edge < end; edge++) {
+					if (edge == start || sortedTargets[edge] != sortedTargets[edge - 1]) {
+						sortedTargets[size++] = sortedTargets[edge];
+					}
+				}
+			}
+			offsets[nodeCount] = size;
+
+			return new CallGraph(variableCount, functionCount, offsets, Arrays.copyOf(sortedTargets, size));
+		}
+	}
+
+}
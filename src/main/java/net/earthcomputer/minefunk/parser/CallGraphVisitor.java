@@ -2,10 +2,7 @@ package net.earthcomputer.minefunk.parser;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * This AST visitor adds from an AST tree to a call graph
@@ -15,13 +12,12 @@ import java.util.Set;
  */
 public class CallGraphVisitor extends IndexVisitor {
 
-	private Deque<CallGraphNode> currentNodeStack = new ArrayDeque<>();
+	private Deque<Integer> currentNodeStack = new ArrayDeque<>();
 
 	@Override
 	public Object visit(ASTVarDeclStmt node, Object data) {
-		currentNodeStack.push(
-				new CallGraphNode(ASTUtil.getNodeValue(node).getUserData(Keys.ID), CallGraphNode.EnumType.VARIABLE));
-		((Data) data).callGraph.put(currentNodeStack.peek(), new HashSet<>());
+		currentNodeStack
+				.push(((Data) data).callGraph.getVariableNode(ASTUtil.getNodeValue(node).getUserData(Keys.ID)));
 		super.visit(node, data);
 		currentNodeStack.pop();
 		return data;
@@ -29,35 +25,59 @@ public class CallGraphVisitor extends IndexVisitor {
 
 	@Override
 	public Object visit(ASTVarAccessExpr node, Object data) {
-		((Data) data).callGraph.get(currentNodeStack.peek()).add(
-				new CallGraphNode(ASTUtil.getNodeValue(node).getUserData(Keys.ID), CallGraphNode.EnumType.VARIABLE));
+		((Data) data).callGraph.addEdge(currentNodeStack.peek(),
+				((Data) data).callGraph.getVariableNode(ASTUtil.getNodeValue(node).getUserData(Keys.ID)));
 		return super.visit(node, data);
 	}
 
 	@Override
 	public Object visit(ASTCommandStmt node, Object data) {
+		CommandParser.CommandTemplate template;
 		try {
-			CommandParser.getWildcardIndexes(node).forEach(wildcardIndex -> {
-				try {
-					Type type = CommandParser.wildcardToType(node, wildcardIndex);
-					ASTVarDeclStmt varRef = ((Data) data).index.getFrame().resolveVariableReference(type);
-					((Data) data).callGraph.get(currentNodeStack.peek()).add(new CallGraphNode(
-							ASTUtil.getNodeValue(varRef).getUserData(Keys.ID), CallGraphNode.EnumType.VARIABLE));
-				} catch (ParseException e) {
-					throw new Error(e);
-				}
-			});
+			template = CommandParser.getTemplate(node);
 		} catch (ParseException e) {
 			throw new Error(e);
 		}
+		for (int i = 0; i < template.getVariableCount(); i++) {
+			ASTVarDeclStmt varRef = template.getResolvedVariable(i);
+			if (varRef == null) {
+				varRef = ((Data) data).index.getFrame().resolveVariableReference(template.getVariable(i));
+			}
+			((Data) data).callGraph.addEdge(currentNodeStack.peek(),
+					((Data) data).callGraph.getVariableNode(ASTUtil.getNodeValue(varRef).getUserData(Keys.ID)));
+		}
+		// Raw commands can also call functions by their final name, e.g.
+		// "function ns:foo" or "gamerule gameLoopFunction ns:foo"
+		for (int i = 0; i <= template.getVariableCount(); i++) {
+			addFunctionNameReferences(template.getLiteral(i), (Data) data);
+		}
 		return super.visit(node, data);
 	}
 
+	@Override
+	public Object visit(ASTStringLiteralExpr node, Object data) {
+		// The string may end up in a command through a wildcard, e.g. a const
+		// field "ns:foo" used as "function %FOO%"
+		addFunctionNameReferences(ASTUtil.getValue(node), (Data) data);
+		return super.visit(node, data);
+	}
+
+	private void addFunctionNameReferences(String text, Data data) {
+		for (String word : text.split("\\s+")) {
+			if (word.indexOf(':') >= 0) {
+				ASTFunction function = data.index.getFunctionByFunctionId(word);
+				if (function != null) {
+					data.callGraph.addEdge(currentNodeStack.peek(),
+							data.callGraph.getFunctionNode(ASTUtil.getNodeValue(function).getUserData(Keys.ID)));
+				}
+			}
+		}
+	}
+
 	@Override
 	public Object visit(ASTFunction node, Object data) {
-		currentNodeStack.push(
-				new CallGraphNode(ASTUtil.getNodeValue(node).getUserData(Keys.ID), CallGraphNode.EnumType.FUNCTION));
-		((Data) data).callGraph.put(currentNodeStack.peek(), new HashSet<>());
+		currentNodeStack
+				.push(((Data) data).callGraph.getFunctionNode(ASTUtil.getNodeValue(node).getUserData(Keys.ID)));
 		super.visit(node, data);
 		currentNodeStack.pop();
 		return data;
@@ -65,17 +85,17 @@ public class CallGraphVisitor extends IndexVisitor {
 
 	@Override
 	public Object visit(ASTFunctionCallExpr node, Object data) {
-		((Data) data).callGraph.get(currentNodeStack.peek()).add(
-				new CallGraphNode(ASTUtil.getNodeValue(node).getUserData(Keys.ID), CallGraphNode.EnumType.FUNCTION));
+		((Data) data).callGraph.addEdge(currentNodeStack.peek(),
+				((Data) data).callGraph.getFunctionNode(ASTUtil.getNodeValue(node).getUserData(Keys.ID)));
 		return super.visit(node, data);
 	}
 
 	public static class Data implements IIndexVisitorData {
 		public Index index;
 		public List<ParseException> exceptions;
-		public Map<CallGraphNode, Set<CallGraphNode>> callGraph;
+		public CallGraph.Builder callGraph;
 
-		public Data(Index index, List<ParseException> exceptions, Map<CallGraphNode, Set<CallGraphNode>> callGraph) {
+		public Data(Index index, List<ParseException> exceptions, CallGraph.Builder callGraph) {
 			this.index = index;
 			this.exceptions = exceptions;
 			this.callGraph = callGraph;
@@ -92,54 +112,4 @@ public class CallGraphVisitor extends IndexVisitor {
 		}
 	}
 
-	/**
-	 * A call graph node. Contains the variable/function ID and the type (i.e.
-	 * whether a node is a variable or a function)
-	 * 
-	 * @author Earthcomputer
-	 */
-	public static class CallGraphNode {
-		private int id;
-		private EnumType type;
-
-		public CallGraphNode(int id, EnumType type) {
-			this.id = id;
-			this.type = type;
-		}
-
-		public int getId() {
-			return id;
-		}
-
-		public EnumType getType() {
-			return type;
-		}
-
-		@Override
-		public int hashCode() {
-			return id + 31 * type.hashCode();
-		}
-
-		@Override
-		public boolean equals(Object other) {
-			if (other == this) {
-				return true;
-			} else if (!(other instanceof CallGraphNode)) {
-				return false;
-			} else {
-				CallGraphNode otherNode = (CallGraphNode) other;
-				return id == otherNode.id && type == otherNode.type;
-			}
-		}
-
-		@Override
-		public String toString() {
-			return "(type=" + type + ",id=" + id + ")";
-		}
-
-		public static enum EnumType {
-			VARIABLE, FUNCTION
-		}
-	}
-
 }
@@ -13,7 +13,10 @@ public class CommandListVisitor extends IndexVisitor {
 
 	@Override
 	public Object visit(ASTFunction node, Object data) {
-		if ((ASTUtil.getModifiers(node) & Modifiers.INLINE) == 0) {
+		// Functions with parameters are generated by the function specializer
+		// for each set of arguments they are called with
+		if ((ASTUtil.getModifiers(node) & Modifiers.INLINE) == 0 && ASTUtil.getParameters(node).length == 0
+				&& ((Data) data).index.isReachable(node)) {
 			String funcId = ((Data) data).index.getFunctionId(node);
 			List<String> commands = new ArrayList<>();
 			StatementParser.toCommandList(ASTUtil.getBody(node), ((Data) data).index, commands,
@@ -6,50 +6,110 @@ import java.util.List;
 import net.earthcomputer.minefunk.Util;
 
 /**
- * Utilities for processing the raw string inside a command statement
+ * Utilities for processing the raw string inside a command statement.
+ * <p>
+ * A wildcard <tt>%x%</tt> is replaced with the value of the const variable
+ * <tt>x</tt>. If <tt>x</tt> is a runtime variable, it is instead replaced with
+ * its score holder and objective separated by a space, which is what
+ * scoreboard commands expect. Where only one of them is wanted, such as in
+ * the score component of a <tt>tellraw</tt> message, <tt>%x.holder%</tt> and
+ * <tt>%x.objective%</tt> give the score holder and objective on their own.
  * 
  * @author Earthcomputer
  */
 public class CommandParser {
 
+	/**
+	 * The suffix of a wildcard which is replaced with just the score holder of
+	 * a runtime variable
+	 */
+	public static final String HOLDER_SUFFIX = ".holder";
+	/**
+	 * The suffix of a wildcard which is replaced with just the objective of a
+	 * runtime variable
+	 */
+	public static final String OBJECTIVE_SUFFIX = ".objective";
+
 	private CommandParser() {
 	}
 
 	/**
-	 * Gets a list of positions in the command where wildcards appear
+	 * Gets the template of the given command statement, compiling it if it has
+	 * not been compiled yet. The template is cached on the command statement,
+	 * so the raw command string is only scanned once.
+	 * 
+	 * @param commandStmt
+	 *            - the command statement
+	 * @return The command template
+	 * @throws ParseException
+	 *             if the command contains an invalid wildcard
+	 */
+	public static CommandTemplate getTemplate(ASTCommandStmt commandStmt) throws ParseException {
+		ASTNodeValue value = ASTUtil.getNodeValue(commandStmt);
+		CommandTemplate template = value.getUserData(Keys.COMMAND_TEMPLATE);
+		if (template == null) {
+			template = compileTemplate(commandStmt);
+			value.setUserData(Keys.COMMAND_TEMPLATE, template);
+		}
+		return template;
+	}
+
+	/**
+	 * Splits the command in the given command statement into literal segments
+	 * and wildcards. <tt>%%</tt> escapes are replaced with a single <tt>%</tt>
+	 * in the literal segments.
 	 * 
 	 * @param commandStmt
 	 *            - the command statement
-	 * @return The list of positions of wildcards
+	 * @return The compiled command template
 	 * @throws ParseException
+	 *             if the command contains an invalid wildcard
 	 */
-	public static List<WildcardIndex> getWildcardIndexes(ASTCommandStmt commandStmt) throws ParseException {
+	private static CommandTemplate compileTemplate(ASTCommandStmt commandStmt) throws ParseException {
 		String command = ASTUtil.getCommand(commandStmt);
+		List<String> literals = new ArrayList<>();
+		List<Type> variables = new ArrayList<>();
+		List<String> suffixes = new ArrayList<>();
 		List<WildcardIndex> wildcardIndexes = new ArrayList<>();
-		boolean escaped = false;
-		for (int i = 0; i < command.length() - 1; i++) {
-			if (command.charAt(i) == '%') {
-				escaped = !escaped;
+		StringBuilder literal = new StringBuilder();
+		int i = 0;
+		while (i < command.length()) {
+			char c = command.charAt(i);
+			if (c != '%' || i == command.length() - 1) {
+				literal.append(c);
+				i++;
+			} else if (command.charAt(i + 1) == '%') {
+				// Escaped %
+				literal.append('%');
+				i += 2;
 			} else {
-				if (escaped) {
-					escaped = false;
-					int start = i - 1;
-					int end = -1;
-					for (; i < command.length(); i++) {
-						if (command.charAt(i) == '%') {
-							end = i;
-							i++;
-							break;
-						}
-					}
-					if (end == -1) {
-						throw Util.createParseException("Unclosed variable reference", commandStmt);
-					}
-					wildcardIndexes.add(new WildcardIndex(start, end));
+				int end = command.indexOf('%', i + 1);
+				if (end == -1) {
+					throw Util.createParseException("Unclosed variable reference", commandStmt);
 				}
+				WildcardIndex wildcardIndex = new WildcardIndex(i, end);
+				literals.add(literal.toString());
+				literal.setLength(0);
+				String wildcard = command.substring(i + 1, end).trim();
+				String suffix = null;
+				if (wildcard.endsWith(HOLDER_SUFFIX)) {
+					suffix = HOLDER_SUFFIX;
+				} else if (wildcard.endsWith(OBJECTIVE_SUFFIX)) {
+					suffix = OBJECTIVE_SUFFIX;
+				}
+				if (suffix != null) {
+					wildcard = wildcard.substring(0, wildcard.length() - suffix.length());
+				}
+				variables.add(wildcardToType(commandStmt, wildcardIndex, wildcard));
+				suffixes.add(suffix);
+				wildcardIndexes.add(wildcardIndex);
+				i = end + 1;
 			}
 		}
-		return wildcardIndexes;
+		literals.add(literal.toString());
+		return new CommandTemplate(literals.toArray(new String[literals.size()]),
+				variables.toArray(new Type[variables.size()]), suffixes.toArray(new String[suffixes.size()]),
+				wildcardIndexes.toArray(new WildcardIndex[wildcardIndexes.size()]));
 	}
 
 	/**
@@ -60,32 +120,34 @@ public class CommandParser {
 	 *            - the command statement
 	 * @param wildcardIndex
 	 *            - the wildcard index
+	 * @param wildcard
+	 *            - the text of the wildcard, without any suffix
 	 * @return The type representing a variable referred to
 	 * @throws ParseException
 	 */
-	public static Type wildcardToType(ASTCommandStmt commandStmt, WildcardIndex wildcardIndex) throws ParseException {
-		String command = ASTUtil.getCommand(commandStmt);
-		String wildcard = command.substring(wildcardIndex.startPercent + 1, wildcardIndex.endPercent);
-		wildcard = wildcard.trim();
-		String[] parts = wildcard.split("\\s*::\\s*");
-		if (parts.length == 0) {
-			throw createParseException("Invalid variable reference", commandStmt, wildcardIndex);
+	private static Type wildcardToType(ASTCommandStmt commandStmt, WildcardIndex wildcardIndex, String wildcard)
+			throws ParseException {
+		List<String> parts = new ArrayList<>();
+		int partStart = 0;
+		int separator;
+		while ((separator = wildcard.indexOf("::", partStart)) != -1) {
+			parts.add(wildcard.substring(partStart, separator).trim());
+			partStart = separator + 2;
 		}
+		parts.add(wildcard.substring(partStart).trim());
 		for (String part : parts) {
 			if (part.isEmpty()) {
 				throw createParseException("Invalid variable reference", commandStmt, wildcardIndex);
 			}
 		}
-		List<String> namespaces = new ArrayList<>();
-		for (int i = 0; i < parts.length - 1; i++) {
-			namespaces.add(parts[i]);
-		}
-		return new Type(namespaces, parts[parts.length - 1]);
+		List<String> namespaces = new ArrayList<>(parts.subList(0, parts.size() - 1));
+		return new Type(namespaces, parts.get(parts.size() - 1));
 	}
 
 	/**
 	 * Checks the wildcards that occur in the given command statement against
-	 * the index
+	 * the index, and remembers the variable declarations they resolve to in
+	 * the command template
 	 * 
 	 * @param commandStmt
 	 *            - the command statement
@@ -96,25 +158,21 @@ public class CommandParser {
 	 */
 	public static void checkWildcardsAgainstIndex(ASTCommandStmt commandStmt, Index index,
 			List<ParseException> exceptions) {
-		List<WildcardIndex> wildcardIndexes;
+		CommandTemplate template;
 		try {
-			wildcardIndexes = getWildcardIndexes(commandStmt);
+			template = getTemplate(commandStmt);
 		} catch (ParseException e) {
 			exceptions.add(e);
 			return;
 		}
-		wildcardIndexes.forEach(wildcardIndex -> {
-			Type type;
-			try {
-				type = wildcardToType(commandStmt, wildcardIndex);
-			} catch (ParseException e) {
-				exceptions.add(e);
-				return;
-			}
-			if (index.getFrame().resolveVariableReference(type) == null) {
-				exceptions.add(createParseException("Unrecognized variable", commandStmt, wildcardIndex));
+		for (int i = 0; i < template.getVariableCount(); i++) {
+			ASTVarDeclStmt varDecl = index.getFrame().resolveVariableReference(template.getVariable(i));
+			if (varDecl == null) {
+				exceptions.add(createParseException("Unrecognized variable", commandStmt, template.wildcardIndexes[i]));
+			} else {
+				template.resolvedVariables[i] = varDecl;
 			}
-		});
+		}
 	}
 
 	/**
@@ -129,24 +187,40 @@ public class CommandParser {
 	 * @throws ParseException
 	 */
 	public static String makeRawCommand(ASTCommandStmt commandStmt, Index index) throws ParseException {
-		String command = ASTUtil.getCommand(commandStmt);
-		StringBuilder newCommand = new StringBuilder(command);
-		List<WildcardIndex> wildcardIndices = getWildcardIndexes(commandStmt);
-		for (int i = wildcardIndices.size() - 1; i >= 0; i--) {
-			WildcardIndex wildcardIndex = wildcardIndices.get(i);
-			Type type = wildcardToType(commandStmt, wildcardIndex);
-			Object value = index.getFrame().staticEvaluateVariable(type);
-			if (value == null) {
-				throw createParseException("Cannot static evaluate that variable", commandStmt, wildcardIndex);
-			}
-			newCommand.replace(wildcardIndex.startPercent, wildcardIndex.endPercent + 1, value.toString());
+		CommandTemplate template = getTemplate(commandStmt);
+		if (template.getVariableCount() == 0) {
+			return template.literals[0];
 		}
-		for (int i = 0; i < newCommand.length() - 1; i++) {
-			if (newCommand.charAt(i) == '%' && newCommand.charAt(i + 1) == '%') {
-				newCommand.deleteCharAt(i);
+		StringBuilder rawCommand = new StringBuilder(template.literalLength + 16 * template.getVariableCount());
+		for (int i = 0; i < template.getVariableCount(); i++) {
+			rawCommand.append(template.literals[i]);
+			ASTVarDeclStmt varDecl = template.getResolvedVariable(i);
+			if (varDecl == null) {
+				varDecl = index.getFrame().resolveVariableReference(template.getVariable(i));
+			}
+			Object value;
+			if (template.suffixes[i] != null) {
+				if (varDecl == null || !index.isRuntimeVariable(varDecl)) {
+					throw createParseException("Only runtime variables have a score holder and objective",
+							commandStmt, template.wildcardIndexes[i]);
+				}
+				value = template.suffixes[i].equals(HOLDER_SUFFIX) ? index.getScoreHolder(varDecl)
+						: index.getScoreObjective();
+			} else if (varDecl != null && index.isRuntimeVariable(varDecl)) {
+				// Runtime variables are replaced with their score, so that
+				// they can be used in scoreboard commands
+				value = index.getScore(varDecl);
+			} else {
+				value = varDecl == null ? null : index.getFrame().staticEvaluateVariable(varDecl);
+			}
+			if (value == null) {
+				throw createParseException("Cannot static evaluate that variable", commandStmt,
+						template.wildcardIndexes[i]);
 			}
+			rawCommand.append(value);
 		}
-		return newCommand.toString();
+		rawCommand.append(template.literals[template.getVariableCount()]);
+		return rawCommand.toString();
 	}
 
 	/**
@@ -169,6 +243,81 @@ public class CommandParser {
 						value.getEndColumn() + 1 + idx.endPercent));
 	}
 
+	/**
+	 * A command statement compiled into alternating literal segments and
+	 * variable slots. A template with <i>n</i> variable slots has <i>n + 1</i>
+	 * literal segments, the first and last of which may be empty.
+	 * 
+	 * @author Earthcomputer
+	 */
+	public static class CommandTemplate {
+		private final String[] literals;
+		private final Type[] variables;
+		private final String[] suffixes;
+		private final WildcardIndex[] wildcardIndexes;
+		private final ASTVarDeclStmt[] resolvedVariables;
+		private final int literalLength;
+
+		private CommandTemplate(String[] literals, Type[] variables, String[] suffixes,
+				WildcardIndex[] wildcardIndexes) {
+			this.literals = literals;
+			this.variables = variables;
+			this.suffixes = suffixes;
+			this.wildcardIndexes = wildcardIndexes;
+			this.resolvedVariables = new ASTVarDeclStmt[variables.length];
+			int literalLength = 0;
+			for (String literal : literals) {
+				literalLength += literal.length();
+			}
+			this.literalLength = literalLength;
+		}
+
+		/**
+		 * Gets the number of variable slots in this template
+		 * 
+		 * @return The number of variable slots
+		 */
+		public int getVariableCount() {
+			return variables.length;
+		}
+
+		/**
+		 * Gets the literal segment before the given variable slot, or the last
+		 * literal segment if <tt>i</tt> is the number of variable slots
+		 * 
+		 * @param i
+		 *            - the index of the literal segment
+		 * @return The literal segment
+		 */
+		public String getLiteral(int i) {
+			return literals[i];
+		}
+
+		/**
+		 * Gets the (unresolved) variable referred to by the given slot
+		 * 
+		 * @param slot
+		 *            - the variable slot
+		 * @return The variable reference
+		 */
+		public Type getVariable(int slot) {
+			return variables[slot];
+		}
+
+		/**
+		 * Gets the variable declaration the given slot was resolved to during
+		 * the post-index check
+		 * 
+		 * @param slot
+		 *            - the variable slot
+		 * @return The variable declaration, or <tt>null</tt> if it hasn't
+		 *         been resolved
+		 */
+		public ASTVarDeclStmt getResolvedVariable(int slot) {
+			return resolvedVariables[slot];
+		}
+	}
+
 	/**
 	 * A wildcard index. Contains the index in the command string of the opening
 	 * % and the closing % of the wildcard
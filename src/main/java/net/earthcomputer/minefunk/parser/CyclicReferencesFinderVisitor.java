@@ -16,9 +16,8 @@ public class CyclicReferencesFinderVisitor extends MinefunkParserDefaultVisitor
 	@Override
 	public Object visit(ASTFunction node, Object data) {
 		if ((ASTUtil.getModifiers(node) & Modifiers.INLINE) != 0) {
-			if (((Data) data).cycleSearchResults.isConnectedComponent(
-					new CallGraphVisitor.CallGraphNode(ASTUtil.getNodeValue(node).getUserData(Keys.ID),
-							CallGraphVisitor.CallGraphNode.EnumType.FUNCTION))) {
+			int graphNode = ((Data) data).callGraph.getFunctionNode(ASTUtil.getNodeValue(node).getUserData(Keys.ID));
+			if (((Data) data).cycles.isConnectedComponent(graphNode)) {
 				((Data) data).exceptions.add(cycRefFound(node));
 			}
 		}
@@ -27,11 +26,12 @@ public class CyclicReferencesFinderVisitor extends MinefunkParserDefaultVisitor
 
 	@Override
 	public Object visit(ASTVarDeclStmt node, Object data) {
-		if (((Data) data).cycleSearchResults.isConnectedComponent(new CallGraphVisitor.CallGraphNode(
-				ASTUtil.getNodeValue(node).getUserData(Keys.ID), CallGraphVisitor.CallGraphNode.EnumType.VARIABLE))) {
+		int graphNode = ((Data) data).callGraph.getVariableNode(ASTUtil.getNodeValue(node).getUserData(Keys.ID));
+		if (((Data) data).cycles.isConnectedComponent(graphNode)) {
 			((Data) data).exceptions.add(cycRefFound(node));
 		} else {
-			if (ASTUtil.getNodeValue(node).getUserData(Keys.REFERENCED)) {
+			// Fields are evaluated later, in dependency order
+			if (ASTUtil.getNodeValue(node).getUserData(Keys.REFERENCED) && !((Data) data).index.isField(node)) {
 				Object constValue = null;
 				if ((ASTUtil.getModifiers(node) & Modifiers.CONST) != 0) {
 					Node initializer = ASTUtil.getInitializer(node);
@@ -56,13 +56,15 @@ public class CyclicReferencesFinderVisitor extends MinefunkParserDefaultVisitor
 	public static class Data {
 		public Index index;
 		public List<ParseException> exceptions;
-		public CallGraphAnalyzer.StronglyConnectedComponentsFinder.Result<CallGraphVisitor.CallGraphNode> cycleSearchResults;
+		public CallGraph callGraph;
+		public CallGraphAnalyzer.ConnectedComponentQuery cycles;
 
-		public Data(Index index, List<ParseException> exceptions,
-				CallGraphAnalyzer.StronglyConnectedComponentsFinder.Result<CallGraphVisitor.CallGraphNode> cycleSearchResults) {
+		public Data(Index index, List<ParseException> exceptions, CallGraph callGraph,
+				CallGraphAnalyzer.ConnectedComponentQuery cycles) {
 			this.index = index;
 			this.exceptions = exceptions;
-			this.cycleSearchResults = cycleSearchResults;
+			this.callGraph = callGraph;
+			this.cycles = cycles;
 		}
 	}
 
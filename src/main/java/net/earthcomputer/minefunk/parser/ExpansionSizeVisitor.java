@@ -0,0 +1,73 @@
+package net.earthcomputer.minefunk.parser;
+
+import static net.earthcomputer.minefunk.parser.MinefunkParserTreeConstants.*;
+
+import java.util.List;
+
+import net.earthcomputer.minefunk.Util;
+
+/**
+ * Finds functions which would expand to too many commands once all their
+ * inline function calls are expanded. Uses an AST tree so we know what files
+ * the errors occur in.
+ * 
+ * @author Earthcomputer
+ */
+public class ExpansionSizeVisitor extends MinefunkParserDefaultVisitor {
+
+	private ASTFunctionCallExpr largestInlineCall;
+	private long largestInlineCallSize;
+
+	@Override
+	public Object visit(ASTFunction node, Object data) {
+		if ((ASTUtil.getModifiers(node) & Modifiers.INLINE) != 0 || !((Data) data).index.isReachable(node)) {
+			return data;
+		}
+		long size = ((Data) data).index.getExpansionSize(node);
+		if (size <= ((Data) data).maxSize) {
+			return data;
+		}
+		largestInlineCall = null;
+		largestInlineCallSize = 0;
+		super.visit(node, data);
+		String message = String.format("This function expands to %s commands, more than the limit of %d",
+				size == Long.MAX_VALUE ? "too many" : String.valueOf(size), ((Data) data).maxSize);
+		if (largestInlineCall != null) {
+			message += String.format(", mostly from calling %s which expands to %s commands",
+					ASTUtil.getFunctionName(largestInlineCall),
+					largestInlineCallSize == Long.MAX_VALUE ? "too many" : String.valueOf(largestInlineCallSize));
+		}
+		((Data) data).exceptions.add(Util.createParseException(message, ASTUtil.getNameNode(node)));
+		return data;
+	}
+
+	@Override
+	public Object visit(ASTFunctionCallExpr node, Object data) {
+		// Only calls made as statements are expanded, not those in arguments
+		if (node.jjtGetParent().getId() == JJTEXPRESSIONSTMT) {
+			ASTFunction function = ((Data) data).index
+					.getFunctionById(ASTUtil.getNodeValue(node).getUserData(Keys.ID));
+			if ((ASTUtil.getModifiers(function) & Modifiers.INLINE) != 0) {
+				long size = ((Data) data).index.getExpansionSize(function);
+				if (size > largestInlineCallSize) {
+					largestInlineCall = node;
+					largestInlineCallSize = size;
+				}
+			}
+		}
+		return data;
+	}
+
+	public static class Data {
+		public Index index;
+		public long maxSize;
+		public List<ParseException> exceptions;
+
+		public Data(Index index, long maxSize, List<ParseException> exceptions) {
+			this.index = index;
+			this.maxSize = maxSize;
+			this.exceptions = exceptions;
+		}
+	}
+
+}
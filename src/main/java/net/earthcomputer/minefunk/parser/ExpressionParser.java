@@ -2,6 +2,7 @@ package net.earthcomputer.minefunk.parser;
 
 import static net.earthcomputer.minefunk.parser.MinefunkParserTreeConstants.*;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import net.earthcomputer.minefunk.Util;
@@ -123,23 +124,75 @@ public class ExpressionParser {
 			if ((modifiers & Modifiers.INLINE) != 0) {
 				ASTVarDeclStmt[] parameters = ASTUtil.getParameters(func);
 				Object[] constValues = new Object[parameters.length];
+				boolean allConst = true;
 				for (int i = 0; i < arguments.length; i++) {
 					try {
 						constValues[i] = ExpressionParser.staticEvaluateExpression(arguments[i], index);
 					} catch (ParseException e) {
+						allConst = false;
 						continue;
 					}
 				}
+				// The expansion of an inline function only depends on its
+				// arguments, so reuse it if it's been called with the same
+				// arguments before
+				InlineExpansionCache expansionCache = index.getInlineExpansionCache();
+				InlineExpansionCache.Key expansionKey = null;
+				if (allConst) {
+					expansionKey = new InlineExpansionCache.Key(ASTUtil.getNodeValue(func).getUserData(Keys.ID),
+							constValues);
+					InlineExpansionCache.Expansion expansion = expansionCache.get(expansionKey);
+					if (expansion != null) {
+						expansionCache.reuse(expansion);
+						expansion.addCallTo(commands);
+						return;
+					}
+					expansionCache.beginExpansion();
+				}
+				int firstCommand = commands.size();
+				int prevErrorCount = exceptions.size();
+				int prevRegisterCount = index.getRegisterCount();
+				// Copy the arguments of non-const parameters into the
+				// parameters' registers while still in the caller's frame
+				for (int i = 0; i < parameters.length; i++) {
+					if (index.isRuntimeVariable(parameters[i])) {
+						index.allocateRegister(parameters[i]);
+						toScoreCommands(index.getScore(parameters[i]), "=", arguments[i], index, commands, exceptions);
+					}
+				}
 				index.pushFrame(Util.listToDeque(ASTUtil.getNodeValue(func).getUserData(Keys.NAMESPACES)));
 				index.getFrame().pushBlock();
 				for (int i = 0; i < parameters.length; i++) {
 					index.getFrame().addLocalVariableDeclaration(parameters[i], exceptions);
-					if (constValues[i] != null) {
+					if (constValues[i] != null && !index.isRuntimeVariable(parameters[i])) {
 						index.getFrame().setConstLocalVariableValue(parameters[i], constValues[i]);
 					}
 				}
 				StatementParser.toCommandList(ASTUtil.getBody(func), index, commands, exceptions);
 				index.popFrame();
+				if (expansionKey != null) {
+					// Expansions with local variables can't be reused, since
+					// each one needs its own registers
+					List<String> expandedCommands = commands.subList(firstCommand, commands.size());
+					InlineExpansionCache.Expansion expansion = expansionCache.endExpansion(expansionKey,
+							new ArrayList<>(expandedCommands), exceptions.size() == prevErrorCount
+									&& index.getRegisterCount() == prevRegisterCount,
+							index);
+					expandedCommands.clear();
+					expansion.addCallTo(commands);
+				}
+			} else if (arguments.length != 0) {
+				Object[] constValues = new Object[arguments.length];
+				for (int i = 0; i < arguments.length; i++) {
+					try {
+						constValues[i] = staticEvaluateExpression(arguments[i], index);
+					} catch (ParseException e) {
+						exceptions.add(e);
+						return;
+					}
+				}
+				commands.add("function "
+						+ index.getFunctionSpecializer().getSpecializedFunctionId(func, constValues, index, exceptions));
 			} else {
 				commands.add("function " + index.getFunctionId(func));
 			}
@@ -154,6 +207,144 @@ public class ExpressionParser {
 		}
 	}
 
+	/**
+	 * Gets how many commands the given expression compiles to, without
+	 * generating them (see {@link StatementParser#getExpandedSize(Node, Index)})
+	 * 
+	 * @param expr
+	 *            - the expression
+	 * @param index
+	 *            - the index
+	 * @return The number of commands
+	 */
+	public static long getExpandedSize(Node expr, Index index) {
+		if (expr.getId() != JJTFUNCTIONCALLEXPR) {
+			return 0;
+		}
+		ASTFunction func = index.getFunctionById(ASTUtil.getNodeValue(expr).getUserData(Keys.ID));
+		if ((ASTUtil.getModifiers(func) & Modifiers.INLINE) != 0) {
+			long size = index.getExpansionSize(func);
+			Node[] arguments = ASTUtil.getArguments((ASTFunctionCallExpr) expr);
+			ASTVarDeclStmt[] parameters = ASTUtil.getParameters(func);
+			for (int i = 0; i < parameters.length; i++) {
+				if (index.isRuntimeVariable(parameters[i])) {
+					size += getScoreCommandsSize("=", arguments[i], index);
+				}
+			}
+			return size < 0 ? Long.MAX_VALUE : size;
+		} else {
+			return 1;
+		}
+	}
+
+	/**
+	 * Converts an assignment to a runtime variable into a command list. The
+	 * value is either a constant, in which case <tt>scoreboard players
+	 * set</tt>, <tt>add</tt> or <tt>remove</tt> is used where possible, or
+	 * another runtime variable, in which case <tt>scoreboard players
+	 * operation</tt> is used.
+	 * 
+	 * @param score
+	 *            - the score being assigned to, see
+	 *            {@link Index#getScore(ASTVarDeclStmt)}
+	 * @param operator
+	 *            - the assignment operator, e.g. <tt>=</tt> or <tt>+=</tt>
+	 * @param expr
+	 *            - the value being assigned
+	 * @param index
+	 *            - the index
+	 * @param commands
+	 *            - the command list to add to
+	 * @param exceptions
+	 *            - the compiler errors to add to
+	 */
+	public static void toScoreCommands(String score, String operator, Node expr, Index index, List<String> commands,
+			List<ParseException> exceptions) {
+		String sourceScore;
+		ASTVarDeclStmt source = getRuntimeVariable(expr, index);
+		if (source != null) {
+			sourceScore = index.getScore(source);
+		} else {
+			Object value;
+			try {
+				value = staticEvaluateExpression(expr, index);
+			} catch (ParseException e) {
+				exceptions.add(e);
+				return;
+			}
+			long longValue = (Integer) value;
+			switch (operator) {
+			case "=":
+				commands.add("scoreboard players set " + score + " " + longValue);
+				return;
+			case "-=":
+				longValue = -longValue;
+				// fallthrough
+			case "+=":
+				if (longValue == 0) {
+					return;
+				} else if (longValue > 0 && longValue <= Integer.MAX_VALUE) {
+					commands.add("scoreboard players add " + score + " " + longValue);
+					return;
+				} else if (longValue < 0 && -longValue <= Integer.MAX_VALUE) {
+					commands.add("scoreboard players remove " + score + " " + -longValue);
+					return;
+				}
+				break;
+			}
+			// Other operators only work between two scores, so store the
+			// constant in a temporary register
+			sourceScore = index.getScore(index.allocateRegister());
+			commands.add("scoreboard players set " + sourceScore + " " + value);
+		}
+		commands.add("scoreboard players operation " + score + " " + operator + " " + sourceScore);
+	}
+
+	/**
+	 * Gets how many commands
+	 * {@link #toScoreCommands(String, String, Node, Index, List, List)}
+	 * generates for the given assignment. This is exact apart from adding 0,
+	 * which generates nothing, and adding or subtracting the minimum int,
+	 * which generates one more command.
+	 * 
+	 * @param operator
+	 *            - the assignment operator
+	 * @param expr
+	 *            - the value being assigned
+	 * @param index
+	 *            - the index
+	 * @return The number of commands
+	 */
+	public static int getScoreCommandsSize(String operator, Node expr, Index index) {
+		switch (operator) {
+		case "=":
+		case "+=":
+		case "-=":
+			return 1;
+		default:
+			return getRuntimeVariable(expr, index) == null ? 2 : 1;
+		}
+	}
+
+	/**
+	 * Gets the runtime variable accessed by the given expression, if it is a
+	 * variable access expression
+	 * 
+	 * @param expr
+	 *            - the expression
+	 * @param index
+	 *            - the index
+	 * @return The runtime variable, or <tt>null</tt> if the expression doesn't
+	 *         access a runtime variable
+	 */
+	private static ASTVarDeclStmt getRuntimeVariable(Node expr, Index index) {
+		if (expr.getId() != JJTVARACCESSEXPR) {
+			return null;
+		}
+		ASTVarDeclStmt varDecl = index.getVariableById(ASTUtil.getNodeValue(expr).getUserData(Keys.ID));
+		return varDecl != null && index.isRuntimeVariable(varDecl) ? varDecl : null;
+	}
+
 	/**
 	 * Creates a compiler error with a message saying that the given expression
 	 * cannot be statically evaluated
@@ -173,14 +173,14 @@ public class Frame {
 
 		Type resolvedType = new Type(resolvedNamespaces, relativeType.getTypeName());
 
-		while (resolvedNamespaces.size() >= relativeNamespaces.size()) {
-			if (existenceTest.test(resolvedType)) {
-				return resolvedType;
+		while (!existenceTest.test(resolvedType)) {
+			if (resolvedNamespaces.size() == relativeNamespaces.size()) {
+				return null;
 			}
 			resolvedNamespaces.remove(0);
 		}
 
-		return null;
+		return resolvedType;
 	}
 
 	/**
@@ -255,24 +255,23 @@ public class Frame {
 		if (varDecl == null) {
 			return null;
 		}
+		return staticEvaluateVariable(varDecl);
+	}
+
+	/**
+	 * Statically evaluates the variable declared by the given variable
+	 * declaration
+	 * 
+	 * @param varDecl
+	 *            - the variable declaration
+	 * @return The result of the evaluation, or <tt>null</tt> if it couldn't be
+	 *         statically evaluated
+	 */
+	public Object staticEvaluateVariable(ASTVarDeclStmt varDecl) {
 		if (!globalIndex.isField(varDecl)) {
 			return ASTUtil.getNodeValue(varDecl).getUserData(Keys.CONST_VALUE);
 		}
-		if ((ASTUtil.getModifiers(varDecl) & Modifiers.CONST) == 0) {
-			return null;
-		}
-		Node initializer = ASTUtil.getInitializer(varDecl);
-		if (initializer == null) {
-			return null;
-		}
-		globalIndex.pushFrame(Util.listToDeque(ASTUtil.getNodeValue(varDecl).getUserData(Keys.NAMESPACES)));
-		try {
-			return ExpressionParser.staticEvaluateExpression(initializer, globalIndex);
-		} catch (ParseException e) {
-			return null;
-		} finally {
-			globalIndex.popFrame();
-		}
+		return globalIndex.getConstantFieldValue(varDecl);
 	}
 
 }
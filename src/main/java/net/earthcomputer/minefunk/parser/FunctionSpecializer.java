@@ -0,0 +1,167 @@
+package net.earthcomputer.minefunk.parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.earthcomputer.minefunk.Util;
+
+/**
+ * Compiles non-inline functions with parameters. Since parameters of
+ * non-inline functions are const, a separate copy of the function is
+ * generated for each distinct set of arguments it is called with, and shared
+ * between all the callers which use those arguments.
+ * <p>
+ * A copy of <tt>ns:f(int, string)</tt> called with <tt>5</tt> and
+ * <tt>"red"</tt> is named <tt>ns:0f_int_string__5_red</tt>. Strings which
+ * can't be used in a function name are replaced with their hash code.
+ * 
+ * @author Earthcomputer
+ */
+public class FunctionSpecializer {
+
+	private static final int MAX_LITERAL_STRING_LENGTH = 16;
+
+	private Map<InlineExpansionCache.Key, String> specializations = new HashMap<>();
+	private Set<String> usedFunctionIds = new HashSet<>();
+	private Deque<Specialization> pendingSpecializations = new ArrayDeque<>();
+
+	/**
+	 * Gets the final function name of the copy of the given function which is
+	 * specialized for the given arguments. If there is no such copy yet, it is
+	 * generated by the next call to
+	 * {@link #generatePendingSpecializations(Index, Map)}.
+	 * 
+	 * @param function
+	 *            - the non-inline function
+	 * @param arguments
+	 *            - the constant values of the arguments
+	 * @param index
+	 *            - the index
+	 * @param exceptions
+	 *            - the compiler errors to add to when generating the copy
+	 * @return The final function name of the specialized copy
+	 */
+	public String getSpecializedFunctionId(ASTFunction function, Object[] arguments, Index index,
+			List<ParseException> exceptions) {
+		InlineExpansionCache.Key key = new InlineExpansionCache.Key(
+				ASTUtil.getNodeValue(function).getUserData(Keys.ID), arguments);
+		String funcId = specializations.get(key);
+		if (funcId == null) {
+			// Named after the source function rather than its ID, so that the
+			// name doesn't change when unrelated functions are added. The
+			// parameter types tell overloads apart.
+			StringBuilder name = new StringBuilder("0").append(ASTUtil.getName(function));
+			for (ASTVarDeclStmt parameter : ASTUtil.getParameters(function)) {
+				name.append('_').append(ASTUtil.getType(parameter).getTypeName());
+			}
+			name.append('_');
+			for (Object argument : arguments) {
+				name.append('_').append(encodeArgument(argument));
+			}
+			funcId = index.getFunctionId(ASTUtil.getNodeValue(function).getUserData(Keys.NAMESPACES),
+					name.toString());
+			// Strings which are encoded by their hash code may collide
+			if (!usedFunctionIds.add(funcId)) {
+				int suffix = 2;
+				while (!usedFunctionIds.add(funcId + "_" + suffix)) {
+					suffix++;
+				}
+				funcId += "_" + suffix;
+			}
+			specializations.put(key, funcId);
+			pendingSpecializations.add(new Specialization(key, funcId, exceptions));
+		}
+		return funcId;
+	}
+
+	/**
+	 * Encodes a constant argument so that it can be used in a function name,
+	 * which may only contain lowercase letters, digits and underscores
+	 * 
+	 * @param argument
+	 *            - the argument
+	 * @return The encoded argument
+	 */
+	private static String encodeArgument(Object argument) {
+		if (argument instanceof Integer) {
+			int value = (Integer) argument;
+			return value < 0 ? "m" + -(long) value : String.valueOf(value);
+		} else if (argument instanceof String) {
+			String value = (String) argument;
+			if (!value.isEmpty() && value.length() <= MAX_LITERAL_STRING_LENGTH && value.matches("[a-z0-9]+")) {
+				return value;
+			} else {
+				return "x" + Integer.toHexString(value.hashCode());
+			}
+		} else {
+			return String.valueOf(argument);
+		}
+	}
+
+	/**
+	 * Generates the commands of every specialized copy which has been asked for
+	 * but not generated yet. Generating a copy may ask for more copies, which
+	 * are generated too.
+	 * 
+	 * @param index
+	 *            - the index
+	 * @param commandLists
+	 *            - the map of final function names to command lists to add to
+	 */
+	public void generatePendingSpecializations(Index index, Map<String, List<String>> commandLists) {
+		while (!pendingSpecializations.isEmpty()) {
+			Specialization specialization = pendingSpecializations.poll();
+			ASTFunction function = index.getFunctionById(specialization.key.getFunctionId());
+			ASTVarDeclStmt[] parameters = ASTUtil.getParameters(function);
+			Object[] arguments = specialization.key.getArguments();
+			List<String> commands = new ArrayList<>();
+			index.pushFrame(Util.listToDeque(ASTUtil.getNodeValue(function).getUserData(Keys.NAMESPACES)));
+			index.getFrame().pushBlock();
+			for (int i = 0; i < parameters.length; i++) {
+				index.getFrame().addLocalVariableDeclaration(parameters[i], specialization.exceptions);
+				index.getFrame().setConstLocalVariableValue(parameters[i], arguments[i]);
+			}
+			StatementParser.toCommandList(ASTUtil.getBody(function), index, commands, specialization.exceptions);
+			index.popFrame();
+			commandLists.put(specialization.funcId, commands);
+		}
+	}
+
+	/**
+	 * Gets how many specialized copies of functions have been asked for so far
+	 * 
+	 * @return The number of specialized copies
+	 */
+	public int getSpecializationCount() {
+		return specializations.size();
+	}
+
+	/**
+	 * Forgets all the specialized copies, so that they are generated again by
+	 * the next code generation pass
+	 */
+	public void startNextPass() {
+		specializations.clear();
+		usedFunctionIds.clear();
+		pendingSpecializations.clear();
+	}
+
+	private static class Specialization {
+		private InlineExpansionCache.Key key;
+		private String funcId;
+		private List<ParseException> exceptions;
+
+		public Specialization(InlineExpansionCache.Key key, String funcId, List<ParseException> exceptions) {
+			this.key = key;
+			this.funcId = funcId;
+			this.exceptions = exceptions;
+		}
+	}
+
+}
@@ -2,12 +2,15 @@ package net.earthcomputer.minefunk.parser;
 
 import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import net.earthcomputer.minefunk.CallGraphAnalyzer;
+import net.earthcomputer.minefunk.RegisterAllocator;
 import net.earthcomputer.minefunk.Util;
 
 /**
@@ -18,14 +21,33 @@ import net.earthcomputer.minefunk.Util;
  */
 public class Index {
 
+	/**
+	 * The default scoreboard objective in which non-const variables are stored
+	 */
+	public static final String DEFAULT_SCORE_OBJECTIVE = "minefunk";
+	/**
+	 * The default final function name of the function which creates the
+	 * scoreboard objective
+	 */
+	public static final String DEFAULT_INIT_FUNCTION = "minefunk:init";
+
 	private Map<Type, ASTTypeDef> types = new HashMap<>();
 	private Map<Type, ASTVarDeclStmt> fields = new HashMap<>();
 	private Map<FunctionId, ASTFunction> functions = new HashMap<>();
 	private Map<FunctionId, ASTFunction> functionsToResolve = new HashMap<>();
+	private Map<String, ASTFunction> functionsByFunctionId;
+	private InlineExpansionCache inlineExpansionCache = new InlineExpansionCache();
+	private FunctionSpecializer functionSpecializer = new FunctionSpecializer();
+	private SwitchGenerator switchGenerator = new SwitchGenerator();
+	private String scoreObjective = DEFAULT_SCORE_OBJECTIVE;
+	private int nextRegister = 0;
+	private int maxExpansionSize = 0;
+	private int unrollingDepth = 0;
+	private boolean unrollingLimitExceeded;
 	private Deque<Frame> frames = new ArrayDeque<>();
-	private Map<Integer, ASTTypeDef> typesById = new HashMap<>();
-	private Map<Integer, ASTVarDeclStmt> variablesById = new HashMap<>();
-	private Map<Integer, ASTFunction> functionsById = new HashMap<>();
+	private ASTTypeDef[] typesById = new ASTTypeDef[16];
+	private ASTVarDeclStmt[] variablesById = new ASTVarDeclStmt[16];
+	private ASTFunction[] functionsById = new ASTFunction[16];
 	private int nextTypeId = 0;
 	private int nextVariableId = 0;
 	private int nextFunctionId = 0;
@@ -80,6 +102,7 @@ public class Index {
 		} else {
 			fields.put(field, fieldDecl);
 			ASTUtil.getNodeValue(fieldDecl).setUserData(Keys.NAMESPACES, field.getNamespaces());
+			ASTUtil.getNodeValue(fieldDecl).setUserData(Keys.FIELD, true);
 		}
 	}
 
@@ -224,7 +247,215 @@ public class Index {
 	 * @return Whether the given variable is a field
 	 */
 	public boolean isField(ASTVarDeclStmt varDecl) {
-		return fields.containsValue(varDecl);
+		return Boolean.TRUE.equals(ASTUtil.getNodeValue(varDecl).getUserData(Keys.FIELD));
+	}
+
+	/**
+	 * Statically evaluates every const field, in dependency order according to
+	 * the given call graph. Evaluating fields in dependency order means each
+	 * initializer only ever looks up already cached values.
+	 * 
+	 * @param callGraph
+	 *            - the call graph
+	 */
+	public void evaluateConstantFields(CallGraph callGraph) {
+		CallGraphAnalyzer.Components components = callGraph.getStronglyConnectedComponents();
+		for (int i = 0; i < callGraph.getNodeCount(); i++) {
+			int node = components.getNodeInDependencyOrder(i);
+			if (callGraph.isVariable(node)) {
+				ASTVarDeclStmt varDecl = getVariableById(callGraph.getId(node));
+				if (varDecl != null && isField(varDecl)) {
+					getConstantFieldValue(varDecl);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the cycles of references which would make the compiler loop
+	 * forever. A reference to a non-inline function, whether it is called or
+	 * named in a command, only generates a <tt>function</tt> command, so it
+	 * can't make an inline expansion infinite. Such references are removed
+	 * from the strongly connected components of the whole call graph, which
+	 * only searches again within the components they were part of.
+	 * 
+	 * @param callGraph
+	 *            - the call graph
+	 * @return The strongly connected components without references to
+	 *         non-inline functions
+	 */
+	public CallGraphAnalyzer.IncrementalComponents findExpansionComponents(CallGraph callGraph) {
+		CallGraphAnalyzer.IncrementalComponents components = callGraph.createIncrementalComponents();
+		for (int id = 0; id < nextFunctionId; id++) {
+			if ((ASTUtil.getModifiers(functionsById[id]) & Modifiers.INLINE) == 0) {
+				int node = callGraph.getFunctionNode(id);
+				for (int i = 0; i < callGraph.getInDegree(node); i++) {
+					components.removeEdge(callGraph.getCaller(node, i), node);
+				}
+			}
+		}
+		return components;
+	}
+
+	/**
+	 * Computes how many commands the body of every function expands to when
+	 * all the inline function calls in it are expanded (see
+	 * {@link #getExpansionSize(ASTFunction)}). Since there are no cyclic inline
+	 * function references, visiting the functions in dependency order means
+	 * the size of each inline function called is already known.
+	 * 
+	 * @param callGraph
+	 *            - the call graph
+	 * @param expansionComponents
+	 *            - the components found by
+	 *            {@link #findExpansionComponents(CallGraph)}, whose order
+	 *            puts each inline function before the functions calling it
+	 */
+	public void computeExpansionSizes(CallGraph callGraph,
+			CallGraphAnalyzer.IncrementalComponents expansionComponents) {
+		for (int node : expansionComponents.getNodesInDependencyOrder()) {
+			if (!callGraph.isVariable(node)) {
+				ASTFunction function = getFunctionById(callGraph.getId(node));
+				if (function != null) {
+					ASTUtil.getNodeValue(function).setUserData(Keys.EXPANSION_SIZE,
+							StatementParser.getExpandedSize(ASTUtil.getBody(function), this));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets how many commands the body of the given function expands to, as
+	 * computed by {@link #computeExpansionSizes}
+	 * 
+	 * @param function
+	 *            - the function
+	 * @return The number of commands, or {@link Long#MAX_VALUE} if there are
+	 *         too many to count
+	 */
+	public long getExpansionSize(ASTFunction function) {
+		Long size = ASTUtil.getNodeValue(function).getUserData(Keys.EXPANSION_SIZE);
+		return size == null ? 0 : size;
+	}
+
+	/**
+	 * Gets the value of a const field, evaluating its initializer and caching
+	 * the result if this has not been done yet
+	 * 
+	 * @param field
+	 *            - the field declaration
+	 * @return The value of the field, or <tt>null</tt> if it couldn't be
+	 *         statically evaluated
+	 */
+	public Object getConstantFieldValue(ASTVarDeclStmt field) {
+		ASTNodeValue value = ASTUtil.getNodeValue(field);
+		if (Boolean.TRUE.equals(value.getUserData(Keys.CONST_EVALUATED))) {
+			return value.getUserData(Keys.CONST_VALUE);
+		}
+		// Mark as evaluated first so that a cyclic reference evaluates to null
+		// rather than recursing forever
+		value.setUserData(Keys.CONST_EVALUATED, true);
+		value.setUserData(Keys.CONST_VALUE, null);
+		if ((ASTUtil.getModifiers(field) & Modifiers.CONST) == 0) {
+			return null;
+		}
+		Node initializer = ASTUtil.getInitializer(field);
+		if (initializer == null) {
+			return null;
+		}
+		Object constValue;
+		pushFrame(Util.listToDeque(value.getUserData(Keys.NAMESPACES)));
+		try {
+			constValue = ExpressionParser.staticEvaluateExpression(initializer, this);
+		} catch (ParseException e) {
+			constValue = null;
+		} finally {
+			popFrame();
+		}
+		value.setUserData(Keys.CONST_VALUE, constValue);
+		return constValue;
+	}
+
+	/**
+	 * Marks which functions are reachable in the given call graph from the
+	 * given entry points. Code is only generated for reachable functions (see
+	 * {@link #isReachable(ASTFunction)}).
+	 * 
+	 * @param callGraph
+	 *            - the call graph
+	 * @param entryPoints
+	 *            - the final function names of the entry points
+	 * @param exceptions
+	 *            - the list of compiler errors to add to
+	 * @return The number of non-inline functions which are unreachable
+	 */
+	public int markReachableFunctions(CallGraph callGraph, List<String> entryPoints,
+			List<ParseException> exceptions) {
+		BitSet roots = new BitSet(callGraph.getNodeCount());
+		for (String entryPoint : entryPoints) {
+			ASTFunction function = getFunctionByFunctionId(entryPoint);
+			if (function == null) {
+				exceptions.add(new ParseException("Unknown entry point function: " + entryPoint));
+			} else {
+				roots.set(callGraph.getFunctionNode(ASTUtil.getNodeValue(function).getUserData(Keys.ID)));
+			}
+		}
+		// Periodic functions are run by the tick function rather than being
+		// called by anything
+		for (int id = 0; id < nextFunctionId; id++) {
+			ASTFunction function = functionsById[id];
+			if (function != null && ASTUtil.getPeriod(function) != 0) {
+				roots.set(callGraph.getFunctionNode(id));
+			}
+		}
+		BitSet reachable = callGraph.getReachable(roots);
+		int unreachableCount = 0;
+		for (int id = 0; id < nextFunctionId; id++) {
+			ASTFunction function = functionsById[id];
+			if (function != null) {
+				boolean isReachable = reachable.get(callGraph.getFunctionNode(id));
+				ASTUtil.getNodeValue(function).setUserData(Keys.REACHABLE, isReachable);
+				if (!isReachable && (ASTUtil.getModifiers(function) & Modifiers.INLINE) == 0) {
+					unreachableCount++;
+				}
+			}
+		}
+		return unreachableCount;
+	}
+
+	/**
+	 * Gets whether code should be generated for the given function. This is
+	 * the case unless {@link #markReachableFunctions(CallGraph, List, List)}
+	 * found it to be unreachable.
+	 * 
+	 * @param function
+	 *            - the function
+	 * @return Whether the function is reachable
+	 */
+	public boolean isReachable(ASTFunction function) {
+		return !Boolean.FALSE.equals(ASTUtil.getNodeValue(function).getUserData(Keys.REACHABLE));
+	}
+
+	/**
+	 * Gets the non-inline function with the given final function name. This
+	 * must only be called once all functions have been indexed.
+	 * 
+	 * @param funcId
+	 *            - the final function name
+	 * @return The function, or <tt>null</tt> if there is no such function
+	 */
+	public ASTFunction getFunctionByFunctionId(String funcId) {
+		if (functionsByFunctionId == null) {
+			functionsByFunctionId = new HashMap<>();
+			for (int id = 0; id < nextFunctionId; id++) {
+				ASTFunction function = functionsById[id];
+				if (function != null && (ASTUtil.getModifiers(function) & Modifiers.INLINE) == 0
+						&& ASTUtil.getParameters(function).length == 0) {
+					functionsByFunctionId.put(getFunctionId(function), function);
+				}
+			}
+		}
+		return functionsByFunctionId.get(funcId);
 	}
 
 	/**
@@ -237,26 +468,172 @@ public class Index {
 	 * @return The final function name of the given function
 	 */
 	public String getFunctionId(ASTFunction function) {
+		String name;
+		if (ASTUtil.getParameters(function).length == 0) {
+			name = ASTUtil.getName(function);
+		} else {
+			name = "0funk" + ASTUtil.getNodeValue(function).getUserData(Keys.ID);
+		}
+		return getFunctionId(ASTUtil.getNodeValue(function).getUserData(Keys.NAMESPACES), name);
+	}
+
+	/**
+	 * Gets the final function name of a function with the given name inside
+	 * the given namespaces
+	 * 
+	 * @param namespaces
+	 *            - the namespaces
+	 * @param name
+	 *            - the name of the function inside the namespaces
+	 * @return The final function name
+	 */
+	public String getFunctionId(List<String> namespaces, String name) {
 		StringBuilder newName = new StringBuilder();
-		Iterator<String> nsItr = ASTUtil.getNodeValue(function).getUserData(Keys.NAMESPACES).iterator();
+		Iterator<String> nsItr = namespaces.iterator();
 		if (nsItr.hasNext()) {
 			newName.append(nsItr.next()).append(":");
 			while (nsItr.hasNext()) {
 				newName.append(nsItr.next()).append("/");
 			}
 		}
-		boolean noarg = ASTUtil.getParameters(function).length == 0;
-		if (noarg) {
-			newName.append(ASTUtil.getName(function));
+		newName.append(name);
+		return newName.toString();
+	}
+
+	/**
+	 * Gets whether the given variable is stored on the scoreboard and can be
+	 * changed at runtime, as opposed to being a const variable whose value is
+	 * known at compile time
+	 * 
+	 * @param variable
+	 *            - the variable
+	 * @return Whether the variable is a runtime variable
+	 */
+	public boolean isRuntimeVariable(ASTVarDeclStmt variable) {
+		return (ASTUtil.getModifiers(variable) & Modifiers.CONST) == 0;
+	}
+
+	/**
+	 * Sets the most commands a for statement may be unrolled into
+	 * 
+	 * @param maxExpansionSize
+	 *            - the maximum expansion size, or 0 for no limit
+	 */
+	public void setMaxExpansionSize(int maxExpansionSize) {
+		this.maxExpansionSize = maxExpansionSize;
+	}
+
+	/**
+	 * Gets the most commands a for statement may be unrolled into
+	 * 
+	 * @return The maximum expansion size, or 0 for no limit
+	 */
+	public int getMaxExpansionSize() {
+		return maxExpansionSize;
+	}
+
+	/**
+	 * Sets the scoreboard objective in which runtime variables are stored
+	 * 
+	 * @param objective
+	 *            - the objective
+	 */
+	public void setScoreObjective(String objective) {
+		this.scoreObjective = objective;
+	}
+
+	/**
+	 * Gets the scoreboard objective in which runtime variables are stored
+	 * 
+	 * @return The objective
+	 */
+	public String getScoreObjective() {
+		return scoreObjective;
+	}
+
+	/**
+	 * Creates a new virtual register, which is given a real scoreboard player
+	 * by the {@link RegisterAllocator} once all the commands have been
+	 * generated
+	 * 
+	 * @return The name of the virtual register
+	 */
+	public String allocateRegister() {
+		return RegisterAllocator.getVirtualRegister(nextRegister++);
+	}
+
+	/**
+	 * Stores a runtime local variable in a new virtual register. This is done
+	 * each time its declaration is compiled, so that each expansion of an
+	 * inline function gets its own copy of its local variables.
+	 * 
+	 * @param local
+	 *            - the local variable declaration
+	 */
+	public void allocateRegister(ASTVarDeclStmt local) {
+		ASTUtil.getNodeValue(local).setUserData(Keys.REGISTER, allocateRegister());
+	}
+
+	/**
+	 * Gets the number of virtual registers created so far
+	 * 
+	 * @return The number of virtual registers
+	 */
+	public int getRegisterCount() {
+		return nextRegister;
+	}
+
+	/**
+	 * Gets the scoreboard player which stores the given runtime variable.
+	 * Fields are stored in a player named after the field, and local variables
+	 * in the virtual register last allocated to them.
+	 * 
+	 * @param variable
+	 *            - the runtime variable
+	 * @return The scoreboard player
+	 */
+	public String getScoreHolder(ASTVarDeclStmt variable) {
+		if (isField(variable)) {
+			return "#" + getFunctionId(ASTUtil.getNodeValue(variable).getUserData(Keys.NAMESPACES),
+					ASTUtil.getName(variable));
 		} else {
-			newName.append("0funk").append(ASTUtil.getNodeValue(function).getUserData(Keys.ID));
+			return ASTUtil.getNodeValue(variable).getUserData(Keys.REGISTER);
 		}
-		return newName.toString();
+	}
 
+	/**
+	 * Gets the scoreboard player and objective which store the given runtime
+	 * variable, separated by a space, as they appear in a command
+	 * 
+	 * @param variable
+	 *            - the runtime variable
+	 * @return The score
+	 */
+	public String getScore(ASTVarDeclStmt variable) {
+		return getScore(getScoreHolder(variable));
+	}
+
+	/**
+	 * Gets the given scoreboard player followed by the objective in which
+	 * runtime variables are stored, as they appear in a command
+	 * 
+	 * @param holder
+	 *            - the scoreboard player
+	 * @return The score
+	 */
+	public String getScore(String holder) {
+		return holder + " " + scoreObjective;
 	}
 
+	/**
+	 * Gives a type an unique ID
+	 * 
+	 * @param typeDef
+	 *            - the type to give an ID
+	 */
 	public void defineTypeId(ASTTypeDef typeDef) {
-		typesById.put(nextTypeId, typeDef);
+		typesById = ensureCapacity(typesById, nextTypeId);
+		typesById[nextTypeId] = typeDef;
 		ASTUtil.getNodeValue(typeDef).setUserData(Keys.ID, nextTypeId++);
 	}
 
@@ -267,7 +644,8 @@ public class Index {
 	 *            - the variable to give an ID
 	 */
 	public void defineVariableId(ASTVarDeclStmt variable) {
-		variablesById.put(nextVariableId, variable);
+		variablesById = ensureCapacity(variablesById, nextVariableId);
+		variablesById[nextVariableId] = variable;
 		ASTUtil.getNodeValue(variable).setUserData(Keys.ID, nextVariableId++);
 	}
 
@@ -278,7 +656,8 @@ public class Index {
 	 *            - the function to give an ID
 	 */
 	public void defineFunctionId(ASTFunction function) {
-		functionsById.put(nextFunctionId, function);
+		functionsById = ensureCapacity(functionsById, nextFunctionId);
+		functionsById[nextFunctionId] = function;
 		ASTUtil.getNodeValue(function).setUserData(Keys.ID, nextFunctionId++);
 	}
 
@@ -290,7 +669,7 @@ public class Index {
 	 * @return The type
 	 */
 	public ASTTypeDef getTypeById(int id) {
-		return typesById.get(id);
+		return id < 0 || id >= nextTypeId ? null : typesById[id];
 	}
 
 	/**
@@ -301,7 +680,7 @@ public class Index {
 	 * @return The variable declaration statement
 	 */
 	public ASTVarDeclStmt getVariableById(int id) {
-		return variablesById.get(id);
+		return id < 0 || id >= nextVariableId ? null : variablesById[id];
 	}
 
 	/**
@@ -312,7 +691,109 @@ public class Index {
 	 * @return The function declaration
 	 */
 	public ASTFunction getFunctionById(int id) {
-		return functionsById.get(id);
+		return id < 0 || id >= nextFunctionId ? null : functionsById[id];
+	}
+
+	/**
+	 * Gets the number of variable IDs which have been given out. All variable
+	 * IDs are in the range <tt>[0, getVariableCount())</tt>.
+	 * 
+	 * @return The number of variable IDs
+	 */
+	public int getVariableCount() {
+		return nextVariableId;
+	}
+
+	/**
+	 * Gets the number of function IDs which have been given out. All function
+	 * IDs are in the range <tt>[0, getFunctionCount())</tt>.
+	 * 
+	 * @return The number of function IDs
+	 */
+	public int getFunctionCount() {
+		return nextFunctionId;
+	}
+
+	/**
+	 * Grows an ID-indexed array so that it can hold the given ID
+	 * 
+	 * @param array
+	 *            - the array
+	 * @param id
+	 *            - the ID which is about to be stored
+	 * @return The input array, or a larger copy of it
+	 */
+	private static <T> T[] ensureCapacity(T[] array, int id) {
+		if (id < array.length) {
+			return array;
+		}
+		return Arrays.copyOf(array, Math.max(id + 1, array.length << 1));
+	}
+
+	/**
+	 * Gets the cache of inline function expansions used during code generation
+	 * 
+	 * @return The inline expansion cache
+	 */
+	public InlineExpansionCache getInlineExpansionCache() {
+		return inlineExpansionCache;
+	}
+
+	/**
+	 * Gets the function specializer, which generates the copies of non-inline
+	 * functions with parameters
+	 * 
+	 * @return The function specializer
+	 */
+	public FunctionSpecializer getFunctionSpecializer() {
+		return functionSpecializer;
+	}
+
+	/**
+	 * Marks the start of unrolling a for statement, which must be followed by
+	 * {@link #finishUnrolling()}
+	 */
+	public void startUnrolling() {
+		if (unrollingDepth == 0) {
+			unrollingLimitExceeded = false;
+		}
+		unrollingDepth++;
+	}
+
+	/**
+	 * Marks the end of unrolling a for statement
+	 */
+	public void finishUnrolling() {
+		unrollingDepth--;
+	}
+
+	/**
+	 * Records that a for statement being unrolled expanded to more than the
+	 * maximum expansion size, so that the for statements around it stop
+	 * unrolling too
+	 */
+	public void markUnrollingLimitExceeded() {
+		unrollingLimitExceeded = true;
+	}
+
+	/**
+	 * Gets whether a for statement being unrolled has expanded to more than
+	 * the maximum expansion size
+	 * 
+	 * @return Whether the limit is exceeded
+	 */
+	public boolean isUnrollingLimitExceeded() {
+		return unrollingLimitExceeded;
+	}
+
+	/**
+	 * Gets the switch generator, which generates the functions for switch
+	 * statements
+	 * 
+	 * @return The switch generator
+	 */
+	public SwitchGenerator getSwitchGenerator() {
+		return switchGenerator;
 	}
 
 	/**
@@ -35,6 +35,19 @@ public abstract class IndexVisitor extends MinefunkParserDefaultVisitor {
 		return data;
 	}
 
+	@Override
+	public Object visit(ASTForStmt node, Object data) {
+		// The values are outside the scope of the loop variable
+		for (Node value : ASTUtil.getValues(node)) {
+			value.jjtAccept(this, data);
+		}
+		getIndex(data).getFrame().pushBlock();
+		ASTUtil.getLoopVariable(node).jjtAccept(this, data);
+		ASTUtil.getBody(node).jjtAccept(this, data);
+		getIndex(data).getFrame().popBlock();
+		return data;
+	}
+
 	@Override
 	public Object visit(ASTVarDeclStmt node, Object data) {
 		if (getIndex(data).getFrame().isInBlock()) {
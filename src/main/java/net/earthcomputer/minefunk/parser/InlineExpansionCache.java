@@ -0,0 +1,302 @@
+package net.earthcomputer.minefunk.parser;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the commands generated by inline function calls with constant
+ * arguments, so that they can be reused by later calls with the same
+ * arguments. Also decides which expansions should be outlined into a
+ * generated function instead of being copied into every caller.
+ * 
+ * @author Earthcomputer
+ */
+public class InlineExpansionCache {
+
+	private Map<Key, Expansion> expansions = new HashMap<>();
+	private Map<Key, Integer> useCounts = new HashMap<>();
+	private Map<Key, Integer> previousUseCounts = Collections.emptyMap();
+	private Deque<Map<Key, Integer>> nestedUseStack = new ArrayDeque<>();
+	private Map<String, Expansion> outlinedFunctions = new LinkedHashMap<>();
+	private boolean outliningActive = false;
+	private int outlineSizeThreshold = 0;
+	private int outlineCountThreshold = 0;
+
+	/**
+	 * Enables outlining of inline expansions. An expansion is outlined if it
+	 * contains more than <tt>sizeThreshold</tt> commands, or if it is used
+	 * more than <tt>countThreshold</tt> times. A threshold of 0 disables that
+	 * condition.
+	 * 
+	 * @param sizeThreshold
+	 *            - the maximum number of commands an expansion may have before
+	 *            being outlined
+	 * @param countThreshold
+	 *            - the maximum number of times an expansion may be used before
+	 *            being outlined
+	 */
+	public void enableOutlining(int sizeThreshold, int countThreshold) {
+		this.outliningActive = sizeThreshold > 0 || countThreshold > 0;
+		this.outlineSizeThreshold = sizeThreshold;
+		this.outlineCountThreshold = countThreshold;
+	}
+
+	/**
+	 * Gets whether outlining needs the use counts of a previous code generation
+	 * pass (see {@link #startNextPass()})
+	 * 
+	 * @return Whether a counting pass is needed
+	 */
+	public boolean needsCountingPass() {
+		return outliningActive && outlineCountThreshold > 0;
+	}
+
+	/**
+	 * Forgets all the cached expansions, and remembers how many times each
+	 * expansion was used, so that the next code generation pass can outline
+	 * frequently used expansions at every call site
+	 */
+	public void startNextPass() {
+		previousUseCounts = useCounts;
+		useCounts = new HashMap<>();
+		expansions.clear();
+		nestedUseStack.clear();
+		outlinedFunctions.clear();
+	}
+
+	/**
+	 * Gets the expansion previously generated for an inline function call with
+	 * the given constant arguments
+	 * 
+	 * @param key
+	 *            - the function and its constant arguments
+	 * @return The expansion, or <tt>null</tt> if the function hasn't been
+	 *         expanded with these arguments yet
+	 */
+	public Expansion get(Key key) {
+		return expansions.get(key);
+	}
+
+	/**
+	 * Must be called before expanding the body of an inline function whose
+	 * expansion may be cached, so that the inline calls inside it can be
+	 * counted
+	 */
+	public void beginExpansion() {
+		nestedUseStack.push(new HashMap<>());
+	}
+
+	/**
+	 * Must be called after expanding the body of an inline function, after
+	 * {@link #beginExpansion()}. If the expansion should be outlined, a
+	 * generated function is created for it.
+	 * 
+	 * @param key
+	 *            - the function and its constant arguments
+	 * @param commands
+	 *            - the commands generated
+	 * @param cache
+	 *            - whether to cache the expansion. This should be
+	 *            <tt>false</tt> if the expansion is erroneous.
+	 * @param index
+	 *            - the index
+	 * @return The new expansion
+	 */
+	public Expansion endExpansion(Key key, List<String> commands, boolean cache, Index index) {
+		Map<Key, Integer> nestedUses = nestedUseStack.pop();
+		Expansion expansion = new Expansion(key, commands, nestedUses);
+		if (cache && shouldOutline(key, commands.size())) {
+			List<String> namespaces = ASTUtil.getNodeValue(index.getFunctionById(key.functionId))
+					.getUserData(Keys.NAMESPACES);
+			expansion.outlinedFunctionId = index.getFunctionId(namespaces, "0inline" + outlinedFunctions.size());
+			// The nested calls now only happen once, inside the generated
+			// function, rather than once per caller
+			expansion.nestedUses = Collections.emptyMap();
+			outlinedFunctions.put(expansion.outlinedFunctionId, expansion);
+		}
+		addUse(key, expansion.nestedUses);
+		if (cache) {
+			expansions.put(key, expansion);
+		}
+		return expansion;
+	}
+
+	/**
+	 * Records that a cached expansion has been used again
+	 * 
+	 * @param expansion
+	 *            - the cached expansion
+	 */
+	public void reuse(Expansion expansion) {
+		addUse(expansion.key, expansion.nestedUses);
+		addNestedUses(useCounts, expansion.nestedUses);
+	}
+
+	private void addUse(Key key, Map<Key, Integer> nestedUses) {
+		useCounts.merge(key, 1, Integer::sum);
+		Map<Key, Integer> parentUses = nestedUseStack.peek();
+		if (parentUses != null) {
+			parentUses.merge(key, 1, Integer::sum);
+			addNestedUses(parentUses, nestedUses);
+		}
+	}
+
+	private static void addNestedUses(Map<Key, Integer> uses, Map<Key, Integer> nestedUses) {
+		nestedUses.forEach((key, count) -> uses.merge(key, count, Integer::sum));
+	}
+
+	private boolean shouldOutline(Key key, int size) {
+		if (!outliningActive || size <= 1) {
+			// Replacing a single command with a function call is pointless
+			return false;
+		}
+		if (outlineSizeThreshold > 0 && size > outlineSizeThreshold) {
+			return true;
+		}
+		return outlineCountThreshold > 0 && previousUseCounts.getOrDefault(key, 0) > outlineCountThreshold;
+	}
+
+	/**
+	 * Gets how many times the given expansion has been used so far in this
+	 * pass
+	 * 
+	 * @param key
+	 *            - the function and its constant arguments
+	 * @return The number of uses
+	 */
+	public int getUseCount(Key key) {
+		return useCounts.getOrDefault(key, 0);
+	}
+
+	/**
+	 * Gets the expansions which have been outlined into generated functions
+	 * 
+	 * @return The outlined expansions
+	 */
+	public Collection<Expansion> getOutlinedExpansions() {
+		return Collections.unmodifiableCollection(outlinedFunctions.values());
+	}
+
+	/**
+	 * A class which identifies the expansion of an inline function, by the
+	 * function ID and the constant values of its arguments
+	 * 
+	 * @author Earthcomputer
+	 */
+	public static class Key {
+		private int functionId;
+		private Object[] arguments;
+
+		public Key(int functionId, Object[] arguments) {
+			this.functionId = functionId;
+			this.arguments = arguments;
+		}
+
+		/**
+		 * Gets the ID of the inline function
+		 * 
+		 * @return The function ID
+		 */
+		public int getFunctionId() {
+			return functionId;
+		}
+
+		/**
+		 * Gets the constant values of the arguments
+		 * 
+		 * @return The argument values
+		 */
+		public Object[] getArguments() {
+			return arguments;
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(arguments) + 31 * functionId;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (other == this) {
+				return true;
+			} else if (other == null) {
+				return false;
+			} else if (other.getClass() != Key.class) {
+				return false;
+			} else {
+				Key key = (Key) other;
+				return functionId == key.functionId && Arrays.equals(arguments, key.arguments);
+			}
+		}
+	}
+
+	/**
+	 * The commands generated by an inline function call with constant
+	 * arguments
+	 * 
+	 * @author Earthcomputer
+	 */
+	public static class Expansion {
+		private Key key;
+		private List<String> commands;
+		private Map<Key, Integer> nestedUses;
+		private String outlinedFunctionId;
+
+		private Expansion(Key key, List<String> commands, Map<Key, Integer> nestedUses) {
+			this.key = key;
+			this.commands = commands;
+			this.nestedUses = nestedUses;
+		}
+
+		/**
+		 * Gets the function and constant arguments this is an expansion of
+		 * 
+		 * @return The key
+		 */
+		public Key getKey() {
+			return key;
+		}
+
+		/**
+		 * Gets the commands generated by the inline function
+		 * 
+		 * @return The generated commands
+		 */
+		public List<String> getCommands() {
+			return commands;
+		}
+
+		/**
+		 * Gets the ID of the generated function these commands have been
+		 * outlined to
+		 * 
+		 * @return The outlined function ID, or <tt>null</tt> if the commands
+		 *         are copied into the caller
+		 */
+		public String getOutlinedFunctionId() {
+			return outlinedFunctionId;
+		}
+
+		/**
+		 * Adds the commands that a call to this expansion compiles to
+		 * 
+		 * @param commands
+		 *            - the command list to add to
+		 */
+		public void addCallTo(List<String> commands) {
+			if (outlinedFunctionId == null) {
+				commands.addAll(this.commands);
+			} else {
+				commands.add("function " + outlinedFunctionId);
+			}
+		}
+	}
+
+}
@@ -18,6 +18,15 @@ public class Keys {
 	public static final UserDataKey<List<String>> NAMESPACES = (UserDataKey<List<String>>) (UserDataKey<?>) new UserDataKey<>(
 			List.class);
 	public static final UserDataKey<Object> CONST_VALUE = new UserDataKey<>(Object.class);
+	public static final UserDataKey<Boolean> CONST_EVALUATED = new UserDataKey<>(Boolean.class);
 	public static final UserDataKey<Boolean> REFERENCED = new UserDataKey<>(Boolean.class);
+	public static final UserDataKey<Boolean> REACHABLE = new UserDataKey<>(Boolean.class);
+	public static final UserDataKey<Long> EXPANSION_SIZE = new UserDataKey<>(Long.class);
+	public static final UserDataKey<String> REGISTER = new UserDataKey<>(String.class);
+	public static final UserDataKey<Integer> SPREAD_TICKS = new UserDataKey<>(Integer.class);
+	public static final UserDataKey<Integer> PERIOD = new UserDataKey<>(Integer.class);
+	public static final UserDataKey<Boolean> FIELD = new UserDataKey<>(Boolean.class);
+	public static final UserDataKey<CommandParser.CommandTemplate> COMMAND_TEMPLATE = new UserDataKey<>(
+			CommandParser.CommandTemplate.class);
 
 }
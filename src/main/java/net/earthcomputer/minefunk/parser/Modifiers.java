@@ -34,6 +34,19 @@ public class Modifiers {
 	 * initializer and cannot be modified afterwards.
 	 */
 	public static final int CONST = 2;
+	/**
+	 * This modifier goes on functions, and has the number of ticks as an
+	 * argument, e.g. <tt>spread(4)</tt>. If present, calling the function
+	 * starts it, and its commands are run a part at a time over that many
+	 * ticks.
+	 */
+	public static final int SPREAD = 4;
+	/**
+	 * This modifier goes on functions, and has a number of ticks as an
+	 * argument, e.g. <tt>every(20)</tt>. If present, the function is run by
+	 * the tick function once every that many ticks.
+	 */
+	public static final int EVERY = 8;
 
 	/**
 	 * Flags containing all modifiers allowed on type definitions
@@ -46,11 +59,13 @@ public class Modifiers {
 	/**
 	 * Flags containing all modifiers allowed on function definitions
 	 */
-	public static final int ALLOWED_FUNCTION_MODIFIERS = INLINE;
+	public static final int ALLOWED_FUNCTION_MODIFIERS = INLINE | SPREAD | EVERY;
 
 	static {
 		modifierNames.put(INLINE, "inline");
 		modifierNames.put(CONST, "const");
+		modifierNames.put(SPREAD, "spread");
+		modifierNames.put(EVERY, "every");
 	}
 
 	/**
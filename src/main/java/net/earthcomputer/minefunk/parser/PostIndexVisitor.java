@@ -1,5 +1,7 @@
 package net.earthcomputer.minefunk.parser;
 
+import static net.earthcomputer.minefunk.parser.MinefunkParserTreeConstants.*;
+
 import net.earthcomputer.minefunk.Util;
 import net.earthcomputer.minefunk.parser.Index.FunctionId;
 import net.earthcomputer.minefunk.parser.IndexerVisitor.Data;
@@ -13,6 +15,11 @@ import net.earthcomputer.minefunk.parser.IndexerVisitor.Data;
  */
 public class PostIndexVisitor extends IndexVisitor {
 
+	/**
+	 * The maximum length of the name of a scoreboard player
+	 */
+	private static final int MAX_SCORE_HOLDER_LENGTH = 40;
+
 	@Override
 	public Object visit(ASTCommandStmt node, Object data) {
 		CommandParser.checkWildcardsAgainstIndex(node, ((Data) data).index, ((Data) data).exceptions);
@@ -85,7 +92,109 @@ public class PostIndexVisitor extends IndexVisitor {
 			ASTTypeDef typeDef = ((Data) data).index.getTypeDefinition(varType);
 			ASTUtil.getNodeValue(node).setUserData(Keys.TYPE_ID, ASTUtil.getNodeValue(typeDef).getUserData(Keys.ID));
 		}
-		return super.visit(node, data);
+		super.visit(node, data);
+		if (varType != null && ((Data) data).index.isRuntimeVariable(node)) {
+			// Runtime variables are stored on the scoreboard, which only
+			// holds ints
+			if (!varType.equals(Type.INT)) {
+				((Data) data).exceptions.add(
+						Util.createParseException("Non-const variables must be ints", ASTUtil.getTypeNode(node)));
+			} else if (ASTUtil.getInitializer(node) != null) {
+				checkIntExpression(ASTUtil.getInitializer(node), data);
+			}
+			if (((Data) data).index.isField(node)
+					&& ((Data) data).index.getScoreHolder(node).length() > MAX_SCORE_HOLDER_LENGTH) {
+				((Data) data).exceptions.add(Util.createParseException(
+						"Field name is too long to store on the scoreboard", ASTUtil.getNameNode(node)));
+			}
+		}
+		return data;
+	}
+
+	@Override
+	public Object visit(ASTAssignStmt node, Object data) {
+		super.visit(node, data);
+		ASTVarDeclStmt varDecl = ((Data) data).index.getFrame().resolveVariableReference(ASTUtil.getVariable(node));
+		if (varDecl == null) {
+			((Data) data).exceptions
+					.add(Util.createParseException("Undefined variable", ASTUtil.getVariableNode(node)));
+			return data;
+		}
+		ASTUtil.getNodeValue(node).setUserData(Keys.ID, ASTUtil.getNodeValue(varDecl).getUserData(Keys.ID));
+		ASTUtil.getNodeValue(varDecl).setUserData(Keys.REFERENCED, true);
+		if (!((Data) data).index.isRuntimeVariable(varDecl)) {
+			((Data) data).exceptions.add(
+					Util.createParseException("Cannot assign to a const variable", ASTUtil.getVariableNode(node)));
+			return data;
+		}
+		Node expr = ASTUtil.getExpression(node);
+		if (ASTUtil.getOperator(node).equals("><")) {
+			ASTVarDeclStmt other = expr.getId() == JJTVARACCESSEXPR ? ((Data) data).index.getFrame()
+					.resolveVariableReference(ASTUtil.getVariable((ASTVarAccessExpr) expr)) : null;
+			if (other == null || !((Data) data).index.isRuntimeVariable(other)) {
+				((Data) data).exceptions
+						.add(Util.createParseException("Can only swap with a non-const variable", expr));
+			}
+		} else {
+			checkIntExpression(expr, data);
+		}
+		return data;
+	}
+
+	@Override
+	public Object visit(ASTForStmt node, Object data) {
+		super.visit(node, data);
+		ASTVarDeclStmt variable = ASTUtil.getLoopVariable(node);
+		Type varType = ((Data) data).index.getFrame().resolveType(ASTUtil.getType(variable));
+		if (varType == null) {
+			// Undefined type, which has already been reported
+			return data;
+		}
+		if (ASTUtil.isRange(node) && !varType.equals(Type.INT)) {
+			((Data) data).exceptions
+					.add(Util.createParseException("Only ints can loop over a range", ASTUtil.getTypeNode(variable)));
+			return data;
+		}
+		for (Node value : ASTUtil.getValues(node)) {
+			if (value.getId() == JJTVARACCESSEXPR && ASTUtil.getNodeValue(value).getUserData(Keys.ID) == null) {
+				// Undefined variable, which has already been reported
+				continue;
+			}
+			Type type = ExpressionParser.getExpressionType(value, ((Data) data).index);
+			if (type != null && !type.equals(varType)) {
+				((Data) data).exceptions.add(Util.createParseException("Expected a value of type " + varType, value));
+			}
+		}
+		return data;
+	}
+
+	@Override
+	public Object visit(ASTSwitchStmt node, Object data) {
+		super.visit(node, data);
+		Node objective = ASTUtil.getObjective(node);
+		if (objective.getId() != JJTVARACCESSEXPR || ASTUtil.getNodeValue(objective).getUserData(Keys.ID) != null) {
+			Type type = ExpressionParser.getExpressionType(objective, ((Data) data).index);
+			if (type != null && !type.equals(Type.STRING)) {
+				((Data) data).exceptions.add(Util.createParseException("Expected a string", objective));
+			}
+		}
+		for (ASTSwitchCase switchCase : ASTUtil.getCases(node)) {
+			if (!ASTUtil.isDefault(switchCase)) {
+				checkIntExpression(ASTUtil.getValue(switchCase), data);
+			}
+		}
+		return data;
+	}
+
+	private static void checkIntExpression(Node expr, Object data) {
+		if (expr.getId() == JJTVARACCESSEXPR && ASTUtil.getNodeValue(expr).getUserData(Keys.ID) == null) {
+			// Undefined variable, which has already been reported
+			return;
+		}
+		Type type = ExpressionParser.getExpressionType(expr, ((Data) data).index);
+		if (type != null && !type.equals(Type.INT)) {
+			((Data) data).exceptions.add(Util.createParseException("Expected an int", expr));
+		}
 	}
 
 }
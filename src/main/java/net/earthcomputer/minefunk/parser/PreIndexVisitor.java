@@ -39,10 +39,32 @@ public class PreIndexVisitor extends MinefunkParserDefaultVisitor implements Min
 	@Override
 	public Object visit(ASTFunction node, Object data) {
 		int modifiers = getModifiers(node);
+		if ((modifiers & Modifiers.SPREAD) != 0) {
+			if ((modifiers & Modifiers.INLINE) != 0) {
+				addException(data, Util.createParseException("Inline functions can't be spread over several ticks",
+						ASTUtil.getModifiersNode(node)));
+			} else if (getParameters(node).length != 0) {
+				addException(data, Util.createParseException(
+						"Functions with parameters can't be spread over several ticks", ASTUtil.getModifiersNode(node)));
+			}
+		}
+		if ((modifiers & Modifiers.EVERY) != 0) {
+			if ((modifiers & Modifiers.INLINE) != 0) {
+				addException(data, Util.createParseException("Inline functions can't be run periodically",
+						ASTUtil.getModifiersNode(node)));
+			} else if (getParameters(node).length != 0) {
+				addException(data, Util.createParseException("Functions with parameters can't be run periodically",
+						ASTUtil.getModifiersNode(node)));
+			}
+		}
 		if ((modifiers & Modifiers.INLINE) == 0) {
-			if (getParameters(node).length != 0) {
-				addException(data,
-						Util.createParseException("Non-inline functions with parameters are not supported yet", node));
+			// Non-inline functions are specialized for each set of constant
+			// arguments they are called with
+			for (ASTVarDeclStmt parameter : getParameters(node)) {
+				if ((getModifiers(parameter) & Modifiers.CONST) == 0) {
+					addException(data, Util.createParseException("Parameters of non-inline functions must be const",
+							getNameNode(parameter)));
+				}
 			}
 		}
 		if (!getReturnType(node).isVoid()) {
@@ -57,11 +79,48 @@ public class PreIndexVisitor extends MinefunkParserDefaultVisitor implements Min
 		return super.visit(node, data);
 	}
 
+	@Override
+	public Object visit(ASTForStmt node, Object data) {
+		ASTVarDeclStmt variable = getLoopVariable(node);
+		if ((getModifiers(variable) & Modifiers.CONST) == 0) {
+			addException(data, Util.createParseException("Loop variables must be const", getNameNode(variable)));
+		}
+		if (getInitializer(variable) != null) {
+			addException(data,
+					Util.createParseException("Loop variables can't have initializers", getInitializer(variable)));
+		}
+		if (getBody(node).getId() == JJTVARDECLSTMT) {
+			addException(data, Util.createParseException(
+					"Variables declared in a for loop must be inside a block", getBody(node)));
+		}
+		return super.visit(node, data);
+	}
+
+	@Override
+	public Object visit(ASTSwitchStmt node, Object data) {
+		boolean hasDefault = false;
+		for (ASTSwitchCase switchCase : getCases(node)) {
+			if (isDefault(switchCase)) {
+				if (hasDefault) {
+					addException(data, Util.createParseException("Duplicate default case", switchCase));
+				}
+				hasDefault = true;
+			}
+			if (getBody(switchCase).getId() == JJTVARDECLSTMT) {
+				addException(data, Util.createParseException(
+						"Variables declared in a switch case must be inside a block", getBody(switchCase)));
+			}
+		}
+		return super.visit(node, data);
+	}
+
 	@Override
 	public Object visit(ASTVarDeclStmt node, Object data) {
 		int modifiers = getModifiers(node);
-		if ((modifiers & Modifiers.CONST) == 0) {
-			addException(data, Util.createParseException("Non-const variables not supported yet", node));
+		if ((modifiers & Modifiers.CONST) == 0 && node.jjtGetParent() instanceof ASTNamespace
+				&& getInitializer(node) != null) {
+			addException(data, Util.createParseException("Non-const fields with initializers are not supported yet",
+					getInitializer(node)));
 		}
 		modifiers &= ~Modifiers.ALLOWED_VARIABLE_MODIFIERS;
 		if (modifiers != Modifiers.NONE) {
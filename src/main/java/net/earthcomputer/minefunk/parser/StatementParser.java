@@ -2,8 +2,11 @@ package net.earthcomputer.minefunk.parser;
 
 import static net.earthcomputer.minefunk.parser.MinefunkParserTreeConstants.*;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import net.earthcomputer.minefunk.Util;
+
 /**
  * Utility class for performing operations on statements
  * 
@@ -11,6 +14,15 @@ import java.util.List;
  */
 public class StatementParser {
 
+	/**
+	 * The most times a single for statement may be unrolled. The expansion
+	 * size check can't evaluate ranges which depend on loop variables or
+	 * inline function parameters, so the commands unrolled from a for
+	 * statement are also checked against the maximum expansion size during
+	 * code generation, which covers nested for statements.
+	 */
+	public static final int MAX_UNROLLED_ITERATIONS = 1000000;
+
 	/**
 	 * Compiles the given statement to a raw Minecraft command list
 	 * 
@@ -47,8 +59,224 @@ public class StatementParser {
 					exceptions);
 			break;
 		case JJTVARDECLSTMT:
-			index.getFrame().addLocalVariableDeclaration((ASTVarDeclStmt) stmt, exceptions);
+			ASTVarDeclStmt varDecl = (ASTVarDeclStmt) stmt;
+			index.getFrame().addLocalVariableDeclaration(varDecl, exceptions);
+			if (index.isRuntimeVariable(varDecl)) {
+				index.allocateRegister(varDecl);
+				Node initializer = ASTUtil.getInitializer(varDecl);
+				if (initializer == null) {
+					commands.add("scoreboard players set " + index.getScore(varDecl) + " 0");
+				} else {
+					ExpressionParser.toScoreCommands(index.getScore(varDecl), "=", initializer, index, commands,
+							exceptions);
+				}
+			} else if (ASTUtil.getInitializer(varDecl) != null) {
+				// Evaluate again in case the initializer refers to a loop
+				// variable or inline function parameter, which may have a
+				// different value each time
+				try {
+					index.getFrame().setConstLocalVariableValue(varDecl,
+							ExpressionParser.staticEvaluateExpression(ASTUtil.getInitializer(varDecl), index));
+				} catch (ParseException e) {
+					// Keep the value it was given when checking for cyclic
+					// references
+				}
+			}
 			break;
+		case JJTASSIGNSTMT:
+			ASTAssignStmt assignStmt = (ASTAssignStmt) stmt;
+			ASTVarDeclStmt target = index.getFrame().resolveVariableReference(ASTUtil.getVariable(assignStmt));
+			ExpressionParser.toScoreCommands(index.getScore(target), ASTUtil.getOperator(assignStmt),
+					ASTUtil.getExpression(assignStmt), index, commands, exceptions);
+			break;
+		case JJTSWITCHSTMT:
+			index.getSwitchGenerator().toCommandList((ASTSwitchStmt) stmt, index, commands, exceptions);
+			break;
+		case JJTFORSTMT:
+			ASTForStmt forStmt = (ASTForStmt) stmt;
+			List<Object> values = getLoopValues(forStmt, index, exceptions);
+			if (values == null) {
+				return;
+			}
+			// Unroll the loop, with the loop variable as a const local
+			index.startUnrolling();
+			int startSize = commands.size();
+			ASTVarDeclStmt loopVariable = ASTUtil.getLoopVariable(forStmt);
+			index.getFrame().pushBlock();
+			index.getFrame().addLocalVariableDeclaration(loopVariable, exceptions);
+			for (Object value : values) {
+				index.getFrame().setConstLocalVariableValue(loopVariable, value);
+				index.getFrame().pushBlock();
+				toCommandList(ASTUtil.getBody(forStmt), index, commands, exceptions);
+				index.getFrame().popBlock();
+				// Stop once a nested loop has gone over the limit, rather
+				// than reporting it again for every iteration
+				if (index.isUnrollingLimitExceeded()) {
+					break;
+				}
+				if (index.getMaxExpansionSize() > 0 && commands.size() - startSize > index.getMaxExpansionSize()) {
+					exceptions.add(Util.createParseException("This for loop expands to more than "
+							+ index.getMaxExpansionSize() + " commands, the maximum expansion size", stmt));
+					index.markUnrollingLimitExceeded();
+					break;
+				}
+			}
+			index.getFrame().popBlock();
+			index.finishUnrolling();
+			break;
+		}
+	}
+
+	/**
+	 * Statically evaluates the values which a for statement loops over
+	 * 
+	 * @param stmt
+	 *            - the for statement
+	 * @param index
+	 *            - the index
+	 * @param exceptions
+	 *            - the list of compiler errors to add to
+	 * @return The values, or <tt>null</tt> if they couldn't be evaluated
+	 */
+	private static List<Object> getLoopValues(ASTForStmt stmt, Index index, List<ParseException> exceptions) {
+		Node[] valueNodes = ASTUtil.getValues(stmt);
+		Object[] constValues = new Object[valueNodes.length];
+		for (int i = 0; i < valueNodes.length; i++) {
+			try {
+				constValues[i] = ExpressionParser.staticEvaluateExpression(valueNodes[i], index);
+			} catch (ParseException e) {
+				exceptions.add(e);
+				return null;
+			}
+		}
+		if (!ASTUtil.isRange(stmt)) {
+			List<Object> values = new ArrayList<>(constValues.length);
+			for (Object value : constValues) {
+				values.add(value);
+			}
+			return values;
+		}
+		int first = (Integer) constValues[0];
+		int last = (Integer) constValues[1];
+		if ((long) last - first >= MAX_UNROLLED_ITERATIONS) {
+			exceptions.add(Util.createParseException(
+					"A for loop can't be unrolled more than " + MAX_UNROLLED_ITERATIONS + " times", stmt));
+			return null;
+		}
+		List<Object> values = new ArrayList<>();
+		for (long value = first; value <= last; value++) {
+			values.add((int) value);
+		}
+		return values;
+	}
+
+	/**
+	 * Gets how many times a for statement will be unrolled, without the
+	 * frame it is in. Bounds which are const locals are evaluated through
+	 * their initializers. Values which can't be evaluated, such as loop
+	 * variables and inline function parameters, are treated as making a range
+	 * of 1 value, and such loops are checked during code generation instead.
+	 * 
+	 * @param stmt
+	 *            - the for statement
+	 * @param index
+	 *            - the index
+	 * @return The number of iterations
+	 */
+	private static long getIterationCount(ASTForStmt stmt, Index index) {
+		Node[] valueNodes = ASTUtil.getValues(stmt);
+		if (!ASTUtil.isRange(stmt)) {
+			return valueNodes.length;
+		}
+		Integer[] bounds = new Integer[2];
+		for (int i = 0; i < 2; i++) {
+			bounds[i] = getConstantBound(valueNodes[i], index);
+			if (bounds[i] == null) {
+				return 1;
+			}
+		}
+		return Math.max(0, (long) bounds[1] - bounds[0] + 1);
+	}
+
+	/**
+	 * Evaluates a bound of a range without the frame it is in
+	 * 
+	 * @param value
+	 *            - the bound
+	 * @param index
+	 *            - the index
+	 * @return The value of the bound, or <tt>null</tt> if it depends on the
+	 *         frame
+	 */
+	private static Integer getConstantBound(Node value, Index index) {
+		if (value.getId() == JJTINTLITERALEXPR) {
+			return ASTUtil.getValue((ASTIntLiteralExpr) value);
+		}
+		if (value.getId() != JJTVARACCESSEXPR) {
+			return null;
+		}
+		Integer id = ASTUtil.getNodeValue(value).getUserData(Keys.ID);
+		ASTVarDeclStmt varDecl = id == null ? null : index.getVariableById(id);
+		if (varDecl == null || index.isRuntimeVariable(varDecl)) {
+			return null;
+		}
+		if (index.isField(varDecl)) {
+			Object fieldValue = index.getConstantFieldValue(varDecl);
+			return fieldValue instanceof Integer ? (Integer) fieldValue : null;
+		}
+		// Const locals can't refer to themselves, so this terminates
+		Node initializer = ASTUtil.getInitializer(varDecl);
+		return initializer == null ? null : getConstantBound(initializer, index);
+	}
+
+	/**
+	 * Gets how many commands the given statement compiles to, without
+	 * generating them. Inline function calls count as the size of their
+	 * expansion, which must already have been computed (see
+	 * {@link Index#computeExpansionSizes}).
+	 * 
+	 * @param stmt
+	 *            - the statement
+	 * @param index
+	 *            - the index
+	 * @return The number of commands, or {@link Long#MAX_VALUE} if there are
+	 *         too many to count
+	 */
+	public static long getExpandedSize(Node stmt, Index index) {
+		switch (stmt.getId()) {
+		case JJTBLOCKSTMT:
+			long size = 0;
+			for (Node child : ASTUtil.getChildren((ASTBlockStmt) stmt)) {
+				size += getExpandedSize(child, index);
+				if (size < 0) {
+					return Long.MAX_VALUE;
+				}
+			}
+			return size;
+		case JJTCOMMANDSTMT:
+			return 1;
+		case JJTEXPRESSIONSTMT:
+			return ExpressionParser.getExpandedSize(ASTUtil.getExpression((ASTExpressionStmt) stmt), index);
+		case JJTVARDECLSTMT:
+			if (!index.isRuntimeVariable((ASTVarDeclStmt) stmt)) {
+				return 0;
+			}
+			Node initializer = ASTUtil.getInitializer((ASTVarDeclStmt) stmt);
+			return initializer == null ? 1 : ExpressionParser.getScoreCommandsSize("=", initializer, index);
+		case JJTASSIGNSTMT:
+			return ExpressionParser.getScoreCommandsSize(ASTUtil.getOperator((ASTAssignStmt) stmt),
+					ASTUtil.getExpression((ASTAssignStmt) stmt), index);
+		case JJTSWITCHSTMT:
+			return SwitchGenerator.getExpandedSize((ASTSwitchStmt) stmt, index);
+		case JJTFORSTMT:
+			long iterations = getIterationCount((ASTForStmt) stmt, index);
+			long bodySize = getExpandedSize(ASTUtil.getBody((ASTForStmt) stmt), index);
+			if (iterations != 0 && bodySize > Long.MAX_VALUE / iterations) {
+				return Long.MAX_VALUE;
+			}
+			return iterations * bodySize;
+		default:
+			return 0;
 		}
 	}
 
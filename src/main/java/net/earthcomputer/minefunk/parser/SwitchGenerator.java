@@ -0,0 +1,269 @@
+package net.earthcomputer.minefunk.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.earthcomputer.minefunk.RegisterAllocator;
+import net.earthcomputer.minefunk.Util;
+
+/**
+ * Compiles switch statements, which run the case matching the score of the
+ * entity running the function (<tt>@s</tt>) in a scoreboard objective. The
+ * body of each case is generated into its own function, and the right one is
+ * found by a binary search, so that only about <tt>2 log2(N)</tt> selectors
+ * are checked rather than one for each of the <tt>N</tt> cases. The default
+ * case runs for scores between the cases, but nothing runs for entities
+ * without a score.
+ * <p>
+ * While the binary search is running, the entity running it is given a tag,
+ * which is removed as soon as a case starts. This stops a case which changes
+ * the score from also running the case for the new score.
+ * <p>
+ * Since the cases are in different functions, they can't use the non-const
+ * local variables of the function containing the switch statement.
+ * 
+ * @author Earthcomputer
+ */
+public class SwitchGenerator {
+
+	/**
+	 * The prefix of the tag given to the entity running a switch statement
+	 */
+	public static final String TAG_PREFIX = "minefunk.switch";
+
+	private Map<String, List<String>> generatedFunctions = new LinkedHashMap<>();
+	private int switchCount = 0;
+
+	/**
+	 * Compiles the given switch statement
+	 * 
+	 * @param stmt
+	 *            - the switch statement
+	 * @param index
+	 *            - the index
+	 * @param commands
+	 *            - the list of commands to add to
+	 * @param exceptions
+	 *            - the list of compiler errors to add to
+	 */
+	public void toCommandList(ASTSwitchStmt stmt, Index index, List<String> commands,
+			List<ParseException> exceptions) {
+		String objective;
+		try {
+			objective = (String) ExpressionParser.staticEvaluateExpression(ASTUtil.getObjective(stmt), index);
+		} catch (ParseException e) {
+			exceptions.add(e);
+			return;
+		}
+		// Objective names are limited to 16 characters
+		if (objective.isEmpty() || objective.length() > 16 || objective.contains(" ")) {
+			exceptions.add(Util.createParseException("Invalid scoreboard objective name", ASTUtil.getObjective(stmt)));
+			return;
+		}
+
+		// Find the value of each case
+		TreeMap<Integer, ASTSwitchCase> cases = new TreeMap<>();
+		ASTSwitchCase defaultCase = null;
+		for (ASTSwitchCase switchCase : ASTUtil.getCases(stmt)) {
+			if (ASTUtil.isDefault(switchCase)) {
+				defaultCase = switchCase;
+				continue;
+			}
+			Integer value;
+			try {
+				value = (Integer) ExpressionParser.staticEvaluateExpression(ASTUtil.getValue(switchCase), index);
+			} catch (ParseException e) {
+				exceptions.add(e);
+				continue;
+			}
+			if (cases.putIfAbsent(value, switchCase) != null) {
+				exceptions.add(Util.createParseException("Duplicate case " + value, ASTUtil.getValue(switchCase)));
+			}
+		}
+		if (cases.isEmpty() && defaultCase == null) {
+			return;
+		}
+
+		// Divide the scores into ranges, each of which runs one case
+		String baseName = index.getFunctionId(index.getFrame().getNamespacesList(), "0switch" + switchCount);
+		String tag = TAG_PREFIX + switchCount;
+		switchCount++;
+		List<Leaf> leaves = new ArrayList<>();
+		String defaultFunction = baseName + "_default";
+		long nextMin = Integer.MIN_VALUE;
+		for (int value : cases.keySet()) {
+			if (defaultCase != null && nextMin < value) {
+				leaves.add(new Leaf((int) nextMin, value - 1, defaultFunction));
+			}
+			leaves.add(new Leaf(value, value, getCaseFunction(baseName, value)));
+			nextMin = (long) value + 1;
+		}
+		if (defaultCase != null && nextMin <= Integer.MAX_VALUE) {
+			leaves.add(new Leaf((int) nextMin, Integer.MAX_VALUE, defaultFunction));
+		}
+		boolean tagged = leaves.size() > 1;
+
+		// Generate the cases
+		int firstRegister = index.getRegisterCount();
+		for (Map.Entry<Integer, ASTSwitchCase> entry : cases.entrySet()) {
+			generateCase(entry.getValue(), getCaseFunction(baseName, entry.getKey()), tagged ? tag : null,
+					firstRegister, index, exceptions);
+		}
+		if (defaultCase != null) {
+			generateCase(defaultCase, defaultFunction, tagged ? tag : null, firstRegister, index, exceptions);
+		}
+
+		// Generate the binary search
+		String selector = "@s[" + (tagged ? "tag=" + tag + "," : "") + "score_" + objective + "_min=%d,score_"
+				+ objective + "=%d]";
+		if (tagged) {
+			commands.add("scoreboard players tag @s add " + tag);
+		}
+		generateSearch(leaves, 0, leaves.size(), selector, baseName, new int[1], commands);
+		if (tagged) {
+			// In case no case was run
+			commands.add("scoreboard players tag @s remove " + tag);
+		}
+	}
+
+	private static String getCaseFunction(String baseName, int value) {
+		return baseName + "_" + (value < 0 ? "m" + -(long) value : String.valueOf(value));
+	}
+
+	private void generateCase(ASTSwitchCase switchCase, String funcId, String tag, int firstRegister, Index index,
+			List<ParseException> exceptions) {
+		List<String> caseCommands = new ArrayList<>();
+		if (tag != null) {
+			caseCommands.add("scoreboard players tag @s remove " + tag);
+		}
+		index.getFrame().pushBlock();
+		StatementParser.toCommandList(ASTUtil.getBody(switchCase), index, caseCommands, exceptions);
+		index.getFrame().popBlock();
+		if (RegisterAllocator.usesRegistersBefore(caseCommands, firstRegister)) {
+			exceptions.add(Util.createParseException(
+					"Switch cases can't use non-const local variables declared outside the switch",
+					ASTUtil.getBody(switchCase)));
+		}
+		generatedFunctions.put(funcId, caseCommands);
+	}
+
+	/**
+	 * Generates the commands which find which of the given leaves contains
+	 * the score and run it, by comparing the score to the middle leaf
+	 * 
+	 * @param leaves
+	 *            - all the leaves, in ascending order of score
+	 * @param from
+	 *            - the first leaf to search, inclusive
+	 * @param to
+	 *            - the last leaf to search, exclusive
+	 * @param selector
+	 *            - the format of the selector which matches a range of
+	 *            scores
+	 * @param baseName
+	 *            - the prefix of the generated function names
+	 * @param nextNode
+	 *            - the number of the next generated search function
+	 * @param commands
+	 *            - the list of commands to add to
+	 */
+	private void generateSearch(List<Leaf> leaves, int from, int to, String selector, String baseName,
+			int[] nextNode, List<String> commands) {
+		if (to - from == 1) {
+			Leaf leaf = leaves.get(from);
+			commands.add("function " + leaf.funcId + " if " + String.format(selector, leaf.min, leaf.max));
+			return;
+		}
+		int mid = (from + to) / 2;
+		generateHalf(leaves, from, mid, selector, baseName, nextNode, commands);
+		generateHalf(leaves, mid, to, selector, baseName, nextNode, commands);
+	}
+
+	private void generateHalf(List<Leaf> leaves, int from, int to, String selector, String baseName,
+			int[] nextNode, List<String> commands) {
+		if (to - from == 1) {
+			generateSearch(leaves, from, to, selector, baseName, nextNode, commands);
+			return;
+		}
+		String nodeFunction = baseName + "_search" + nextNode[0]++;
+		List<String> nodeCommands = new ArrayList<>(2);
+		generateSearch(leaves, from, to, selector, baseName, nextNode, nodeCommands);
+		generatedFunctions.put(nodeFunction, nodeCommands);
+		commands.add("function " + nodeFunction + " if "
+				+ String.format(selector, leaves.get(from).min, leaves.get(to - 1).max));
+	}
+
+	/**
+	 * Gets how many commands the given switch statement compiles to,
+	 * including the commands in the functions generated for it. This is an
+	 * upper bound, since it doesn't know whether any cases have the same
+	 * value.
+	 * 
+	 * @param stmt
+	 *            - the switch statement
+	 * @param index
+	 *            - the index
+	 * @return The number of commands, or {@link Long#MAX_VALUE} if there are
+	 *         too many to count
+	 */
+	public static long getExpandedSize(ASTSwitchStmt stmt, Index index) {
+		ASTSwitchCase[] cases = ASTUtil.getCases(stmt);
+		// Each case may be separated from the next by a range for the default
+		// case, and each range adds one search function of two commands
+		long size = 2 + cases.length + 2L * (2 * cases.length + 1);
+		for (ASTSwitchCase switchCase : cases) {
+			size += StatementParser.getExpandedSize(ASTUtil.getBody(switchCase), index);
+			if (size < 0) {
+				return Long.MAX_VALUE;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the functions generated for switch statements so far
+	 * 
+	 * @return The generated functions, by final function name
+	 */
+	public Map<String, List<String>> getGeneratedFunctions() {
+		return Collections.unmodifiableMap(generatedFunctions);
+	}
+
+	/**
+	 * Gets how many switch statements have been compiled so far
+	 * 
+	 * @return The number of switch statements
+	 */
+	public int getSwitchCount() {
+		return switchCount;
+	}
+
+	/**
+	 * Forgets the generated functions, so that they are generated again by the
+	 * next code generation pass
+	 */
+	public void startNextPass() {
+		generatedFunctions.clear();
+		switchCount = 0;
+	}
+
+	/**
+	 * A range of scores which runs one case
+	 */
+	private static class Leaf {
+		private int min;
+		private int max;
+		private String funcId;
+
+		public Leaf(int min, int max, String funcId) {
+			this.min = min;
+			this.max = max;
+			this.funcId = funcId;
+		}
+	}
+
+}
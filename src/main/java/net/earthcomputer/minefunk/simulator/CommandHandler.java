@@ -0,0 +1,22 @@
+package net.earthcomputer.minefunk.simulator;
+
+/**
+ * Simulates the effect of a command on a {@link SimulatedWorld}
+ * 
+ * @author Earthcomputer
+ */
+@FunctionalInterface
+public interface CommandHandler {
+
+	/**
+	 * Runs a command
+	 * 
+	 * @param world
+	 *            - the world to run the command in
+	 * @param args
+	 *            - the arguments of the command, the first of which is the
+	 *            command name
+	 */
+	void execute(SimulatedWorld world, String[] args);
+
+}
@@ -0,0 +1,201 @@
+package net.earthcomputer.minefunk.simulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A mocked Minecraft world, containing only the state which the simulated
+ * commands can change: game rules, scores, tags and chat output. Entities are
+ * not simulated, so selectors are treated as plain score holder names.
+ * 
+ * @author Earthcomputer
+ */
+public class SimulatedWorld {
+
+	private Map<String, String> gameRules = new HashMap<>();
+	private Map<String, Map<String, Integer>> scores = new HashMap<>();
+	private Map<String, Set<String>> tags = new HashMap<>();
+	private List<String> output = new ArrayList<>();
+
+	public SimulatedWorld() {
+		gameRules.put("maxCommandChainLength", "65536");
+		gameRules.put("commandBlockOutput", "true");
+		gameRules.put("logAdminCommands", "true");
+		gameRules.put("sendCommandFeedback", "true");
+	}
+
+	/**
+	 * Gets the value of a game rule
+	 * 
+	 * @param rule
+	 *            - the game rule
+	 * @return The value, or <tt>null</tt> if the game rule has not been set
+	 */
+	public String getGameRule(String rule) {
+		return gameRules.get(rule);
+	}
+
+	/**
+	 * Sets the value of a game rule
+	 * 
+	 * @param rule
+	 *            - the game rule
+	 * @param value
+	 *            - the value
+	 */
+	public void setGameRule(String rule, String value) {
+		gameRules.put(rule, value);
+	}
+
+	/**
+	 * Gets the maximum number of commands which may run in one function call,
+	 * from the <tt>maxCommandChainLength</tt> game rule
+	 * 
+	 * @return The maximum command chain length
+	 */
+	public int getMaxCommandChainLength() {
+		try {
+			return Integer.parseInt(gameRules.get("maxCommandChainLength"));
+		} catch (NumberFormatException e) {
+			return 65536;
+		}
+	}
+
+	/**
+	 * Adds a scoreboard objective, if it doesn't already exist
+	 * 
+	 * @param objective
+	 *            - the name of the objective
+	 */
+	public void addObjective(String objective) {
+		scores.putIfAbsent(objective, new HashMap<>());
+	}
+
+	/**
+	 * Removes a scoreboard objective and all its scores
+	 * 
+	 * @param objective
+	 *            - the name of the objective
+	 */
+	public void removeObjective(String objective) {
+		scores.remove(objective);
+	}
+
+	/**
+	 * Gets a score
+	 * 
+	 * @param target
+	 *            - the score holder
+	 * @param objective
+	 *            - the objective
+	 * @return The score, or <tt>null</tt> if the score holder has no score for
+	 *         this objective or the objective doesn't exist
+	 */
+	public Integer getScore(String target, String objective) {
+		Map<String, Integer> objectiveScores = scores.get(objective);
+		return objectiveScores == null ? null : objectiveScores.get(target);
+	}
+
+	/**
+	 * Sets a score. Does nothing if the objective doesn't exist.
+	 * 
+	 * @param target
+	 *            - the score holder
+	 * @param objective
+	 *            - the objective
+	 * @param score
+	 *            - the new score
+	 */
+	public void setScore(String target, String objective, int score) {
+		Map<String, Integer> objectiveScores = scores.get(objective);
+		if (objectiveScores != null) {
+			objectiveScores.put(target, score);
+		}
+	}
+
+	/**
+	 * Resets a score holder's scores
+	 * 
+	 * @param target
+	 *            - the score holder
+	 * @param objective
+	 *            - the objective to reset, or <tt>null</tt> to reset all
+	 *            objectives
+	 */
+	public void resetScore(String target, String objective) {
+		if (objective == null) {
+			scores.values().forEach(objectiveScores -> objectiveScores.remove(target));
+		} else {
+			Map<String, Integer> objectiveScores = scores.get(objective);
+			if (objectiveScores != null) {
+				objectiveScores.remove(target);
+			}
+		}
+	}
+
+	/**
+	 * Gives a score holder a tag
+	 * 
+	 * @param target
+	 *            - the score holder
+	 * @param tag
+	 *            - the tag
+	 */
+	public void addTag(String target, String tag) {
+		tags.computeIfAbsent(target, k -> new HashSet<>()).add(tag);
+	}
+
+	/**
+	 * Removes a tag from a score holder
+	 * 
+	 * @param target
+	 *            - the score holder
+	 * @param tag
+	 *            - the tag
+	 */
+	public void removeTag(String target, String tag) {
+		Set<String> targetTags = tags.get(target);
+		if (targetTags != null) {
+			targetTags.remove(tag);
+		}
+	}
+
+	/**
+	 * Gets whether a score holder has a tag
+	 * 
+	 * @param target
+	 *            - the score holder
+	 * @param tag
+	 *            - the tag
+	 * @return Whether the score holder has the tag
+	 */
+	public boolean hasTag(String target, String tag) {
+		Set<String> targetTags = tags.get(target);
+		return targetTags != null && targetTags.contains(tag);
+	}
+
+	/**
+	 * Adds a message to the chat output
+	 * 
+	 * @param message
+	 *            - the message
+	 */
+	public void addOutput(String message) {
+		output.add(message);
+	}
+
+	/**
+	 * Gets all the chat output so far
+	 * 
+	 * @return The chat output
+	 */
+	public List<String> getOutput() {
+		return Collections.unmodifiableList(output);
+	}
+
+}
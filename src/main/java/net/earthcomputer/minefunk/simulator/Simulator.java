@@ -0,0 +1,564 @@
+package net.earthcomputer.minefunk.simulator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs <tt>.mcfunction</tt> files without Minecraft, to measure how many
+ * commands they execute. Functions are run the way Minecraft 1.12 runs them:
+ * all commands go through one queue, with a <tt>function</tt> command adding
+ * an entry to the front of the queue which expands to the commands of that
+ * function. Every entry taken from the queue counts towards the
+ * <tt>maxCommandChainLength</tt> game rule.
+ * <p>
+ * Only the commands with a registered {@link CommandHandler} have an effect on
+ * the {@link SimulatedWorld}; other commands are counted and otherwise
+ * ignored. There are no entities, but the function is run by a score holder
+ * called <tt>@s</tt>, so <tt>@s</tt> selectors which only check scores and
+ * tags are checked against the world. For example, <tt>function f if
+ * @s[score_o_min=1]</tt> only calls <tt>f</tt> if <tt>@s</tt> has a score of
+ * at least 1 in <tt>o</tt>. Other selectors can't be checked, so
+ * <tt>execute</tt> runs its command {@link #setExecutorCount(int) a fixed
+ * number of times}, and conditional <tt>function</tt> commands
+ * {@link #setConditionsPass(boolean) either always or never} call their
+ * function.
+ * 
+ * @author Earthcomputer
+ */
+public class Simulator {
+
+	private Map<String, List<String>> functions;
+	private Map<String, CommandHandler> handlers = new HashMap<>();
+	private SimulatedWorld world = new SimulatedWorld();
+	private int executorCount = 1;
+	private boolean conditionsPass = true;
+
+	/**
+	 * Creates a simulator for the given functions
+	 * 
+	 * @param functions
+	 *            - the commands of each function, by function name
+	 */
+	public Simulator(Map<String, List<String>> functions) {
+		this.functions = functions;
+		registerDefaultHandlers();
+	}
+
+	/**
+	 * Loads all the functions from an output directory
+	 * 
+	 * @param directory
+	 *            - the directory containing a folder for each namespace
+	 * @return The commands of each function, by function name
+	 * @throws IOException
+	 *             - if a function file couldn't be read
+	 */
+	public static Map<String, List<String>> loadFunctions(Path directory) throws IOException {
+		Map<String, List<String>> functions = new HashMap<>();
+		List<Path> files;
+		try (Stream<Path> paths = Files.walk(directory)) {
+			files = paths.filter(path -> path.toString().endsWith(".mcfunction")).collect(Collectors.toList());
+		}
+		for (Path file : files) {
+			Path relative = directory.relativize(file);
+			if (relative.getNameCount() < 2) {
+				continue;
+			}
+			StringBuilder name = new StringBuilder(relative.getName(0).toString()).append(':');
+			for (int i = 1; i < relative.getNameCount(); i++) {
+				if (i != 1) {
+					name.append('/');
+				}
+				name.append(relative.getName(i));
+			}
+			name.setLength(name.length() - ".mcfunction".length());
+			List<String> commands = new ArrayList<>();
+			for (String line : Files.readAllLines(file)) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					commands.add(line);
+				}
+			}
+			functions.put(name.toString(), commands);
+		}
+		return functions;
+	}
+
+	private void registerDefaultHandlers() {
+		registerHandler("gamerule", (world, args) -> {
+			if (args.length == 3) {
+				world.setGameRule(args[1], args[2]);
+			}
+		});
+		registerHandler("scoreboard", Simulator::executeScoreboard);
+		CommandHandler chatSink = (world, args) -> world
+				.addOutput(String.join(" ", Arrays.asList(args).subList(1, args.length)));
+		registerHandler("say", chatSink);
+		registerHandler("tellraw", chatSink);
+		registerHandler("tell", chatSink);
+		registerHandler("msg", chatSink);
+		registerHandler("w", chatSink);
+		registerHandler("title", chatSink);
+	}
+
+	private static void executeScoreboard(SimulatedWorld world, String[] args) {
+		if (args.length >= 4 && args[1].equals("objectives")) {
+			if (args[2].equals("add")) {
+				world.addObjective(args[3]);
+			} else if (args[2].equals("remove")) {
+				world.removeObjective(args[3]);
+			}
+		} else if (args.length >= 4 && args[1].equals("players")) {
+			String target = args[3];
+			try {
+				switch (args[2]) {
+				case "set":
+					if (args.length >= 6) {
+						world.setScore(target, args[4], Integer.parseInt(args[5]));
+					}
+					break;
+				case "add":
+				case "remove":
+					if (args.length >= 6) {
+						int amount = Integer.parseInt(args[5]);
+						Integer score = world.getScore(target, args[4]);
+						world.setScore(target, args[4],
+								(score == null ? 0 : score) + (args[2].equals("add") ? amount : -amount));
+					}
+					break;
+				case "reset":
+					world.resetScore(target, args.length >= 5 ? args[4] : null);
+					break;
+				case "operation":
+					if (args.length >= 8) {
+						executeScoreOperation(world, target, args[4], args[5], args[6], args[7]);
+					}
+					break;
+				case "tag":
+					if (args.length >= 6 && args[4].equals("add")) {
+						world.addTag(target, args[5]);
+					} else if (args.length >= 6 && args[4].equals("remove")) {
+						world.removeTag(target, args[5]);
+					}
+					break;
+				}
+			} catch (NumberFormatException e) {
+				// Invalid command, does nothing
+			}
+		}
+	}
+
+	private static void executeScoreOperation(SimulatedWorld world, String target, String objective,
+			String operation, String source, String sourceObjective) {
+		Integer a = world.getScore(target, objective);
+		Integer b = world.getScore(source, sourceObjective);
+		if (b == null) {
+			return;
+		}
+		int value = a == null ? 0 : a;
+		switch (operation) {
+		case "=":
+			value = b;
+			break;
+		case "+=":
+			value += b;
+			break;
+		case "-=":
+			value -= b;
+			break;
+		case "*=":
+			value *= b;
+			break;
+		case "/=":
+			if (b != 0) {
+				value /= b;
+			}
+			break;
+		case "%=":
+			if (b != 0) {
+				value %= b;
+			}
+			break;
+		case "<":
+			value = Math.min(value, b);
+			break;
+		case ">":
+			value = Math.max(value, b);
+			break;
+		case "><":
+			world.setScore(source, sourceObjective, value);
+			value = b;
+			break;
+		default:
+			return;
+		}
+		world.setScore(target, objective, value);
+	}
+
+	/**
+	 * Registers a handler for a command, replacing any previous handler for
+	 * that command
+	 * 
+	 * @param command
+	 *            - the command name
+	 * @param handler
+	 *            - the handler, or <tt>null</tt> to ignore the command
+	 */
+	public void registerHandler(String command, CommandHandler handler) {
+		if (handler == null) {
+			handlers.remove(command);
+		} else {
+			handlers.put(command, handler);
+		}
+	}
+
+	/**
+	 * Sets how many entities <tt>execute</tt> runs its command as when its
+	 * selector can't be checked against the world. Defaults to 1.
+	 * 
+	 * @param executorCount
+	 *            - the number of executors
+	 */
+	public void setExecutorCount(int executorCount) {
+		this.executorCount = executorCount;
+	}
+
+	/**
+	 * Sets whether the conditions of <tt>function &lt;name&gt; if|unless
+	 * &lt;selector&gt;</tt> commands pass when the selector can't be checked
+	 * against the world. Defaults to <tt>true</tt>, to measure the worst case.
+	 * 
+	 * @param conditionsPass
+	 *            - whether conditions pass
+	 */
+	public void setConditionsPass(boolean conditionsPass) {
+		this.conditionsPass = conditionsPass;
+	}
+
+	/**
+	 * Gets the simulated world, which keeps its state between function calls
+	 * 
+	 * @return The world
+	 */
+	public SimulatedWorld getWorld() {
+		return world;
+	}
+
+	/**
+	 * Calls a function from outside any other function, e.g. from a command
+	 * block
+	 * 
+	 * @param function
+	 *            - the function name
+	 * @return The statistics of the call
+	 * @throws IllegalArgumentException
+	 *             - if there is no function with that name
+	 */
+	public Result run(String function) {
+		List<String> commands = functions.get(function);
+		if (commands == null) {
+			throw new IllegalArgumentException("Unknown function: " + function);
+		}
+		Result result = new Result(function);
+		int maxChainLength = world.getMaxCommandChainLength();
+		Deque<QueuedEntry> queue = new ArrayDeque<>();
+		for (int i = commands.size() - 1; i >= 0; i--) {
+			queue.addFirst(new QueuedEntry(commands.get(i), null, 1));
+		}
+		result.maxDepth = 1;
+		while (!queue.isEmpty()) {
+			QueuedEntry entry = queue.removeFirst();
+			if (entry.function != null) {
+				expandFunction(entry, queue, maxChainLength, result);
+			} else {
+				result.commandsExecuted++;
+				executeCommand(entry.command, entry.depth, queue, maxChainLength, result);
+			}
+			result.chainLength++;
+			if (result.chainLength >= maxChainLength) {
+				result.chainLimitHit |= !queue.isEmpty();
+				break;
+			}
+		}
+		return result;
+	}
+
+	private void expandFunction(QueuedEntry entry, Deque<QueuedEntry> queue, int maxChainLength, Result result) {
+		List<String> commands = functions.get(entry.function);
+		if (commands == null) {
+			result.missingFunctions.add(entry.function);
+			return;
+		}
+		result.functionCalls++;
+		result.maxDepth = Math.max(result.maxDepth, entry.depth);
+		// Minecraft only adds as many commands as can still run
+		int count = Math.min(commands.size(), maxChainLength - queue.size());
+		if (count < commands.size()) {
+			result.chainLimitHit = true;
+		}
+		for (int i = count - 1; i >= 0; i--) {
+			queue.addFirst(new QueuedEntry(commands.get(i), null, entry.depth));
+		}
+	}
+
+	private void executeCommand(String command, int depth, Deque<QueuedEntry> queue, int maxChainLength,
+			Result result) {
+		String[] args = command.split(" ");
+		switch (args[0]) {
+		case "function":
+			if (args.length < 2) {
+				break;
+			}
+			if (args.length >= 4 && (args[2].equals("if") || args[2].equals("unless"))) {
+				Boolean matches = matchesExecutor(args[3]);
+				boolean pass = matches == null ? conditionsPass : matches == args[2].equals("if");
+				if (!pass) {
+					break;
+				}
+			}
+			if (queue.size() < maxChainLength) {
+				queue.addFirst(new QueuedEntry(null, args[1], depth + 1));
+			}
+			break;
+		case "execute":
+			// execute <entity> <x> <y> <z> [detect <x> <y> <z> <block> <data>]
+			// <command>
+			int commandStart = args.length > 5 && args[5].equals("detect") ? 11 : 5;
+			if (args.length > commandStart) {
+				String subCommand = String.join(" ", Arrays.asList(args).subList(commandStart, args.length));
+				Boolean matches = matchesExecutor(args[1]);
+				int count = matches == null ? executorCount : matches ? 1 : 0;
+				for (int i = 0; i < count; i++) {
+					executeCommand(subCommand, depth, queue, maxChainLength, result);
+				}
+			}
+			break;
+		default:
+			CommandHandler handler = handlers.get(args[0]);
+			if (handler == null) {
+				result.unhandledCommands++;
+			} else {
+				handler.execute(world, args);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Checks whether the score holder <tt>@s</tt> matches the given selector
+	 * 
+	 * @param selector
+	 *            - the selector
+	 * @return Whether <tt>@s</tt> matches, or <tt>null</tt> if the selector
+	 *         can't be checked against the world
+	 */
+	private Boolean matchesExecutor(String selector) {
+		if (selector.equals("@s")) {
+			return true;
+		}
+		if (!selector.startsWith("@s[") || !selector.endsWith("]")) {
+			return null;
+		}
+		boolean matches = true;
+		String argumentString = selector.substring(3, selector.length() - 1);
+		for (String argument : argumentString.split(",")) {
+			int equalsIndex = argument.indexOf('=');
+			if (equalsIndex < 0) {
+				return null;
+			}
+			String key = argument.substring(0, equalsIndex);
+			String value = argument.substring(equalsIndex + 1);
+			if (key.equals("tag")) {
+				if (value.startsWith("!")) {
+					matches &= !world.hasTag("@s", value.substring(1));
+				} else {
+					matches &= world.hasTag("@s", value);
+				}
+			} else if (key.startsWith("score_")) {
+				boolean min = key.endsWith("_min");
+				String objective = key.substring("score_".length(), key.length() - (min ? "_min".length() : 0));
+				Integer score = world.getScore("@s", objective);
+				try {
+					int bound = Integer.parseInt(value);
+					// Entities without a score never match a score argument
+					matches &= score != null && (min ? score >= bound : score <= bound);
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			} else {
+				return null;
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Runs functions from an output directory and prints statistics about
+	 * each call.
+	 * <p>
+	 * Usage: <tt>java -cp minefunk.jar
+	 * net.earthcomputer.minefunk.simulator.Simulator &lt;output-dir&gt;
+	 * [functions ...]</tt>. The functions are called in order, in the same
+	 * world. If none are given, every function is called.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("java -cp minefunk.jar " + Simulator.class.getName() + " <output-dir> [functions ...]");
+			return;
+		}
+		Map<String, List<String>> functions = loadFunctions(Paths.get(args[0]));
+		Simulator simulator = new Simulator(functions);
+		List<String> entryPoints = args.length > 1 ? Arrays.asList(args).subList(1, args.length)
+				: new ArrayList<>(new TreeSet<>(functions.keySet()));
+		for (String entryPoint : entryPoints) {
+			if (!functions.containsKey(entryPoint)) {
+				System.err.println("Unknown function: " + entryPoint);
+				continue;
+			}
+			System.out.println(simulator.run(entryPoint));
+		}
+	}
+
+	private static class QueuedEntry {
+		private final String command;
+		private final String function;
+		private final int depth;
+
+		private QueuedEntry(String command, String function, int depth) {
+			this.command = command;
+			this.function = function;
+			this.depth = depth;
+		}
+	}
+
+	/**
+	 * The statistics of a simulated function call
+	 * 
+	 * @author Earthcomputer
+	 */
+	public static class Result {
+		private String function;
+		private int commandsExecuted;
+		private int chainLength;
+		private int functionCalls;
+		private int maxDepth;
+		private int unhandledCommands;
+		private boolean chainLimitHit;
+		private Set<String> missingFunctions = new TreeSet<>();
+
+		private Result(String function) {
+			this.function = function;
+		}
+
+		/**
+		 * Gets the function which was called
+		 * 
+		 * @return The function name
+		 */
+		public String getFunction() {
+			return function;
+		}
+
+		/**
+		 * Gets the number of commands which were run, including
+		 * <tt>function</tt> commands
+		 * 
+		 * @return The number of commands executed
+		 */
+		public int getCommandsExecuted() {
+			return commandsExecuted;
+		}
+
+		/**
+		 * Gets the number of entries taken from the command queue, which is
+		 * what the <tt>maxCommandChainLength</tt> game rule limits. This is
+		 * the number of commands executed plus the number of function calls
+		 * made from inside a function.
+		 * 
+		 * @return The chain length
+		 */
+		public int getChainLength() {
+			return chainLength;
+		}
+
+		/**
+		 * Gets the number of functions called from inside a function
+		 * 
+		 * @return The number of function calls
+		 */
+		public int getFunctionCalls() {
+			return functionCalls;
+		}
+
+		/**
+		 * Gets the deepest nesting of function calls, where the function called
+		 * from outside is at depth 1
+		 * 
+		 * @return The maximum call depth
+		 */
+		public int getMaxDepth() {
+			return maxDepth;
+		}
+
+		/**
+		 * Gets the number of commands run which have no handler, and so had no
+		 * effect on the simulated world
+		 * 
+		 * @return The number of unhandled commands
+		 */
+		public int getUnhandledCommands() {
+			return unhandledCommands;
+		}
+
+		/**
+		 * Gets whether some commands didn't run because of the
+		 * <tt>maxCommandChainLength</tt> game rule
+		 * 
+		 * @return Whether the chain limit was hit
+		 */
+		public boolean isChainLimitHit() {
+			return chainLimitHit;
+		}
+
+		/**
+		 * Gets the functions which were called but don't exist
+		 * 
+		 * @return The missing functions
+		 */
+		public Set<String> getMissingFunctions() {
+			return Collections.unmodifiableSet(missingFunctions);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder str = new StringBuilder(function).append(": ").append(commandsExecuted)
+					.append(" commands, chain length ").append(chainLength).append(", ").append(functionCalls)
+					.append(" function calls, max depth ").append(maxDepth);
+			if (unhandledCommands != 0) {
+				str.append(", ").append(unhandledCommands).append(" not simulated");
+			}
+			if (chainLimitHit) {
+				str.append(", CHAIN LIMIT HIT");
+			}
+			if (!missingFunctions.isEmpty()) {
+				str.append(", missing functions ").append(missingFunctions);
+			}
+			return str.toString();
+		}
+	}
+
+}
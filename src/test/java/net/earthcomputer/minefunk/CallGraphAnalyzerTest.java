@@ -0,0 +1,199 @@
+package net.earthcomputer.minefunk;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that the incremental strongly connected components agree with the
+ * ones found from scratch as edges are added and removed
+ * 
+ * @author Earthcomputer
+ */
+public class CallGraphAnalyzerTest {
+
+	/**
+	 * Creates incremental components for a graph given as pairs of source and
+	 * target nodes
+	 */
+	private static CallGraphAnalyzer.IncrementalComponents create(int nodeCount, int... edges) {
+		List<List<Integer>> successors = new ArrayList<>();
+		for (int node = 0; node < nodeCount; node++) {
+			successors.add(new ArrayList<>());
+		}
+		for (int i = 0; i < edges.length; i += 2) {
+			successors.get(edges[i]).add(edges[i + 1]);
+		}
+		int[] offsets = new int[nodeCount + 1];
+		int[] targets = new int[edges.length / 2];
+		int edgeCount = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			offsets[node] = edgeCount;
+			for (int target : successors.get(node)) {
+				targets[edgeCount++] = target;
+			}
+		}
+		offsets[nodeCount] = edgeCount;
+		return new CallGraphAnalyzer.IncrementalComponents(nodeCount, offsets, targets);
+	}
+
+	@Test
+	public void testInitialComponents() {
+		CallGraphAnalyzer.IncrementalComponents components = create(5, 0, 1, 1, 2, 2, 0, 3, 3, 3, 4);
+		assertTrue(components.isConnectedComponent(0));
+		assertTrue(components.isInSameComponent(0, 2));
+		assertEquals(3, components.getComponentSize(1));
+		assertTrue(components.isConnectedComponent(3));
+		assertFalse(components.isConnectedComponent(4));
+	}
+
+	@Test
+	public void testAddEdgeMakesCycle() {
+		CallGraphAnalyzer.IncrementalComponents components = create(4, 0, 1, 1, 2, 2, 3);
+		assertFalse(components.isConnectedComponent(1));
+		assertTrue(components.addEdge(3, 1));
+		assertTrue(components.isConnectedComponent(1));
+		assertTrue(components.isInSameComponent(1, 3));
+		assertEquals(3, components.getComponentSize(2));
+		assertFalse(components.isConnectedComponent(0));
+		assertFalse(components.addEdge(3, 1));
+	}
+
+	@Test
+	public void testAddEdgeWithoutCycle() {
+		CallGraphAnalyzer.IncrementalComponents components = create(4, 0, 1, 2, 3);
+		assertTrue(components.addEdge(3, 0));
+		assertTrue(components.addEdge(2, 1));
+		for (int node = 0; node < 4; node++) {
+			assertFalse(components.isConnectedComponent(node));
+		}
+		assertDependencyOrder(components, 0, 1, 2, 3, 3, 0, 2, 1);
+	}
+
+	@Test
+	public void testRemoveEdgeSplitsCycle() {
+		CallGraphAnalyzer.IncrementalComponents components = create(4, 0, 1, 1, 2, 2, 0, 2, 3, 3, 2);
+		assertEquals(4, components.getComponentSize(0));
+		assertTrue(components.removeEdge(3, 2));
+		assertEquals(3, components.getComponentSize(0));
+		assertFalse(components.isConnectedComponent(3));
+		assertTrue(components.removeEdge(2, 0));
+		for (int node = 0; node < 4; node++) {
+			assertFalse(components.isConnectedComponent(node));
+		}
+		assertDependencyOrder(components, 0, 1, 1, 2, 2, 3);
+		assertFalse(components.removeEdge(2, 0));
+	}
+
+	@Test
+	public void testRemoveEdgeKeepsCycle() {
+		CallGraphAnalyzer.IncrementalComponents components = create(3, 0, 1, 1, 0, 1, 2, 2, 0);
+		assertTrue(components.removeEdge(1, 0));
+		assertTrue(components.isInSameComponent(0, 2));
+		assertEquals(3, components.getComponentSize(1));
+	}
+
+	@Test
+	public void testSelfReference() {
+		CallGraphAnalyzer.IncrementalComponents components = create(2, 0, 1);
+		assertTrue(components.addEdge(1, 1));
+		assertTrue(components.isConnectedComponent(1));
+		assertFalse(components.isConnectedComponent(0));
+		assertTrue(components.removeEdge(1, 1));
+		assertFalse(components.isConnectedComponent(1));
+	}
+
+	@Test
+	public void testAddNode() {
+		CallGraphAnalyzer.IncrementalComponents components = create(1);
+		int node = components.addNode();
+		assertEquals(1, node);
+		assertEquals(2, components.getNodeCount());
+		components.addEdge(0, node);
+		components.addEdge(node, 0);
+		assertTrue(components.isInSameComponent(0, node));
+	}
+
+	@Test
+	public void testRandomChangesMatchFullSearch() {
+		Random rand = new Random(12345);
+		int nodeCount = 30;
+		boolean[][] adjacency = new boolean[nodeCount][nodeCount];
+		CallGraphAnalyzer.IncrementalComponents components = create(nodeCount);
+		for (int step = 0; step < 2000; step++) {
+			int source = rand.nextInt(nodeCount);
+			int target = rand.nextInt(nodeCount);
+			// Remove edges less often than adding them, so that cycles form
+			if (rand.nextInt(3) == 0) {
+				assertEquals(adjacency[source][target], components.removeEdge(source, target));
+				adjacency[source][target] = false;
+			} else {
+				assertEquals(!adjacency[source][target], components.addEdge(source, target));
+				adjacency[source][target] = true;
+			}
+			if (step % 20 == 0) {
+				assertMatchesFullSearch(components, adjacency);
+			}
+		}
+		assertMatchesFullSearch(components, adjacency);
+	}
+
+	private static void assertMatchesFullSearch(CallGraphAnalyzer.IncrementalComponents components,
+			boolean[][] adjacency) {
+		int nodeCount = adjacency.length;
+		int[] offsets = new int[nodeCount + 1];
+		int[] targets = new int[nodeCount * nodeCount];
+		int edgeCount = 0;
+		List<Integer> edges = new ArrayList<>();
+		for (int node = 0; node < nodeCount; node++) {
+			offsets[node] = edgeCount;
+			for (int target = 0; target < nodeCount; target++) {
+				if (adjacency[node][target]) {
+					targets[edgeCount++] = target;
+					edges.add(node);
+					edges.add(target);
+				}
+			}
+		}
+		offsets[nodeCount] = edgeCount;
+		CallGraphAnalyzer.Components expected = CallGraphAnalyzer.StronglyConnectedComponentsFinder
+				.findStronglyConnectedComponents(nodeCount, offsets, targets);
+		for (int a = 0; a < nodeCount; a++) {
+			assertEquals(expected.isConnectedComponent(a), components.isConnectedComponent(a));
+			assertEquals(expected.getComponentSize(expected.getComponent(a)), components.getComponentSize(a));
+			for (int b = 0; b < nodeCount; b++) {
+				assertEquals(expected.getComponent(a) == expected.getComponent(b), components.isInSameComponent(a, b));
+			}
+		}
+		int[] edgeArray = new int[edges.size()];
+		for (int i = 0; i < edgeArray.length; i++) {
+			edgeArray[i] = edges.get(i);
+		}
+		assertDependencyOrder(components, edgeArray);
+	}
+
+	/**
+	 * Checks that each node comes after the nodes it references, unless they
+	 * are in the same component
+	 */
+	private static void assertDependencyOrder(CallGraphAnalyzer.IncrementalComponents components, int... edges) {
+		int[] order = components.getNodesInDependencyOrder();
+		int[] positions = new int[components.getNodeCount()];
+		Arrays.fill(positions, -1);
+		for (int i = 0; i < order.length; i++) {
+			assertEquals(-1, positions[order[i]]);
+			positions[order[i]] = i;
+		}
+		for (int i = 0; i < edges.length; i += 2) {
+			if (!components.isInSameComponent(edges[i], edges[i + 1])) {
+				assertTrue(positions[edges[i + 1]] < positions[edges[i]]);
+			}
+		}
+	}
+
+}
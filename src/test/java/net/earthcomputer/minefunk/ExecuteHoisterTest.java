@@ -0,0 +1,78 @@
+package net.earthcomputer.minefunk;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * Checks which runs of <tt>execute</tt> commands the execute hoister moves
+ * into generated functions
+ * 
+ * @author Earthcomputer
+ */
+public class ExecuteHoisterTest {
+
+	private static final String PREFIX = "execute @e[type=pig] ~ ~ ~ ";
+
+	private static Map<String, List<String>> hoist(String... commands) {
+		Map<String, List<String>> commandLists = new TreeMap<>();
+		commandLists.put("t:main", new ArrayList<>(Arrays.asList(commands)));
+		new ExecuteHoister(commandLists).hoist();
+		return commandLists;
+	}
+
+	@Test
+	public void testHoistsRun() {
+		Map<String, List<String>> commandLists = hoist(PREFIX + "say a", PREFIX + "say b", PREFIX + "say c");
+		assertEquals(Collections.singletonList(PREFIX + "function t:0execute0"), commandLists.get("t:main"));
+		assertEquals(Arrays.asList("say a", "say b", "say c"), commandLists.get("t:0execute0"));
+	}
+
+	@Test
+	public void testTeleportEndsRun() {
+		Map<String, List<String>> commandLists = hoist(PREFIX + "say a", PREFIX + "tp @s ~ ~5 ~",
+				PREFIX + "particle flame ~ ~ ~ 0 0 0 0 1");
+		assertEquals(Arrays.asList(PREFIX + "function t:0execute0", PREFIX + "particle flame ~ ~ ~ 0 0 0 0 1"),
+				commandLists.get("t:main"));
+		assertEquals(Arrays.asList("say a", "tp @s ~ ~5 ~"), commandLists.get("t:0execute0"));
+	}
+
+	@Test
+	public void testTeleportFirstIsNotHoisted() {
+		Map<String, List<String>> commandLists = hoist(PREFIX + "teleport @s ~ ~5 ~", PREFIX + "summon cow ~ ~ ~");
+		assertEquals(Arrays.asList(PREFIX + "teleport @s ~ ~5 ~", PREFIX + "summon cow ~ ~ ~"),
+				commandLists.get("t:main"));
+		assertEquals(1, commandLists.size());
+	}
+
+	@Test
+	public void testKillingCommandsEndRun() {
+		Map<String, List<String>> commandLists = hoist(PREFIX + "say a", PREFIX + "effect @s instant_damage 1 5",
+				PREFIX + "say b", PREFIX + "kill @s", PREFIX + "say c");
+		assertEquals(Arrays.asList(PREFIX + "function t:0execute0", PREFIX + "function t:0execute1", PREFIX + "say c"),
+				commandLists.get("t:main"));
+		assertEquals(Arrays.asList("say a", "effect @s instant_damage 1 5"), commandLists.get("t:0execute0"));
+		assertEquals(Arrays.asList("say b", "kill @s"), commandLists.get("t:0execute1"));
+	}
+
+	@Test
+	public void testCommandsAffectingOtherEntitiesAreNotHoisted() {
+		Map<String, List<String>> commandLists = hoist(PREFIX + "say a", PREFIX + "tp @p ~ ~ ~",
+				PREFIX + "setblock ~ ~ ~ stone");
+		assertEquals(1, commandLists.size());
+	}
+
+	@Test
+	public void testFlattensNestedExecute() {
+		Map<String, List<String>> commandLists = hoist("execute @e[type=pig] ~ ~ ~ execute @s ~ ~1 ~ say a");
+		assertEquals(Collections.singletonList("execute @e[type=pig] ~ ~1 ~ say a"), commandLists.get("t:main"));
+	}
+
+}
@@ -0,0 +1,73 @@
+package net.earthcomputer.minefunk;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks the peephole optimizer rules, in particular that they leave alone
+ * commands whose effect depends on the commands before them
+ * 
+ * @author Earthcomputer
+ */
+public class PeepholeOptimizerTest {
+
+	private static List<String> optimize(String... commands) {
+		List<String> commandList = new ArrayList<>(Arrays.asList(commands));
+		new PeepholeOptimizer().optimize(commandList);
+		return commandList;
+	}
+
+	private static void assertUnchanged(String... commands) {
+		assertEquals(Arrays.asList(commands), optimize(commands));
+	}
+
+	@Test
+	public void testOverwrittenScoreOfFakePlayer() {
+		assertEquals(Collections.singletonList("scoreboard players set x o 5"),
+				optimize("scoreboard players set x o 1", "scoreboard players set x o 5"));
+		assertEquals(Collections.singletonList("scoreboard players reset x"),
+				optimize("scoreboard players set x o 1", "scoreboard players reset x"));
+	}
+
+	@Test
+	public void testOverwrittenScoreOfStableSelector() {
+		assertEquals(Collections.singletonList("scoreboard players set @s o 5"),
+				optimize("scoreboard players set @s o 1", "scoreboard players set @s o 5"));
+		assertEquals(Collections.singletonList("scoreboard players set @e[type=cow,r=5] o 5"),
+				optimize("scoreboard players set @e[type=cow,r=5] o 1", "scoreboard players set @e[type=cow,r=5] o 5"));
+		assertEquals(Collections.singletonList("scoreboard players reset @a o"),
+				optimize("scoreboard players set @a o 1", "scoreboard players reset @a o"));
+	}
+
+	@Test
+	public void testScoreSetChangingSelectorMatchesIsKept() {
+		assertUnchanged("scoreboard players set @e[score_x_min=1] x 0", "scoreboard players set @e[score_x_min=1] x 5");
+		assertUnchanged("scoreboard players set @e[type=cow,score_x=3] x 4",
+				"scoreboard players reset @e[type=cow,score_x=3] x");
+		assertUnchanged("scoreboard players set @e[tag=a] x 0", "scoreboard players set @e[tag=a] x 5");
+		assertUnchanged("scoreboard players set @a[team=red] x 0", "scoreboard players set @a[team=red] x 5");
+		assertUnchanged("scoreboard players set @e[c=2] x 0", "scoreboard players set @e[c=2] x 5");
+		assertUnchanged("scoreboard players set * x 0", "scoreboard players set * x 5");
+	}
+
+	@Test
+	public void testDifferentScoresAreKept() {
+		assertUnchanged("scoreboard players set x o 1", "scoreboard players set x p 5");
+		assertUnchanged("scoreboard players set x o 1", "scoreboard players add x o 5");
+		assertUnchanged("scoreboard players set @r o 1", "scoreboard players set @r o 5");
+	}
+
+	@Test
+	public void testDuplicateIdempotentCommand() {
+		assertEquals(Collections.singletonList("gamerule commandBlockOutput false"),
+				optimize("gamerule commandBlockOutput false", "gamerule commandBlockOutput false"));
+		assertUnchanged("say hi", "say hi");
+	}
+
+}
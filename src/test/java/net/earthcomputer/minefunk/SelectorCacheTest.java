@@ -0,0 +1,84 @@
+package net.earthcomputer.minefunk;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks that the selector cache only replaces selectors while the entities
+ * they match can't change
+ * 
+ * @author Earthcomputer
+ */
+public class SelectorCacheTest {
+
+	private static final String TAG = SelectorCache.TAG_PREFIX + "0";
+
+	private static List<String> cache(String... commands) {
+		List<String> commandList = new ArrayList<>(Arrays.asList(commands));
+		new SelectorCache(2).apply(commandList);
+		return commandList;
+	}
+
+	private static void assertUnchanged(String... commands) {
+		assertEquals(Arrays.asList(commands), cache(commands));
+	}
+
+	@Test
+	public void testCachesRepeatedSelector() {
+		String tagSelector = "@e[tag=" + TAG + "]";
+		assertEquals(
+				Arrays.asList("scoreboard players tag @e[type=zombie,r=5] add " + TAG, "say " + tagSelector, "say hi",
+						"kill " + tagSelector, "scoreboard players tag " + tagSelector + " remove " + TAG),
+				cache("say @e[type=zombie,r=5]", "say hi", "kill @e[type=zombie,r=5]"));
+	}
+
+	@Test
+	public void testCheapSelectorIsNotCached() {
+		assertUnchanged("say @e[type=zombie]", "say @e[type=zombie]");
+	}
+
+	@Test
+	public void testTeamChangeEndsRun() {
+		assertUnchanged("say @e[team=red,r=5]", "scoreboard teams join red @p", "say @e[team=red,r=5]");
+		assertUnchanged("say @e[team=red,r=5]", "scoreboard teams empty red", "say @e[team=red,r=5]");
+	}
+
+	@Test
+	public void testScoreAndTagChangesEndRun() {
+		assertUnchanged("say @e[score_o_min=1]", "scoreboard players set @p o 1", "say @e[score_o_min=1]");
+		assertUnchanged("say @e[tag=a,r=5]", "scoreboard players tag @p add a", "say @e[tag=a,r=5]");
+		assertEquals(5, cache("say @e[r=5]", "scoreboard players tag @p add a", "say @e[r=5]").size());
+	}
+
+	@Test
+	public void testItemDropsEndRun() {
+		assertUnchanged("say @e[r=5]", "give @p stone 64", "say @e[r=5]");
+		assertUnchanged("say @e[type=item,r=5]", "setblock ~ ~ ~ air 0 destroy", "say @e[type=item,r=5]");
+		assertUnchanged("say @e[type=!zombie,r=5]", "fill ~ ~ ~ ~1 ~1 ~1 air 0 destroy", "say @e[type=!zombie,r=5]");
+		assertUnchanged("say @e[r=5]", "clone 0 0 0 1 1 1 5 5 5", "say @e[r=5]");
+	}
+
+	@Test
+	public void testItemDropsKeepOtherTypes() {
+		assertEquals(5, cache("say @e[type=zombie,r=5]", "give @p stone 64", "say @e[type=zombie,r=5]").size());
+		assertEquals(5, cache("say @e[type=!item,r=5]", "setblock ~ ~ ~ air 0 destroy", "say @e[type=!item,r=5]")
+				.size());
+	}
+
+	@Test
+	public void testCanChangeMatches() {
+		assertFalse(SelectorCache.canChangeMatches("say hi", "@e[r=5]"));
+		assertTrue(SelectorCache.canChangeMatches("kill @p", "@e[r=5]"));
+		assertTrue(SelectorCache.canChangeMatches("effect @p instant_damage 1 5", "@e[r=5]"));
+		assertTrue(SelectorCache.canChangeMatches("tp @p ~ ~1 ~", "@e[r=5]"));
+		assertFalse(SelectorCache.canChangeMatches("tp @p ~ ~1 ~", "@e[type=zombie,tag=a]"));
+		assertTrue(SelectorCache.canChangeMatches("scoreboard teams leave @p", "@e[team=red]"));
+		assertFalse(SelectorCache.canChangeMatches("scoreboard teams leave @p", "@e[type=zombie,r=5]"));
+	}
+
+}
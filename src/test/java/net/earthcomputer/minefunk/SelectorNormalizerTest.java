@@ -0,0 +1,77 @@
+package net.earthcomputer.minefunk;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks each of the rewrites done by the selector normalizer, and that
+ * selectors which aren't equivalent are left alone
+ * 
+ * @author Earthcomputer
+ */
+public class SelectorNormalizerTest {
+
+	private static List<String> normalize(String... commands) {
+		List<String> commandList = new ArrayList<>(Arrays.asList(commands));
+		new SelectorNormalizer().apply(commandList);
+		return commandList;
+	}
+
+	private static void assertNormalized(String expected, String command) {
+		assertEquals(Collections.singletonList(expected), normalize(command));
+	}
+
+	@Test
+	public void testRemovesCountOfNearestPlayer() {
+		assertNormalized("say @p[r=5]", "say @p[c=1,r=5]");
+		assertNormalized("say @p", "say @p[c=1]");
+		assertNormalized("say @p[c=2]", "say @p[c=2]");
+	}
+
+	@Test
+	public void testRemovesEmptyBrackets() {
+		assertNormalized("say @e", "say @e[]");
+		assertNormalized("say @a", "say @a[]");
+	}
+
+	@Test
+	public void testSortsArguments() {
+		assertNormalized("say @e[type=cow,score_o=3]", "say @e[score_o=3,type=cow]");
+		assertNormalized("say @e[tag=a,r=5,score_o=3,c=2]", "say @e[c=2,score_o=3,r=5,tag=a]");
+		assertNormalized("say @r[type=cow,score_o=3]", "say @r[score_o=3,type=cow]");
+	}
+
+	@Test
+	public void testRemovesConditionalCallWithEmptyRange() {
+		assertEquals(Collections.emptyList(), normalize("function a:b if @e[score_o_min=5,score_o=3]"));
+		assertEquals(Collections.emptyList(), normalize("function a:b if @a[lm=5,l=3]"));
+		assertEquals(Collections.emptyList(), normalize("execute @e[rm=5,r=3] ~ ~ ~ say hi"));
+		assertNormalized("function a:b if @e[score_o_min=3,score_o=3]", "function a:b if @e[score_o_min=3,score_o=3]");
+	}
+
+	@Test
+	public void testUnconditionalCallWithEmptyRange() {
+		assertNormalized("function a:b", "function a:b unless @e[score_o_min=5,score_o=3]");
+	}
+
+	@Test
+	public void testKeepsSelectorsWhichMatchDeadPlayers() {
+		assertNormalized("say @e[type=player]", "say @e[type=player]");
+		assertNormalized("say @a[c=1]", "say @a[c=1]");
+		assertNormalized("say @a[rx=10,rxm=20]", "say @a[rx=10,rxm=20]");
+	}
+
+	@Test
+	public void testCountsChangedCommands() {
+		List<String> commands = new ArrayList<>(Arrays.asList("say @e[]", "say hi", "function a:b if @e[l=1,lm=2]"));
+		assertEquals(2, new SelectorNormalizer().apply(commands));
+		assertEquals(Arrays.asList("say @e", "say hi"), commands);
+	}
+
+}
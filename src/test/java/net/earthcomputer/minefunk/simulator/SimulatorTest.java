@@ -0,0 +1,107 @@
+package net.earthcomputer.minefunk.simulator;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import net.earthcomputer.minefunk.Main;
+
+/**
+ * Compiles the test mods and runs them in the simulator, so that changes to
+ * how many commands the generated functions run show up as test failures
+ * 
+ * @author Earthcomputer
+ */
+public class SimulatorTest {
+
+	private static Simulator compile(String inputFile) throws IOException {
+		Path outputDirectory = Files.createTempDirectory("minefunk");
+		Main.main(new String[] { "src/test/resources/" + inputFile, "-o", outputDirectory.toString() });
+		return new Simulator(Simulator.loadFunctions(outputDirectory));
+	}
+
+	@Test
+	public void testTestMod() throws IOException {
+		Simulator simulator = compile("test_mod.funk");
+		Simulator.Result result = simulator.run("test_mod:main");
+		assertEquals(4, result.getCommandsExecuted());
+		assertEquals(4, result.getChainLength());
+		assertEquals(0, result.getFunctionCalls());
+		assertFalse(result.isChainLimitHit());
+		assertEquals(Collections.singletonList("@a Hello World!"), simulator.getWorld().getOutput());
+		assertEquals("true", simulator.getWorld().getGameRule("commandBlockOutput"));
+		assertEquals(String.valueOf(Integer.MAX_VALUE), simulator.getWorld().getGameRule("maxCommandChainLength"));
+	}
+
+	@Test
+	public void testSwitchRunsOneCase() throws IOException {
+		Simulator simulator = compile("switch_test.funk");
+		SimulatedWorld world = simulator.getWorld();
+		world.addObjective("case");
+		for (int value = 1; value <= 5; value++) {
+			world.setScore("@s", "case", value);
+			simulator.run("switch_test:main");
+		}
+		assertEquals(Arrays.asList("one", "two", "three", "four", "five"), world.getOutput());
+		assertFalse(world.hasTag("@s", "minefunk.switch0"));
+	}
+
+	@Test
+	public void testSwitchIsBinarySearch() throws IOException {
+		Simulator simulator = compile("switch_test.funk");
+		simulator.getWorld().addObjective("case");
+		simulator.getWorld().setScore("@s", "case", 4);
+		Simulator.Result result = simulator.run("switch_test:main");
+		// Adding the tag, 2 conditions at each of the 3 levels of the search,
+		// the 2 commands of the case and removing the tag. Checking every case
+		// in turn would take 5 conditions, and running them all 34 commands.
+		assertEquals(10, result.getCommandsExecuted());
+		assertEquals(3, result.getFunctionCalls());
+		assertEquals(4, result.getMaxDepth());
+	}
+
+	@Test
+	public void testSwitchWithoutScore() throws IOException {
+		Simulator simulator = compile("switch_test.funk");
+		simulator.getWorld().addObjective("case");
+		Simulator.Result result = simulator.run("switch_test:main");
+		assertEquals(0, result.getFunctionCalls());
+		assertTrue(simulator.getWorld().getOutput().isEmpty());
+	}
+
+	@Test
+	public void testRecursionThroughInlineFunction() throws IOException {
+		Simulator simulator = compile("recursion_test.funk");
+		simulator.getWorld().addTag("@s", "again");
+		simulator.run("recursion_test:main");
+		assertEquals(Arrays.asList("hi", "hi"), simulator.getWorld().getOutput());
+		assertFalse(simulator.getWorld().hasTag("@s", "again"));
+	}
+
+	@Test
+	public void testConditions() {
+		Map<String, List<String>> functions = new HashMap<>();
+		functions.put("t:main", Arrays.asList("function t:a if @s[score_o_min=2]", "function t:b unless @s[tag=x]",
+				"function t:c if @e[type=cow]"));
+		functions.put("t:a", Collections.singletonList("say a"));
+		functions.put("t:b", Collections.singletonList("say b"));
+		functions.put("t:c", Collections.singletonList("say c"));
+		Simulator simulator = new Simulator(functions);
+		simulator.getWorld().addObjective("o");
+		simulator.getWorld().setScore("@s", "o", 1);
+		simulator.getWorld().addTag("@s", "x");
+		simulator.run("t:main");
+		// Selectors other than @s can't be checked, so pass by default
+		assertEquals(Collections.singletonList("c"), simulator.getWorld().getOutput());
+	}
+
+}